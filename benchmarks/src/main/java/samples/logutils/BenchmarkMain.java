@@ -0,0 +1,48 @@
+package samples.logutils;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, always adding the
+ * GC profiler so allocation regressions show up next to throughput. For
+ * example, to merge at k = 1024 only:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar MergeBenchmark -p k=1024
+ * </pre>
+ */
+public final class BenchmarkMain {
+
+  private BenchmarkMain() {
+    // entry point only
+  }
+
+  public static void main(final String[] args)
+      throws CommandLineOptionException, IOException, RunnerException {
+
+    final CommandLineOptions commandLine = new CommandLineOptions(args);
+
+    if (commandLine.shouldHelp() || commandLine.shouldList()
+        || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+
+      // let the stock entry point print the listings
+      org.openjdk.jmh.Main.main(args);
+      return;
+
+    }
+
+    new Runner(new OptionsBuilder()
+        .parent(commandLine)
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+
+  }
+
+}
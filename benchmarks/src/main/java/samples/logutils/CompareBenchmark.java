@@ -0,0 +1,77 @@
+package samples.logutils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link LogEntry#compareTo(LogEntry)} on its own, over neighbouring
+ * entries, and as used by a comparison sort of a run buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompareBenchmark {
+
+  private static final int ENTRY_COUNT = 65536;
+
+  @Param({"80", "512"})
+  public int lineLength;
+
+  @Param({"SORTED", "LOCAL", "RANDOM"})
+  public String disorder;
+
+  private LogEntry[] entries_;
+
+  @Setup
+  public void setUp() {
+
+    entries_ = LogLines.parse(
+        LogLines.generate(ENTRY_COUNT, lineLength, LogLines.Disorder.valueOf(disorder)));
+
+  }
+
+  /**
+   * @return the sum of the comparisons, so none can be eliminated
+   */
+  @Benchmark
+  @OperationsPerInvocation(ENTRY_COUNT - 1)
+  public int compareTo() {
+
+    int sum = 0;
+    for (int i = 1; i < entries_.length; i++) {
+      sum += entries_[i - 1].compareTo(entries_[i]);
+    }
+    return sum;
+
+  }
+
+  /**
+   * Sort a copy of the entries, per entry sorted.
+   */
+  @Benchmark
+  @OperationsPerInvocation(ENTRY_COUNT)
+  public LogEntry[] sort() {
+
+    final LogEntry[] copy = entries_.clone();
+    Arrays.sort(copy);
+    return copy;
+
+  }
+
+}
@@ -0,0 +1,214 @@
+package samples.logutils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Generates synthetic log lines for the benchmarks. Every generator is
+ * seeded, so each benchmark sees the same input from run to run.
+ */
+final class LogLines {
+
+  /** The order of the generated lines */
+  enum Disorder {
+
+    /** Already in time order */
+    SORTED,
+
+    /** Each line displaced by up to a second, as from clock skew */
+    LOCAL,
+
+    /** Fully shuffled */
+    RANDOM,
+
+  }
+
+  /** A kind of line for the parser benchmarks */
+  enum Kind {
+
+    /** A well formed line */
+    VALID,
+
+    /** A line cut off inside its timestamp */
+    TRUNCATED,
+
+    /** Text without any log structure, e.g. a stack trace line */
+    GARBAGE,
+
+    /** A well formed line with an unknown severity, rejected last */
+    BAD_SEVERITY,
+
+  }
+
+  // 2015-11-19 10:00:00.000 UTC
+  private static final long BASE_MILLIS = 1447927200000L;
+
+  // milliseconds between consecutive lines before any disorder
+  private static final int STEP_MILLIS = 10;
+
+  // largest displacement of LOCAL disorder
+  private static final int LOCAL_WINDOW_MILLIS = 1000;
+
+  private static final String[] SEVERITIES = {"ERROR", "WARN", "INFO"};
+
+  private LogLines() {
+    // static utility
+  }
+
+  /**
+   * @param count the number of lines
+   * @param lineLength the approximate length of each line in characters
+   * @param disorder the order of the lines
+   * @return the generated lines
+   */
+  static String[] generate(final int count, final int lineLength, final Disorder disorder) {
+
+    final Random random = new Random(42);
+    final SimpleDateFormat format = newFormat();
+    final String[] lines = new String[count];
+
+    for (int i = 0; i < count; i++) {
+
+      long millis = BASE_MILLIS + (long) i * STEP_MILLIS;
+      if (disorder == Disorder.LOCAL) {
+        millis += random.nextInt(2 * LOCAL_WINDOW_MILLIS) - LOCAL_WINDOW_MILLIS;
+      }
+
+      lines[i] = line(format, random, millis, SEVERITIES[random.nextInt(3)], lineLength);
+
+    }
+
+    if (disorder == Disorder.RANDOM) {
+
+      for (int i = count - 1; i > 0; i--) {
+        final int j = random.nextInt(i + 1);
+        final String line = lines[i];
+        lines[i] = lines[j];
+        lines[j] = line;
+      }
+
+    }
+
+    return lines;
+
+  }
+
+  /**
+   * @param kind the kind of line
+   * @param lineLength the approximate length of the line in characters
+   * @return a line of the given kind
+   */
+  static String generate(final Kind kind, final int lineLength) {
+
+    final Random random = new Random(42);
+    final String valid = line(newFormat(), random, BASE_MILLIS, "WARN", lineLength);
+
+    switch (kind) {
+
+      case VALID:
+        return valid;
+
+      case TRUNCATED:
+        return valid.substring(0, 20);
+
+      case GARBAGE:
+        return pad(new StringBuilder("\tat samples.logutils.LogEntry.fromString(LogEntry.java:55) "),
+                   random, lineLength);
+
+      case BAD_SEVERITY:
+        return valid.replace("[WARN]", "[FATAL]");
+
+      default:
+        throw new IllegalArgumentException("Unknown kind: " + kind);
+
+    }
+
+  }
+
+  /**
+   * Write lines to a new temporary file, deleted on exit.
+   *
+   * @param lines the lines to write
+   * @return the file
+   * @throws IOException on write errors
+   */
+  static File write(final String[] lines) throws IOException {
+
+    final File file = File.createTempFile("bench-input-", ".log");
+    file.deleteOnExit();
+
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file), StandardCharsets.UTF_8));
+
+    try {
+      for (final String line : lines) {
+        writer.write(line);
+        writer.write(System.lineSeparator());
+      }
+    } finally {
+      writer.close();
+    }
+
+    return file;
+
+  }
+
+  /**
+   * @return the parsed entries of the lines
+   */
+  static LogEntry[] parse(final String[] lines) {
+
+    final LogEntry[] entries = new LogEntry[lines.length];
+    for (int i = 0; i < lines.length; i++) {
+      entries[i] = LogEntry.fromString(lines[i]);
+    }
+    return entries;
+
+  }
+
+  private static String line(final SimpleDateFormat format,
+                             final Random random,
+                             final long millis,
+                             final String severity,
+                             final int lineLength) {
+
+    final StringBuilder builder = new StringBuilder(lineLength + 64);
+    builder.append('[').append(format.format(new Date(millis))).append("] ")
+        .append("[HOST").append(random.nextInt(16)).append("] ")
+        .append('[').append(severity).append("] ")
+        .append("[CLASS").append(random.nextInt(64)).append("] [");
+
+    return pad(builder, random, lineLength - 1).concat("]");
+
+  }
+
+  private static String pad(final StringBuilder builder, final Random random, final int length) {
+
+    while (builder.length() < length) {
+      builder.append((char) ('a' + random.nextInt(26)));
+      if (random.nextInt(8) == 0) {
+        builder.append(' ');
+      }
+    }
+    return builder.toString();
+
+  }
+
+  private static SimpleDateFormat newFormat() {
+
+    final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSZ");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format;
+
+  }
+
+}
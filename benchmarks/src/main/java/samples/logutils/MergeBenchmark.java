@@ -0,0 +1,103 @@
+package samples.logutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merge throughput of a {@link SortedLogReader} over k sorted runs holding
+ * a fixed number of entries in total, reported per entry merged. The runs
+ * are consecutive slices of the generated input, so with sorted input each
+ * run covers its own time range and with random input all runs overlap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MergeBenchmark {
+
+  private static final int ENTRY_COUNT = 1 << 18;
+
+  @Param({"2", "8", "64", "256", "1024"})
+  public int k;
+
+  @Param({"80", "512"})
+  public int lineLength;
+
+  @Param({"SORTED", "LOCAL", "RANDOM"})
+  public String disorder;
+
+  @Param({"TEXT", "BINARY"})
+  public String runFormat;
+
+  private SortOptions options_;
+  private Set<File> runs_;
+
+  @Setup
+  public void setUp() throws IOException {
+
+    options_ = new SortOptions()
+        .setRunLineCount(ENTRY_COUNT / k)
+        .setRunFormat(RunFormat.valueOf(runFormat));
+
+    final RollingSortedLogWriter writer = RollingSortedLogWriter.create(options_, null);
+    final String[] lines =
+        LogLines.generate(ENTRY_COUNT, lineLength, LogLines.Disorder.valueOf(disorder));
+
+    for (final String line : lines) {
+      writer.addLogEntry(LogEntry.fromString(line));
+    }
+    writer.close();
+
+    runs_ = new LinkedHashSet<>(writer.getFiles());
+
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ENTRY_COUNT)
+  public int merge() throws IOException {
+
+    final SortedLogReader reader = new SortedLogReader(runs_, options_);
+    int count = 0;
+
+    try {
+      while (reader.hasNext()) {
+        reader.getNextEntry();
+        count++;
+      }
+    } finally {
+      reader.closeAll();
+    }
+
+    return count;
+
+  }
+
+  @TearDown
+  public void deleteRuns() {
+
+    for (final File run : runs_) {
+      run.delete();
+    }
+
+  }
+
+}
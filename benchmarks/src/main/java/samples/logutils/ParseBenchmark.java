@@ -0,0 +1,73 @@
+package samples.logutils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of single lines, well formed and malformed. Malformed lines show
+ * the cost of a rejection by {@link LogEntry#fromString(String)}, which
+ * throws, against {@link LogEntry#tryParse(String)}, which does not.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+  @Param({"80", "512", "4096"})
+  public int lineLength;
+
+  @Param({"VALID", "TRUNCATED", "GARBAGE", "BAD_SEVERITY"})
+  public String kind;
+
+  private String line_;
+  private byte[] utf8_;
+
+  @Setup
+  public void setUp() {
+
+    line_ = LogLines.generate(LogLines.Kind.valueOf(kind), lineLength);
+    utf8_ = line_.getBytes(StandardCharsets.UTF_8);
+
+  }
+
+  @Benchmark
+  public LogEntry fromString() {
+
+    try {
+      return LogEntry.fromString(line_);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+
+  }
+
+  @Benchmark
+  public LogEntry tryParse() {
+
+    return LogEntry.tryParse(line_);
+
+  }
+
+  @Benchmark
+  public LogEntry parseUtf8() {
+
+    return LogEntryParser.parse(utf8_, 0, utf8_.length);
+
+  }
+
+}
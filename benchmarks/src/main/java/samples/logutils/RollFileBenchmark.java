@@ -0,0 +1,85 @@
+package samples.logutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RollingSortedLogWriter#rollFile()}: the sort and write of one
+ * full run buffer to a temporary file, at several run sizes. The buffer is
+ * filled before each invocation, outside the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RollFileBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int runLineCount;
+
+  @Param({"80", "512"})
+  public int lineLength;
+
+  @Param({"SORTED", "LOCAL", "RANDOM"})
+  public String disorder;
+
+  private LogEntry[] entries_;
+  private RollingSortedLogWriter writer_;
+
+  @Setup
+  public void setUp() {
+
+    entries_ = LogLines.parse(
+        LogLines.generate(runLineCount, lineLength, LogLines.Disorder.valueOf(disorder)));
+
+    // one line more than a run, so the buffer never rolls by itself
+    writer_ = RollingSortedLogWriter.create(
+        new SortOptions().setRunLineCount(runLineCount + 1), null);
+
+  }
+
+  @Setup(Level.Invocation)
+  public void fillBuffer() throws IOException {
+
+    for (final LogEntry entry : entries_) {
+      writer_.addLogEntry(entry);
+    }
+
+  }
+
+  @Benchmark
+  public RollingSortedLogWriter rollFile() throws IOException {
+
+    writer_.rollFile();
+    return writer_;
+
+  }
+
+  @TearDown(Level.Iteration)
+  public void deleteFiles() {
+
+    for (final File file : writer_.getFiles()) {
+      file.delete();
+    }
+    writer_.getFiles().clear();
+
+  }
+
+}
@@ -0,0 +1,82 @@
+package samples.logutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import samples.SortLogLines;
+
+/**
+ * End to end {@link SortLogLines#sort(String, String, SortOptions)} of a
+ * generated file, small enough to need several runs and a merge pass
+ * rather than to stress the disk.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SortBenchmark {
+
+  private static final int LINE_COUNT = 500000;
+
+  private static final int RUN_LINE_COUNT = 50000;
+
+  @Param({"80", "512"})
+  public int lineLength;
+
+  @Param({"SORTED", "LOCAL", "RANDOM"})
+  public String disorder;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  private File input_;
+  private File output_;
+  private SortOptions options_;
+
+  @Setup
+  public void setUp() throws IOException {
+
+    input_ = LogLines.write(
+        LogLines.generate(LINE_COUNT, lineLength, LogLines.Disorder.valueOf(disorder)));
+    output_ = File.createTempFile("bench-output-", ".log");
+    output_.deleteOnExit();
+
+    options_ = new SortOptions()
+        .setRunLineCount(RUN_LINE_COUNT)
+        .setThreadCount(threads)
+        .setMergeThreadCount(threads);
+
+  }
+
+  @Benchmark
+  public SortStats sort() throws IOException {
+
+    return SortLogLines.sort(input_.getAbsolutePath(), output_.getAbsolutePath(), options_);
+
+  }
+
+  @TearDown
+  public void deleteFiles() {
+
+    input_.delete();
+    output_.delete();
+
+  }
+
+}
@@ -6,17 +6,39 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.Writer;
-import java.nio.channels.Channels;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
 
+import samples.logutils.BatchedLogWriter;
+import samples.logutils.BoundedDisorderSorter;
 import samples.logutils.LogEntry;
+import samples.logutils.LogFilter;
+import samples.logutils.MergeStats;
+import samples.logutils.MultiPassMerger;
+import samples.logutils.ParallelMerger;
+import samples.logutils.PresortedMerger;
+import samples.logutils.ParallelRunGenerator;
 import samples.logutils.RollingSortedLogWriter;
+import samples.logutils.SortOptions;
+import samples.logutils.SortPhase;
+import samples.logutils.SortStats;
+import samples.logutils.SortedLogIterator;
 import samples.logutils.SortedLogReader;
+import samples.logutils.SortedOutputWriter;
+import samples.logutils.TimeIndex;
+import samples.logutils.TimeRangeReader;
+import samples.logutils.TopNSelector;
 
 public class SortLogLines {
 
-  public static final int TEMP_FILE_LINE_COUNT = 1000000;
+  public static final int TEMP_FILE_LINE_COUNT = SortOptions.DEFAULT_RUN_LINE_COUNT;
   
   /**
    * Sort a potentially large file of log entries. 
@@ -26,9 +48,9 @@ public class SortLogLines {
    * 
    * The constant value {@link #TEMP_FILE_LINE_COUNT} should be adjusted
    * based on the expected size of the input file, and should only be 
-   * considered a default. Alternatively, rather than counting lines a 
-   * more proper sizing guide would be to measure the size of the external
-   * sort files, however I have not done this yet. 
+   * considered a default. Alternatively, rather than counting lines, 
+   * {@link SortOptions#setRunByteBudget(long)} sizes the external sort 
+   * files by the estimated heap their entries retain. 
    * 
    * At a very high level, the following utilities are used:
    * <ul>
@@ -44,19 +66,26 @@ public class SortLogLines {
    * off of sample input), plus the object overhead (~16 byes). This is on
    * average 256 bytes. If {@link #TEMP_FILE_LINE_COUNT} is 1 million, that
    * is approximately 256mb of heap for the objects alone. 
+   * {@link SortOptions#setCompactRunBuffer(boolean)} instead buffers the 
+   * raw line bytes off-heap with a primitive key index, roughly the line 
+   * length plus 16 bytes per entry. 
    * 
    * Note that there is a tradeoff to having smaller incremental files in the
    * external sort algorithm. If the files are smaller, you will end up with
    * more files. During the load phase of the external sort you will have to 
-   * keep an open reference to all files simultaneously. The associated cost
+   * keep an open reference to every file being merged. The associated cost
    * of the buffered input streams and file readers can become excessive, so
    * selecting an appropriate balance for  {@link #TEMP_FILE_LINE_COUNT} is
-   * crucial. 
+   * crucial. The merge fan-in is capped by 
+   * {@link SortOptions#getMaxMergeFanIn()}, beyond which extra merge passes
+   * trade disk traffic for open files. 
    * 
-   * Also note: this approach is single threaded, but designed to work with
-   * large data sets. Since a large number of log entries will be read into
-   * the heap and then (relatively) immediately dereferenced, an excessive 
-   * amount of time will be spent performing garbage collection. It may be 
+   * Also note: by default this approach is single threaded, but designed to
+   * work with large data sets. See {@link #sort(String, String, SortOptions)}
+   * for a pipelined, multi-threaded variant of the first phase. Since a 
+   * large number of log entries will be read into the heap and then 
+   * (relatively) immediately dereferenced, an excessive amount of time 
+   * will be spent performing garbage collection. It may be 
    * beneficial to execute using parallel GC and parallel compaction. See
    * the guidlines at:  
    * http://www.oracle.com/technetwork/java/javase/gc-tuning-6-140523.html#available_collectors.selecting
@@ -67,29 +96,285 @@ public class SortLogLines {
    */
   public static void sort(final String inputFileName, final String outputFileName) throws IOException {
     
+    sort(inputFileName, outputFileName, new SortOptions());
+    
+  }
+  
+  /**
+   * Sort a potentially large file of log entries using the given options. 
+   * 
+   * When {@link SortOptions#getThreadCount()} is greater than one the 
+   * temporary files are produced by a {@link ParallelRunGenerator}: lines
+   * are parsed on a pool of workers and full buffers are sorted and written
+   * while the next buffer is being filled. The output is identical to the
+   * single threaded path. 
+   * 
+   * If more temporary files are produced than 
+   * {@link SortOptions#getMaxMergeFanIn()} they are first merged into
+   * intermediate files by a {@link MultiPassMerger}. When 
+   * {@link SortOptions#getMergeThreadCount()} is greater than one the final
+   * merge is split into key ranges merged and written concurrently by a 
+   * {@link ParallelMerger}, each range writing its own output; 
+   * {@link SortOptions#isBackgroundOutput()} then has no effect. 
+   * 
+   * With {@link SortOptions#isBoundedDisorder()} a single streaming pass 
+   * by a {@link BoundedDisorderSorter} is tried first, without temporary
+   * files; the external sort only runs if the input breaks the bound. The
+   * returned statistics then show no runs or merge passes. 
+   * 
+   * With {@link SortOptions#getFilter()} set, only the lines the 
+   * {@link LogFilter} accepts are sorted; the rest are dropped as they are
+   * parsed, before anything is buffered or spilled. 
+   * 
+   * With {@link SortOptions#getTimeIndexInterval()} set, a {@link TimeIndex}
+   * of the output is written to its sidecar file, so a 
+   * {@link TimeRangeReader} can extract a time range without scanning the
+   * output. Otherwise any stale sidecar of the output is deleted. 
+   * 
+   * Lines that fail to parse are handled by the 
+   * {@link SortOptions#getBadRecordPolicy()}, whose quarantine file is 
+   * flushed when the sort ends. 
+   * 
+   * Progress of each stage is reported to {@link SortOptions#getListener()}
+   * and gathered into the returned {@link SortStats}, which can be watched
+   * while the sort runs through JMX, see 
+   * {@link SortOptions#setMBeanName(String)}. 
+   * 
+   * @param inputFileName the filename of the input file
+   * @param outputFileName the filename of the output file to write results to 
+   * @param options the sort tuning options 
+   * @return the run generation and merge statistics 
+   * @throws IOException on file not found and other disk IO problems 
+   */
+  public static SortStats sort(final String inputFileName, 
+                                final String outputFileName, 
+                                final SortOptions options) throws IOException {
+    
     final File inputFile = new File(inputFileName);
     final File outputFile = new File(outputFileName);
     
-    // Part 1: read the file into smaller/sorted files
-    final Set<File> tempFiles = readIntoSortedTempFiles(inputFile);
+    final SortStats stats = new SortStats(options.getListener());
+    final SortOptions instrumented = options.copy().setListener(stats);
     
-    // Part 2: write one large sorted output 
-    final SortedLogReader logReader = new SortedLogReader(tempFiles);
+    if (options.getMBeanName() != null) {
+      stats.registerMBean(options.getMBeanName());
+    }
     
-    final FileOutputStream fos = new FileOutputStream(outputFile);
-    final Writer writer = Channels.newWriter(fos.getChannel(), "UTF-8");
+    try {
+      
+      // Part 1: read the file into smaller/sorted files
+      stats.startPhase(SortPhase.RUN_GENERATION);
+      
+      final Set<File> tempFiles;
+      
+      try {
+        
+        if (options.isBoundedDisorder() 
+            && sortBoundedDisorder(inputFile, outputFile, instrumented)) {
+          return stats;
+        }
+        
+        tempFiles = readIntoSortedTempFiles(inputFile, instrumented);
+        
+      } finally {
+        stats.finishPhase(SortPhase.RUN_GENERATION);
+      }
+      
+      // Part 2: write one large sorted output, merging with a bounded fan-in
+      stats.startPhase(SortPhase.MERGE);
+      
+      try {
+        
+        if (options.getMergeThreadCount() > 1) {
+          
+          final ParallelMerger merger = new ParallelMerger(instrumented);
+          merger.merge(tempFiles, outputFile);
+          writeTimeIndex(merger.getTimeIndex(), outputFile);
+          return stats;
+          
+        }
+        
+        final MultiPassMerger merger = new MultiPassMerger(instrumented);
+        final List<File> runs = merger.intermediatePasses(tempFiles);
+        final SortedLogReader logReader = 
+            new SortedLogReader(new LinkedHashSet<>(runs), instrumented);
+        
+        try {
+          
+          writeOutput(logReader, outputFile, options);
+          
+        } finally {
+          
+          logReader.closeAll();
+          merger.deleteMerged(runs);
+          
+        }
+        
+        return stats;
+        
+      } finally {
+        stats.finishPhase(SortPhase.MERGE);
+      }
+      
+    } finally {
+      
+      stats.unregisterMBean();
+      options.getBadRecordPolicy().flush();
+      
+    }
+    
+  }
+  
+  /**
+   * Merge log files that are each already sorted, e.g. one file per host,
+   * into one sorted output without sorting them again. The inputs are 
+   * merged directly by a {@link PresortedMerger}; only inputs found out of
+   * order are sorted into temporary files first. A time index is written
+   * as for {@link #sort(String, String, SortOptions)}. 
+   * 
+   * @param inputFileNames the filenames of the sorted input files; equal 
+   *        entries are written in this order
+   * @param outputFileName the filename of the output file to write results to 
+   * @param options the sort tuning options 
+   * @return the merge pass statistics 
+   * @throws IOException on file not found and other disk IO problems 
+   */
+  public static MergeStats mergeSorted(final List<String> inputFileNames, 
+                                       final String outputFileName, 
+                                       final SortOptions options) throws IOException {
+    
+    final List<File> inputs = new ArrayList<>();
+    for (final String inputFileName : inputFileNames) {
+      inputs.add(new File(inputFileName));
+    }
+    
+    final PresortedMerger merger = new PresortedMerger(options);
+    final SortedLogReader logReader = merger.merge(inputs);
     
     try {
-
-      while (logReader.hasNext()) {
+      
+      writeOutput(logReader, new File(outputFileName), options);
+      
+    } finally {
+      
+      logReader.closeAll();
+      options.getBadRecordPolicy().flush();
+      
+    }
+    
+    return merger.getStats();
+    
+  }
+  
+  /**
+   * Select the earliest entries of a potentially large file in sorted 
+   * order, as the first lines of {@link #sort(String, String, SortOptions)}
+   * would be, in a single streaming pass that keeps only the selected 
+   * entries in memory and writes no temporary files. See 
+   * {@link TopNSelector}. 
+   * 
+   * @param inputFileName the filename of the input file
+   * @param count the number of entries to select
+   * @param options the thread count, filter and bad record policy 
+   * @return up to count entries, in sorted order 
+   * @throws IOException on file not found and other disk IO problems 
+   */
+  public static List<LogEntry> head(final String inputFileName, 
+                                    final int count, 
+                                    final SortOptions options) throws IOException {
+    
+    return select(inputFileName, TopNSelector.head(options, count));
+    
+  }
+  
+  /**
+   * Select the latest entries of a potentially large file in sorted order,
+   * as the last lines of {@link #sort(String, String, SortOptions)} would
+   * be, see {@link #head(String, int, SortOptions)}. 
+   * 
+   * @param inputFileName the filename of the input file
+   * @param count the number of entries to select
+   * @param options the thread count, filter and bad record policy 
+   * @return up to count entries, in sorted order 
+   * @throws IOException on file not found and other disk IO problems 
+   */
+  public static List<LogEntry> tail(final String inputFileName, 
+                                    final int count, 
+                                    final SortOptions options) throws IOException {
+    
+    return select(inputFileName, TopNSelector.tail(options, count));
+    
+  }
+  
+  private static List<LogEntry> select(final String inputFileName, 
+                                       final TopNSelector selector) throws IOException {
+    
+    final BufferedReader reader = new BufferedReader(new FileReader(inputFileName));
+    
+    try {
+      return selector.select(reader);
+    } finally {
+      reader.close();
+    }
+    
+  }
+  
+  /**
+   * Try to sort nearly sorted input in a single streaming pass. 
+   * 
+   * @return false if the input broke the disorder bound, in which case the
+   *         output is incomplete and must be rewritten 
+   */
+  private static boolean sortBoundedDisorder(final File inputFile, 
+                                             final File outputFile, 
+                                             final SortOptions options) throws IOException {
+    
+    final BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+    
+    try {
+      
+      final FileOutputStream fos = new FileOutputStream(outputFile);
+      final BoundedDisorderSorter sorter = new BoundedDisorderSorter(options, fos);
+      
+      try {
         
-        final LogEntry entry = logReader.getNextEntry();
-        writer.write(entry.getLogLine());
-        writer.write(System.lineSeparator());
+        if (!sorter.sort(reader)) {
+          options.getListener().boundedDisorderFallback();
+          return false;
+        }
         
+      } finally {
+        fos.close();
       }
       
-      writer.flush();
+      writeTimeIndex(sorter.getTimeIndex(), outputFile);
+      
+      return true;
+      
+    } finally {
+      reader.close();
+    }
+    
+  }
+  
+  /**
+   * Write the merged entries to the output file, and its time index if 
+   * one is requested. 
+   */
+  private static void writeOutput(final SortedLogReader logReader, 
+                                  final File outputFile, 
+                                  final SortOptions options) throws IOException {
+    
+    final FileOutputStream fos = new FileOutputStream(outputFile);
+    TimeIndex index = null;
+    
+    try {
+      
+      if (options.isBackgroundOutput()) {
+        writeInBackground(logReader, fos);
+      } else {
+        index = write(logReader, fos, options.getTimeIndexInterval());
+      }
       
     } finally {
       
@@ -97,7 +382,136 @@ public class SortLogLines {
       
     }
     
-    logReader.closeAll();
+    // the background writer does not track line offsets, so index the 
+    // finished output, reading a few kilobytes per checkpoint
+    if (options.isBackgroundOutput() && options.getTimeIndexInterval() > 0) {
+      index = TimeIndex.build(outputFile, options.getTimeIndexInterval());
+    }
+    
+    writeTimeIndex(index, outputFile);
+    
+  }
+  
+  /**
+   * Write the index sidecar of the output, or delete a stale one. 
+   */
+  private static void writeTimeIndex(final TimeIndex index, 
+                                     final File outputFile) throws IOException {
+    
+    final File sidecar = TimeIndex.sidecarOf(outputFile);
+    
+    if (index != null) {
+      index.write(sidecar);
+    } else {
+      sidecar.delete();
+    }
+    
+  }
+  
+  /**
+   * Write the merged entries on the calling thread. Byte backed entries
+   * are written as they are, without encoding. 
+   * 
+   * @return the time index of the output, or null if not indexing 
+   */
+  private static TimeIndex write(final SortedLogReader logReader, 
+                                 final FileOutputStream fos, 
+                                 final int timeIndexInterval) throws IOException {
+    
+    final SortedOutputWriter out = new SortedOutputWriter(fos, timeIndexInterval);
+    
+    while (logReader.hasNext()) {
+      out.write(logReader.getNextEntry());
+    }
+    
+    out.flush();
+    
+    return out.getTimeIndex();
+    
+  }
+  
+  /**
+   * Write the merged entries through a {@link BatchedLogWriter}, so the 
+   * calling thread only merges. 
+   */
+  private static void writeInBackground(final SortedLogReader logReader, 
+                                        final FileOutputStream fos) throws IOException {
+    
+    final BatchedLogWriter writer = new BatchedLogWriter(fos.getChannel());
+    
+    try {
+      
+      while (logReader.hasNext()) {
+        writer.write(logReader.getNextEntry());
+      }
+      
+    } finally {
+      
+      writer.close();
+      
+    }
+    
+  }
+
+  /**
+   * Sort a potentially large file of log entries and return the result as
+   * a lazily merged iterator rather than writing an output file. The runs
+   * are generated up front, then each entry is merged out of them as it 
+   * is consumed. Close the iterator, or its {@link SortedLogIterator#stream()},
+   * to delete the temporary files when stopping early. 
+   * 
+   * @param inputFileName the filename of the input file
+   * @param options the sort tuning options 
+   * @return the sorted entries 
+   * @throws IOException on file not found and other disk IO problems 
+   */
+  public static SortedLogIterator sortedEntries(final String inputFileName, 
+                                                final SortOptions options) throws IOException {
+    
+    final Set<File> tempFiles = readIntoSortedTempFiles(new File(inputFileName), options);
+    
+    return new MultiPassMerger(options).iterate(tempFiles);
+    
+  }
+  
+  /**
+   * Sort the UTF-8 log lines of a stream, see 
+   * {@link #sortedEntries(String, SortOptions)}. The stream is read to the
+   * end but not closed. 
+   * 
+   * @param in the source of raw log lines 
+   * @param options the sort tuning options 
+   * @return the sorted entries 
+   * @throws IOException on disk IO problems 
+   */
+  public static SortedLogIterator sortedEntries(final InputStream in, 
+                                                final SortOptions options) throws IOException {
+    
+    final BufferedReader reader = 
+        new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    
+    final Set<File> tempFiles = readIntoSortedTempFiles(reader, options);
+    
+    return new MultiPassMerger(options).iterate(tempFiles);
+    
+  }
+  
+  /**
+   * Sort a stream of raw log lines, see 
+   * {@link #sortedEntries(String, SortOptions)}. The stream is consumed 
+   * but not closed. 
+   * 
+   * @param lines the raw log lines 
+   * @param options the sort tuning options 
+   * @return the sorted entries 
+   * @throws IOException on disk IO problems 
+   */
+  public static SortedLogIterator sortedEntries(final Stream<String> lines, 
+                                                final SortOptions options) throws IOException {
+    
+    final Set<File> tempFiles = readIntoSortedTempFiles(lines.iterator(), options);
+    
+    return new MultiPassMerger(options).iterate(tempFiles);
     
   }
 
@@ -105,43 +519,54 @@ public class SortLogLines {
    * Read the large input file into a number of smaller sorted files. 
    * 
    * @param inputFile the input file to read
+   * @param options the sort tuning options 
    * @return a set of the sorted temporary files 
    * @throws FileNotFoundException
    * @throws IOException
    */
-  private static Set<File> readIntoSortedTempFiles(final File inputFile) 
+  private static Set<File> readIntoSortedTempFiles(final File inputFile, 
+                                                   final SortOptions options) 
       throws FileNotFoundException, IOException {
     
-    final RollingSortedLogWriter rslw = 
-        new RollingSortedLogWriter(TEMP_FILE_LINE_COUNT);
+    if (options.isMemoryMappedInput()) {
+      
+      return new ParallelRunGenerator(options).generateRuns(inputFile);
+      
+    }
     
     final BufferedReader reader = new BufferedReader(new FileReader(inputFile));
     
     try {
       
-      for (String line; (line = reader.readLine()) != null;) {
-        
-        try {
-          
-          final LogEntry entry = LogEntry.fromString(line);
-          rslw.addLogEntry(entry);
-          
-        } catch (IllegalArgumentException iae) {
-          
-          System.err.println("Skipping line due to parse error: " + line);
-          iae.printStackTrace();
-          
-        }
-        
-      }
+      return readIntoSortedTempFiles(reader, options);
       
     } finally {
       reader.close();
     }
-
-    rslw.close();
     
-    return rslw.getFiles();
+  }
+  
+  /**
+   * Read all lines of the reader into a number of smaller sorted files. The
+   * reader is not closed. 
+   */
+  private static Set<File> readIntoSortedTempFiles(final BufferedReader reader, 
+                                                   final SortOptions options) 
+      throws IOException {
+    
+    return new ParallelRunGenerator(options).generateRuns(reader);
+    
+  }
+  
+  /**
+   * Read all lines of the iterator into a number of smaller sorted files. 
+   */
+  private static Set<File> readIntoSortedTempFiles(final Iterator<String> lines, 
+                                                   final SortOptions options) 
+      throws IOException {
+    
+    return new ParallelRunGenerator(options).generateRuns(lines);
+    
   }
   
 }
@@ -4,13 +4,37 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
+import samples.logutils.BadRecordPolicy;
+import samples.logutils.DeflateBlockCodec;
+import samples.logutils.LogEntry;
+import samples.logutils.LogEntry.Severity;
+import samples.logutils.LogFilter;
+import samples.logutils.MergeStats;
+import samples.logutils.RunFormat;
+import samples.logutils.SortListener;
+import samples.logutils.SortOptions;
+import samples.logutils.SortPhase;
+import samples.logutils.SortStats;
+import samples.logutils.SortedLogIterator;
+import samples.logutils.TimeIndex;
+import samples.logutils.TimeRangeReader;
+
 public class SortLogLinesTest {
 
   @Test
@@ -30,6 +54,417 @@ public class SortLogLinesTest {
     assertThat(actualOutput, equalTo(EXPECTED_OUTPUT));
   }
 
+  @Test
+  public void testParallelAlgorithm() throws IOException {
+    
+    assertSortsSample(new SortOptions()
+        .setRunLineCount(3)
+        .setThreadCount(4)
+        .setInFlightBuffers(2));
+  }
+
+  @Test
+  public void testByteBudgetAlgorithm() throws IOException {
+    
+    assertSortsSample(new SortOptions().setRunByteBudget(1024));
+  }
+
+  @Test
+  public void testMultiPassMerge() throws IOException {
+    
+    final SortStats stats = assertSortsSample(new SortOptions()
+        .setRunLineCount(1)
+        .setMaxMergeFanIn(2));
+    
+    assertThat(stats.getPasses(), greaterThan(1));
+    assertThat(stats.getTempBytesHighWater(), greaterThan(0L));
+    assertThat(stats.getTempBytes(), equalTo(0L));
+  }
+
+  @Test
+  public void testTextRunFormat() throws IOException {
+    
+    assertSortsSample(new SortOptions()
+        .setRunLineCount(3)
+        .setRunFormat(RunFormat.TEXT));
+  }
+
+  @Test
+  public void testCompressedRuns() throws IOException {
+    
+    assertSortsSample(new SortOptions()
+        .setRunLineCount(3)
+        .setMaxMergeFanIn(2)
+        .setSpillCodec(new DeflateBlockCodec()));
+  }
+
+  @Test
+  public void testMemoryMappedInput() throws IOException {
+    
+    assertSortsSample(new SortOptions()
+        .setRunLineCount(3)
+        .setThreadCount(2)
+        .setMemoryMappedInput(true)
+        .setMappedChunkSize(64));
+  }
+
+  @Test
+  public void testCompactRunBuffer() throws IOException {
+    
+    assertSortsSample(new SortOptions()
+        .setRunLineCount(3)
+        .setThreadCount(2)
+        .setCompactRunBuffer(true));
+    
+    // a budget of a few lines, so runs roll on a full slab 
+    final SortStats stats = assertSortsSample(new SortOptions()
+        .setRunByteBudget(200)
+        .setCompactRunBuffer(true));
+    
+    assertThat(stats.getRunCount(), greaterThan(2));
+  }
+
+  @Test
+  public void testReplacementSelection() throws IOException {
+    
+    assertSortsSample(new SortOptions()
+        .setRunLineCount(2)
+        .setReplacementSelection(true));
+  }
+
+  @Test
+  public void testReadAhead() throws IOException {
+    
+    assertSortsSample(new SortOptions()
+        .setRunLineCount(3)
+        .setMergeBufferSize(16)
+        .setReadAheadBudget(1024)
+        .setReadAheadBlockSize(64));
+  }
+
+  @Test
+  public void testBackgroundOutput() throws IOException {
+    
+    assertSortsSample(new SortOptions()
+        .setRunLineCount(3)
+        .setBackgroundOutput(true));
+  }
+
+  @Test
+  public void testParallelMerge() throws IOException {
+    
+    final SortStats stats = assertSortsSample(new SortOptions()
+        .setRunLineCount(2)
+        .setMergeThreadCount(3));
+    
+    assertThat(stats.getTempBytes(), equalTo(0L));
+  }
+
+  @Test
+  public void testBoundedDisorder() throws IOException {
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    final File outputFile = File.createTempFile("test-output-", ".txt");
+    inputFile.deleteOnExit();
+    outputFile.deleteOnExit();
+    
+    writeStringToFile(SAMPLE_INPUT, inputFile);
+    
+    // within half an hour: sorted in one streaming pass 
+    final SortStats streamed = SortLogLines.sort(inputFile.getAbsolutePath(), 
+        outputFile.getAbsolutePath(), new SortOptions().setDisorderWindowMillis(30 * 60 * 1000));
+    
+    assertThat(streamed.getPasses(), equalTo(0));
+    assertThat(streamed.getBoundedDisorderFallbacks(), equalTo(0));
+    assertThat(readStringFromFile(outputFile), equalTo(EXPECTED_OUTPUT));
+    
+    // a minute is too tight for the sample, so the external sort takes over
+    final SortStats fallback = SortLogLines.sort(inputFile.getAbsolutePath(), 
+        outputFile.getAbsolutePath(), new SortOptions().setDisorderWindowMillis(60 * 1000));
+    
+    assertThat(fallback.getPasses(), equalTo(1));
+    assertThat(fallback.getBoundedDisorderFallbacks(), equalTo(1));
+    assertThat(fallback.getLinesRead(), equalTo(10L));
+    assertThat(fallback.getAbandonedLinesRead(), greaterThan(0L));
+    assertThat(readStringFromFile(outputFile), equalTo(EXPECTED_OUTPUT));
+  }
+
+  @Test
+  public void testBoundedDisorderFallbackRejectsOnce() throws IOException {
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    final File outputFile = File.createTempFile("test-output-", ".txt");
+    final File quarantineFile = File.createTempFile("test-quarantine-", ".txt");
+    inputFile.deleteOnExit();
+    outputFile.deleteOnExit();
+    quarantineFile.deleteOnExit();
+    
+    writeStringToFile("not a log line" + System.lineSeparator() + SAMPLE_INPUT, inputFile);
+    
+    // the streaming pass breaks the bound after reading the bad line
+    final BadRecordPolicy policy = BadRecordPolicy.quarantine(quarantineFile).setMaxBadRecords(1);
+    
+    try {
+      
+      final SortStats stats = SortLogLines.sort(inputFile.getAbsolutePath(), 
+          outputFile.getAbsolutePath(), new SortOptions()
+              .setDisorderWindowMillis(1000)
+              .setBadRecordPolicy(policy));
+      
+      assertThat(stats.getBoundedDisorderFallbacks(), equalTo(1));
+      assertThat(stats.getParseFailures(), equalTo(1L));
+      
+    } finally {
+      policy.close();
+    }
+    
+    assertThat(readStringFromFile(outputFile), equalTo(EXPECTED_OUTPUT));
+    assertThat(policy.getCount(), equalTo(1L));
+    assertThat(readStringFromFile(quarantineFile), equalTo("not a log line"));
+  }
+  
+  @Test
+  public void testMergeSorted() throws IOException {
+    
+    final File firstHost = File.createTempFile("test-input-", ".txt");
+    final File secondHost = File.createTempFile("test-input-", ".txt");
+    final File outputFile = File.createTempFile("test-output-", ".txt");
+    firstHost.deleteOnExit();
+    secondHost.deleteOnExit();
+    outputFile.deleteOnExit();
+    
+    // alternate sorted lines between the two files 
+    final StringBuilder first = new StringBuilder();
+    final StringBuilder second = new StringBuilder();
+    final String[] lines = EXPECTED_OUTPUT.split(System.lineSeparator());
+    for (int i = 0; i < lines.length; i++) {
+      (i % 2 == 0 ? first : second).append(lines[i]).append(System.lineSeparator());
+    }
+    writeStringToFile(first.toString(), firstHost);
+    writeStringToFile(second.toString(), secondHost);
+    
+    final MergeStats stats = SortLogLines.mergeSorted(
+        Arrays.asList(firstHost.getAbsolutePath(), secondHost.getAbsolutePath()), 
+        outputFile.getAbsolutePath(), new SortOptions());
+    
+    assertThat(stats.getIntermediateFiles(), equalTo(0));
+    assertThat(readStringFromFile(outputFile), equalTo(EXPECTED_OUTPUT));
+  }
+
+  @Test
+  public void testSortedEntriesFromStream() throws IOException {
+    
+    for (final int threads : new int[]{1, 2}) {
+      
+      final SortOptions options = new SortOptions()
+          .setRunLineCount(3)
+          .setThreadCount(threads);
+      final Stream<String> lines = Arrays.stream(SAMPLE_INPUT.split(System.lineSeparator()));
+      
+      final SortedLogIterator entries = SortLogLines.sortedEntries(lines, options);
+      
+      try {
+        
+        final String actualOutput = entries.stream()
+            .map(LogEntry::getLogLine)
+            .collect(Collectors.joining(System.lineSeparator()));
+        assertThat(actualOutput, equalTo(EXPECTED_OUTPUT));
+        
+      } finally {
+        entries.close();
+      }
+      
+    }
+    
+  }
+  
+  @Test
+  public void testSortedEntriesFromInputStream() throws IOException {
+    
+    final InputStream in = new ByteArrayInputStream(SAMPLE_INPUT.getBytes(StandardCharsets.UTF_8));
+    final SortedLogIterator entries = 
+        SortLogLines.sortedEntries(in, new SortOptions().setRunLineCount(3));
+    
+    final StringBuilder actualOutput = new StringBuilder();
+    while (entries.hasNext()) {
+      if (actualOutput.length() > 0) 
+        actualOutput.append(System.lineSeparator());
+      actualOutput.append(entries.next().getLogLine());
+    }
+    entries.close();
+    
+    assertThat(actualOutput.toString(), equalTo(EXPECTED_OUTPUT));
+  }
+
+  @Test
+  public void testTimeIndex() throws IOException, ParseException {
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    final File outputFile = File.createTempFile("test-output-", ".txt");
+    inputFile.deleteOnExit();
+    outputFile.deleteOnExit();
+    TimeIndex.sidecarOf(outputFile).deleteOnExit();
+    
+    writeStringToFile(SAMPLE_INPUT, inputFile);
+    
+    final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSZ");
+    final long from = format.parse("2015-11-19 10:31:55.128+0000").getTime();
+    final long to = format.parse("2015-11-19 10:33:00.000+0000").getTime();
+    final String[] lines = EXPECTED_OUTPUT.split(System.lineSeparator());
+    final String expectedRange = String.join(System.lineSeparator(), 
+        Arrays.asList(lines).subList(2, 6));
+    
+    final SortOptions[] variants = {
+        new SortOptions().setRunLineCount(3),
+        new SortOptions().setRunLineCount(3).setBackgroundOutput(true),
+        new SortOptions().setRunLineCount(2).setMergeThreadCount(3),
+        new SortOptions().setDisorderWindowMillis(30 * 60 * 1000),
+    };
+    
+    for (final SortOptions options : variants) {
+      
+      SortLogLines.sort(inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), 
+          options.setTimeIndexInterval(100));
+      assertThat(readStringFromFile(outputFile), equalTo(EXPECTED_OUTPUT));
+      
+      final TimeRangeReader reader = new TimeRangeReader(outputFile);
+      assertThat(reader.getTimeIndex().size() > 1, equalTo(true));
+      
+      final String actualRange = reader.entries(from, to).stream()
+          .map(LogEntry::getLogLine)
+          .collect(Collectors.joining(System.lineSeparator()));
+      assertThat(actualRange, equalTo(expectedRange));
+      
+    }
+    
+    // sorting again without an index removes the stale sidecar 
+    SortLogLines.sort(inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), new SortOptions());
+    assertThat(TimeIndex.sidecarOf(outputFile).exists(), equalTo(false));
+  }
+
+  @Test
+  public void testFilter() throws IOException, ParseException {
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    final File outputFile = File.createTempFile("test-output-", ".txt");
+    inputFile.deleteOnExit();
+    outputFile.deleteOnExit();
+    
+    writeStringToFile(SAMPLE_INPUT, inputFile);
+    
+    final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSZ");
+    final LogFilter filter = new LogFilter()
+        .setSeverities(Severity.ERROR, Severity.WARN)
+        .setTimeRange(format.parse("2015-11-19 10:20:00.000+0000").getTime(), 
+                      format.parse("2015-11-19 10:37:55.246+0000").getTime());
+    
+    final String[] lines = EXPECTED_OUTPUT.split(System.lineSeparator());
+    final String expectedOutput = String.join(System.lineSeparator(), 
+        lines[1], lines[2], lines[3], lines[5]);
+    
+    final SortOptions[] variants = {
+        new SortOptions().setRunLineCount(3),
+        new SortOptions().setRunLineCount(3).setThreadCount(2),
+        new SortOptions().setRunLineCount(3).setThreadCount(2).setMemoryMappedInput(true),
+        new SortOptions().setDisorderWindowMillis(30 * 60 * 1000),
+    };
+    
+    for (final SortOptions options : variants) {
+      
+      SortLogLines.sort(inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), 
+          options.setFilter(filter));
+      assertThat(readStringFromFile(outputFile), equalTo(expectedOutput));
+      
+    }
+    
+    SortLogLines.sort(inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), 
+        new SortOptions().setFilter(new LogFilter().setHost("HOST1")));
+    assertThat(readStringFromFile(outputFile), 
+               equalTo(String.join(System.lineSeparator(), lines[1], lines[5], lines[6])));
+  }
+
+  @Test
+  public void testHeadAndTail() throws IOException {
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    inputFile.deleteOnExit();
+    
+    writeStringToFile(SAMPLE_INPUT, inputFile);
+    
+    final String[] lines = EXPECTED_OUTPUT.split(System.lineSeparator());
+    
+    for (final int threads : new int[]{1, 2}) {
+      
+      final SortOptions options = new SortOptions().setThreadCount(threads);
+      
+      final List<LogEntry> head = SortLogLines.head(inputFile.getAbsolutePath(), 4, options);
+      final List<LogEntry> tail = SortLogLines.tail(inputFile.getAbsolutePath(), 3, options);
+      
+      assertThat(head.stream().map(LogEntry::getLogLine).collect(Collectors.toList()), 
+                 equalTo(Arrays.asList(lines).subList(0, 4)));
+      assertThat(tail.stream().map(LogEntry::getLogLine).collect(Collectors.toList()), 
+                 equalTo(Arrays.asList(lines).subList(7, 10)));
+      
+    }
+  }
+
+  @Test
+  public void testStats() throws IOException {
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    final File outputFile = File.createTempFile("test-output-", ".txt");
+    inputFile.deleteOnExit();
+    outputFile.deleteOnExit();
+    
+    writeStringToFile(SAMPLE_INPUT, inputFile);
+    
+    final int[] runs = new int[1];
+    final SortOptions options = new SortOptions()
+        .setRunLineCount(3)
+        .setMaxMergeFanIn(2)
+        .setListener(new SortListener() {
+          @Override
+          public synchronized void runWritten(final int entries, final long bytes, 
+                                              final long sortNanos, final long writeNanos) {
+            runs[0]++;
+          }
+        });
+    
+    final SortStats stats = 
+        SortLogLines.sort(inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), options);
+    
+    assertThat(readStringFromFile(outputFile), equalTo(EXPECTED_OUTPUT));
+    assertThat(stats.getLinesRead(), equalTo(10L));
+    assertThat(stats.getParseFailures(), equalTo(0L));
+    assertThat(stats.getRunCount(), equalTo(4));
+    assertThat(runs[0], equalTo(4));
+    assertThat(stats.getPasses(), equalTo(2));
+    assertThat(stats.getMaxFanIn(), equalTo(2));
+    assertThat(stats.getCurrentPhase(), nullValue());
+    assertThat(stats.getPhaseNanos(SortPhase.RUN_GENERATION), greaterThan(0L));
+    assertThat(stats.getPhaseNanos(SortPhase.MERGE), greaterThan(0L));
+  }
+
+  /**
+   * Sort the sample input with the given options and check the output. 
+   */
+  private SortStats assertSortsSample(final SortOptions options) throws IOException {
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    final File outputFile = File.createTempFile("test-output-", ".txt");
+    inputFile.deleteOnExit();
+    outputFile.deleteOnExit();
+    
+    writeStringToFile(SAMPLE_INPUT, inputFile);
+    
+    final SortStats stats = 
+        SortLogLines.sort(inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), options);
+    
+    assertThat(readStringFromFile(outputFile), equalTo(EXPECTED_OUTPUT));
+    
+    return stats;
+  }
+  
   private void writeStringToFile(final String string, final File file) throws IOException {
     final BufferedWriter writer = new BufferedWriter(new FileWriter(file));
     try {
@@ -0,0 +1,214 @@
+package samples.logutils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides what happens to input lines that fail to parse, set as
+ * {@link SortOptions#setBadRecordPolicy(BadRecordPolicy)}. Rejected lines
+ * are either reported on standard error, the default, silently skipped, or
+ * written as they are to a quarantine file for later inspection. In every
+ * case they are counted, and with {@link #setMaxBadRecords(long)} the sort
+ * fails once too many lines have been rejected, e.g. because the input is
+ * not a log at all.
+ *
+ * Lines are parsed without exceptions, so a rejected line costs about as
+ * much as a parsed one. Quarantined lines are written through a large
+ * buffer, in batches, and on the memory mapped path as the raw bytes of
+ * the input. With parse workers the quarantine is not in input order.
+ *
+ * A policy is safe to use from many threads. Its count and quarantine
+ * file are shared by every sort it is set on; {@link SortOptions#copy()}
+ * shares the policy. Close a quarantine policy when done with it.
+ */
+public class BadRecordPolicy implements Closeable {
+
+  /** Default maximum number of rejected lines, no limit */
+  public static final long UNLIMITED = Long.MAX_VALUE;
+
+  // buffer for the quarantine file
+  private static final int QUARANTINE_BUFFER_SIZE = 64 * 1024;
+
+  private final boolean log_;
+  private final File quarantineFile_;
+  private final byte[] separator_ =
+      System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+  private final AtomicLong count_ = new AtomicLong();
+  private volatile long maxBadRecords_ = UNLIMITED;
+
+  // guarded by this
+  private OutputStream quarantine_;
+
+  private BadRecordPolicy(final boolean log,
+                          final File quarantineFile,
+                          final OutputStream quarantine) {
+
+    log_ = log;
+    quarantineFile_ = quarantineFile;
+    quarantine_ = quarantine;
+
+  }
+
+  /**
+   * @return a policy reporting each rejected line on standard error
+   */
+  public static BadRecordPolicy log() {
+    return new BadRecordPolicy(true, null, null);
+  }
+
+  /**
+   * @return a policy that only counts rejected lines
+   */
+  public static BadRecordPolicy skip() {
+    return new BadRecordPolicy(false, null, null);
+  }
+
+  /**
+   * Write rejected lines to a file, one per line. The file is created, or
+   * truncated, right away.
+   *
+   * @param file the quarantine file
+   * @return a new policy
+   * @throws IOException if the file cannot be created
+   */
+  public static BadRecordPolicy quarantine(final File file) throws IOException {
+
+    return new BadRecordPolicy(false, file, new BufferedOutputStream(
+        new FileOutputStream(file), QUARANTINE_BUFFER_SIZE));
+
+  }
+
+  /**
+   * @return the quarantine file, or null if lines are not quarantined
+   */
+  public File getQuarantineFile() {
+    return quarantineFile_;
+  }
+
+  /**
+   * @return the number of rejected lines tolerated
+   */
+  public long getMaxBadRecords() {
+    return maxBadRecords_;
+  }
+
+  /**
+   * Fail with an {@link IOException} once more than this many lines have
+   * been rejected.
+   *
+   * @param maxBadRecords the number of rejected lines tolerated, 0 to fail
+   *        on the first
+   * @return this policy
+   */
+  public BadRecordPolicy setMaxBadRecords(final long maxBadRecords) {
+
+    if (maxBadRecords < 0)
+      throw new IllegalArgumentException("Max bad records must not be negative.");
+
+    maxBadRecords_ = maxBadRecords;
+    return this;
+
+  }
+
+  /**
+   * @return the number of lines rejected so far
+   */
+  public long getCount() {
+    return count_.get();
+  }
+
+  /**
+   * Reject a line that failed to parse.
+   *
+   * @param line the raw line
+   * @throws IOException if the limit is exceeded or quarantining fails
+   */
+  public void reject(final String line) throws IOException {
+
+    final long count = count_.incrementAndGet();
+
+    if (log_) {
+      System.err.println("Skipping line due to parse error: " + line);
+    } else if (quarantineFile_ != null) {
+      final byte[] utf8 = line.getBytes(StandardCharsets.UTF_8);
+      write(utf8, 0, utf8.length);
+    }
+
+    checkLimit(count);
+
+  }
+
+  /**
+   * Reject a line held as UTF-8 bytes, quarantining the bytes as they are.
+   *
+   * @param utf8 the bytes of the line
+   * @param offset the index of the first byte of the line
+   * @param length the length of the line in bytes
+   * @throws IOException if the limit is exceeded or quarantining fails
+   */
+  void reject(final byte[] utf8, final int offset, final int length) throws IOException {
+
+    if (log_) {
+      reject(new String(utf8, offset, length, StandardCharsets.UTF_8));
+      return;
+    }
+
+    final long count = count_.incrementAndGet();
+
+    if (quarantineFile_ != null) {
+      write(utf8, offset, length);
+    }
+
+    checkLimit(count);
+
+  }
+
+  private synchronized void write(final byte[] line,
+                                  final int offset,
+                                  final int length) throws IOException {
+
+    if (quarantine_ == null)
+      throw new IOException("Quarantine file is closed: " + quarantineFile_);
+
+    quarantine_.write(line, offset, length);
+    quarantine_.write(separator_);
+
+  }
+
+  private void checkLimit(final long count) throws IOException {
+
+    if (count > maxBadRecords_)
+      throw new IOException("Too many lines failed to parse: " + count
+          + ", at most " + maxBadRecords_ + " are tolerated.");
+
+  }
+
+  /**
+   * Write any buffered quarantined lines to the file.
+   * @throws IOException on write errors
+   */
+  public synchronized void flush() throws IOException {
+
+    if (quarantine_ != null) {
+      quarantine_.flush();
+    }
+
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+
+    if (quarantine_ != null) {
+      quarantine_.close();
+      quarantine_ = null;
+    }
+
+  }
+
+}
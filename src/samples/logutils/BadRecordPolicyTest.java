@@ -0,0 +1,145 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BadRecordPolicyTest {
+
+  private static final String[] BAD_LINES = {
+      "not a log line",
+      "[2015-11-19 10:33:54.934+0000] [HOST1] [FATAL] [CLASS1] [unknown severity]",
+      "    at samples.Main.main(Main.java:1)",
+  };
+
+  @Test
+  public void testSkip() throws IOException {
+
+    final BadRecordPolicy policy = BadRecordPolicy.skip();
+
+    for (final int threads : new int[] {1, 2}) {
+
+      final SortOptions options = new SortOptions()
+          .setThreadCount(threads)
+          .setBadRecordPolicy(policy);
+
+      final List<LogEntry> head = TopNSelector.head(options, 5).select(reader(input()));
+      assertThat(head.size(), equalTo(5));
+
+    }
+
+    assertThat(policy.getCount(), equalTo(2L * BAD_LINES.length));
+
+  }
+
+  @Test
+  public void testQuarantine() throws IOException {
+
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    final File quarantineFile = File.createTempFile("test-quarantine-", ".txt");
+    inputFile.deleteOnExit();
+    quarantineFile.deleteOnExit();
+
+    final Writer writer = new FileWriter(inputFile);
+    try {
+      writer.write(input());
+    } finally {
+      writer.close();
+    }
+
+    final List<String> expected = new ArrayList<>();
+    Collections.addAll(expected, BAD_LINES);
+    Collections.sort(expected);
+
+    final SortOptions[] variants = {
+        new SortOptions().setThreadCount(2),
+        new SortOptions().setThreadCount(2).setMemoryMappedInput(true),
+    };
+
+    for (final SortOptions options : variants) {
+
+      final BadRecordPolicy policy = BadRecordPolicy.quarantine(quarantineFile);
+
+      try {
+        new ParallelRunGenerator(options.setBadRecordPolicy(policy)).generateRuns(inputFile);
+      } finally {
+        policy.close();
+      }
+
+      final List<String> quarantined =
+          Files.readAllLines(quarantineFile.toPath(), StandardCharsets.UTF_8);
+      Collections.sort(quarantined);
+
+      assertThat(policy.getCount(), equalTo((long) BAD_LINES.length));
+      assertThat(quarantined, equalTo(expected));
+
+    }
+
+  }
+
+  @Test
+  public void testMaxBadRecords() throws IOException {
+
+    final SortOptions options = new SortOptions()
+        .setBadRecordPolicy(BadRecordPolicy.skip().setMaxBadRecords(BAD_LINES.length));
+    assertThat(TopNSelector.tail(options, 1).select(reader(input())).size(), equalTo(1));
+
+    for (final int threads : new int[] {1, 2}) {
+
+      options.setThreadCount(threads)
+          .setBadRecordPolicy(BadRecordPolicy.skip().setMaxBadRecords(BAD_LINES.length - 1));
+
+      try {
+        TopNSelector.tail(options, 1).select(reader(input()));
+        throw new AssertionError("Expected too many bad records");
+      } catch (IOException e) {
+        assertThat(e.getMessage(), containsString("Too many lines failed to parse"));
+      }
+
+      try {
+        new ParallelRunGenerator(options).generateRuns(reader(input()));
+        throw new AssertionError("Expected too many bad records");
+      } catch (IOException e) {
+        assertThat(e.getMessage(), containsString("Too many lines failed to parse"));
+      }
+
+    }
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeMax() {
+
+    BadRecordPolicy.skip().setMaxBadRecords(-1);
+
+  }
+
+  private static String input() {
+
+    final StringBuilder builder = new StringBuilder(ParallelRunGeneratorTest.randomLog(100));
+    for (final String line : BAD_LINES) {
+      builder.append(line).append(System.lineSeparator());
+    }
+    builder.append(ParallelRunGeneratorTest.randomLog(100));
+    return builder.toString();
+
+  }
+
+  private static BufferedReader reader(final String input) {
+    return new BufferedReader(new StringReader(input));
+  }
+
+}
@@ -0,0 +1,360 @@
+package samples.logutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes log lines to a file channel from a dedicated output thread. The
+ * caller only stores line references into fixed size batches; full
+ * batches travel to the output thread through a bounded queue and come
+ * back empty through a second one, so batches circulate as a ring and
+ * the caller blocks only when the output thread falls behind.
+ *
+ * The output thread encodes lines as UTF-8, each followed by the platform
+ * line separator, into a set of large direct buffers and hands them to
+ * the channel as a single gathering write once they are all full. Byte
+ * backed entries are copied into the buffers without encoding.
+ *
+ * A failure on the output thread is reported by the next call to
+ * {@link #write(LogEntry)} or by {@link #close()}.
+ */
+public class BatchedLogWriter implements Closeable {
+
+  /** Number of lines handed to the output thread at a time */
+  public static final int BATCH_LINE_COUNT = 4096;
+
+  /** Default number of batches that may wait for the output thread */
+  public static final int DEFAULT_QUEUE_DEPTH = 4;
+
+  /** Default size of each direct output buffer in bytes */
+  public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+  /** Number of direct buffers gathered into one channel write */
+  static final int GATHER_BUFFERS = 4;
+
+  // marks the end of input on the full queue
+  private static final Batch END = new Batch(0);
+
+  private final FileChannel channel_;
+  private final BlockingQueue<Batch> full_;
+  private final BlockingQueue<Batch> free_;
+  private final Thread thread_;
+  private final ByteBuffer[] buffers_;
+  private final byte[] separator_ =
+      System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+  private final CharsetEncoder encoder_ = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  private volatile Throwable failure_;
+  private Batch batch_;
+  private boolean closed_;
+
+  // the buffer being filled by the output thread
+  private int current_;
+
+  /**
+   * @param channel the channel to write to, not closed by this writer
+   */
+  public BatchedLogWriter(final FileChannel channel) {
+
+    this(channel, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_DEPTH);
+
+  }
+
+  /**
+   * @param channel the channel to write to, not closed by this writer
+   * @param bufferSize the size of each direct output buffer in bytes
+   * @param queueDepth the number of full batches that may be queued
+   */
+  public BatchedLogWriter(final FileChannel channel,
+                          final int bufferSize,
+                          final int queueDepth) {
+
+    if (bufferSize < 16)
+      throw new IllegalArgumentException("Buffer size must be at least 16 bytes.");
+    if (queueDepth < 1)
+      throw new IllegalArgumentException("Queue depth must be positive.");
+
+    channel_ = channel;
+    full_ = new ArrayBlockingQueue<>(queueDepth + 1);
+    free_ = new ArrayBlockingQueue<>(queueDepth + 1);
+
+    for (int i = 0; i < queueDepth; i++) {
+      free_.add(new Batch(BATCH_LINE_COUNT));
+    }
+    batch_ = new Batch(BATCH_LINE_COUNT);
+
+    buffers_ = new ByteBuffer[GATHER_BUFFERS];
+    for (int i = 0; i < buffers_.length; i++) {
+      buffers_[i] = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    thread_ = new Thread(this::drain, "log-output-writer");
+    thread_.setDaemon(true);
+    thread_.start();
+
+  }
+
+  /**
+   * Queue the raw line of an entry, followed by a line separator.
+   * @param entry the entry to write
+   * @throws IOException if the output thread has failed
+   */
+  public void write(final LogEntry entry) throws IOException {
+
+    if (entry.isUtf8()) {
+      add(entry);
+    } else {
+      add(entry.getLogLine());
+    }
+
+  }
+
+  /**
+   * Queue a line, followed by a line separator.
+   * @param line the line to write
+   * @throws IOException if the output thread has failed
+   */
+  public void write(final String line) throws IOException {
+
+    add(line);
+
+  }
+
+  /**
+   * @param line a String or a byte backed entry
+   */
+  private void add(final Object line) throws IOException {
+
+    batch_.lines_[batch_.count_++] = line;
+
+    if (batch_.count_ == batch_.lines_.length) {
+      submit();
+    }
+
+  }
+
+  /**
+   * Write all queued lines and stop the output thread. The channel is
+   * left open.
+   * @throws IOException if writing any line failed
+   */
+  @Override
+  public void close() throws IOException {
+
+    if (closed_) {
+      return;
+    }
+    closed_ = true;
+
+    try {
+
+      if (batch_.count_ > 0) {
+        full_.put(batch_);
+      }
+
+      full_.put(END);
+      thread_.join();
+
+    } catch (InterruptedException e) {
+
+      Thread.currentThread().interrupt();
+      thread_.interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the output thread");
+
+    }
+
+    checkFailure();
+
+  }
+
+  private void submit() throws IOException {
+
+    checkFailure();
+
+    try {
+
+      full_.put(batch_);
+      batch_ = free_.take();
+
+    } catch (InterruptedException e) {
+
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the output thread");
+
+    }
+
+  }
+
+  private void checkFailure() throws IOException {
+
+    final Throwable failure = failure_;
+
+    if (failure instanceof IOException)
+      throw new IOException("Unable to write output", failure);
+    if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    if (failure != null)
+      throw new IOException("Unable to write output", failure);
+
+  }
+
+  /**
+   * The output thread: encode batches until the end marker. After a
+   * failure batches are still recycled, so the caller never blocks.
+   */
+  private void drain() {
+
+    try {
+
+      for (Batch batch; (batch = full_.take()) != END;) {
+
+        if (failure_ == null) {
+
+          try {
+            encode(batch);
+          } catch (IOException | RuntimeException e) {
+            failure_ = e;
+          }
+
+        }
+
+        Arrays.fill(batch.lines_, 0, batch.count_, null);
+        batch.count_ = 0;
+        free_.add(batch);
+
+      }
+
+      if (failure_ == null) {
+        flush();
+      }
+
+    } catch (InterruptedException e) {
+
+      failure_ = new InterruptedIOException("Output thread interrupted");
+
+    } catch (IOException | RuntimeException e) {
+
+      failure_ = e;
+
+    }
+
+  }
+
+  private void encode(final Batch batch) throws IOException {
+
+    for (int i = 0; i < batch.count_; i++) {
+
+      if (batch.lines_[i] instanceof LogEntry) {
+        copy((LogEntry) batch.lines_[i]);
+      } else {
+        encode((String) batch.lines_[i]);
+      }
+
+      if (buffers_[current_].remaining() < separator_.length) {
+        nextBuffer();
+      }
+      buffers_[current_].put(separator_);
+
+    }
+
+  }
+
+  private void encode(final String line) throws IOException {
+
+    final CharBuffer chars = CharBuffer.wrap(line);
+    encoder_.reset();
+
+    // malformed input is replaced, so overflow is the only outcome to act
+    // on
+    while (encoder_.encode(chars, buffers_[current_], true).isOverflow()) {
+      nextBuffer();
+    }
+    while (encoder_.flush(buffers_[current_]).isOverflow()) {
+      nextBuffer();
+    }
+
+  }
+
+  /**
+   * Copy the UTF-8 bytes of an entry, spanning buffers as needed.
+   */
+  private void copy(final LogEntry entry) throws IOException {
+
+    final byte[] utf8 = entry.getUtf8Array();
+    int offset = entry.getUtf8Offset();
+    int remaining = entry.getUtf8Length();
+
+    while (remaining > 0) {
+
+      if (!buffers_[current_].hasRemaining()) {
+        nextBuffer();
+      }
+
+      final int count = Math.min(remaining, buffers_[current_].remaining());
+      buffers_[current_].put(utf8, offset, count);
+      offset += count;
+      remaining -= count;
+
+    }
+
+  }
+
+  /**
+   * Move to the next buffer, writing all of them once they are full.
+   */
+  private void nextBuffer() throws IOException {
+
+    if (++current_ == buffers_.length) {
+      flush();
+    }
+
+  }
+
+  /**
+   * Gather write every filled buffer and start over at the first.
+   */
+  private void flush() throws IOException {
+
+    final int count = Math.min(current_ + 1, buffers_.length);
+
+    for (int i = 0; i < count; i++) {
+      buffers_[i].flip();
+    }
+
+    while (buffers_[count - 1].hasRemaining()) {
+      channel_.write(buffers_, 0, count);
+    }
+
+    for (int i = 0; i < count; i++) {
+      buffers_[i].clear();
+    }
+
+    current_ = 0;
+
+  }
+
+  /** A batch of lines or byte backed entries; the array is reused once written */
+  private static final class Batch {
+
+    private final Object[] lines_;
+    private int count_;
+
+    Batch(final int size) {
+      lines_ = new Object[size];
+    }
+
+  }
+
+}
@@ -0,0 +1,120 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class BatchedLogWriterTest {
+
+  @Test
+  public void testLines() throws IOException {
+    
+    final StringBuilder longLine = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      longLine.append("\u00fcnicode \u2603 ");
+    }
+    
+    final StringBuilder expected = new StringBuilder();
+    final File file = File.createTempFile("test-output-", ".txt");
+    file.deleteOnExit();
+    final FileOutputStream fos = new FileOutputStream(file);
+    
+    try {
+      
+      // small buffers so lines straddle buffers and gathered writes
+      final BatchedLogWriter writer = new BatchedLogWriter(fos.getChannel(), 64, 2);
+      
+      for (int i = 0; i < BatchedLogWriter.BATCH_LINE_COUNT * 3 + 5; i++) {
+        
+        final String line = i % 1000 == 0 ? longLine.toString() : "line \u00e9 " + i;
+        writer.write(line);
+        expected.append(line).append(System.lineSeparator());
+        
+      }
+      
+      writer.close();
+      writer.close();
+      
+    } finally {
+      fos.close();
+    }
+    
+    assertThat(new String(Files.readAllBytes(file.toPath()), "UTF-8"), 
+               equalTo(expected.toString()));
+    
+  }
+  
+  @Test
+  public void testByteBackedEntries() throws IOException {
+    
+    final StringBuilder expected = new StringBuilder();
+    final File file = File.createTempFile("test-output-", ".txt");
+    file.deleteOnExit();
+    final FileOutputStream fos = new FileOutputStream(file);
+    
+    try {
+      
+      final BatchedLogWriter writer = new BatchedLogWriter(fos.getChannel(), 64, 2);
+      
+      for (int i = 0; i < 1000; i++) {
+        
+        final String line = "[2015-11-19 10:33:54.934+0000] [HOST1] [INFO] [CLASS1] [\u2603 " + i + "]";
+        final byte[] utf8 = line.getBytes(StandardCharsets.UTF_8);
+        
+        // alternate byte and String backed entries
+        writer.write(i % 2 == 0 ? LogEntry.fromUtf8(utf8, 0, utf8.length) : LogEntry.fromString(line));
+        expected.append(line).append(System.lineSeparator());
+        
+      }
+      
+      writer.close();
+      
+    } finally {
+      fos.close();
+    }
+    
+    assertThat(new String(Files.readAllBytes(file.toPath()), "UTF-8"), 
+               equalTo(expected.toString()));
+    
+  }
+  
+  @Test
+  public void testEmpty() throws IOException {
+    
+    final File file = File.createTempFile("test-output-", ".txt");
+    file.deleteOnExit();
+    final FileOutputStream fos = new FileOutputStream(file);
+    
+    try {
+      new BatchedLogWriter(fos.getChannel()).close();
+    } finally {
+      fos.close();
+    }
+    
+    assertThat(file.length(), equalTo(0L));
+    
+  }
+  
+  @Test(expected = IOException.class)
+  public void testWriteFailure() throws IOException {
+    
+    final File file = File.createTempFile("test-output-", ".txt");
+    file.deleteOnExit();
+    final FileChannel channel = new FileOutputStream(file).getChannel();
+    channel.close();
+    
+    final BatchedLogWriter writer = new BatchedLogWriter(channel);
+    writer.write("[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 random]");
+    writer.close();
+    
+  }
+  
+}
@@ -0,0 +1,298 @@
+package samples.logutils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorts nearly sorted input in a single streaming pass. Entries wait in a
+ * min-heap ordered by (sort key, arrival) until no later entry can sort
+ * before them, then they are written out:
+ * <ul>
+ * <li>with a time window, once their timestamp is more than the window
+ *     behind the newest timestamp read (the watermark)</li>
+ * <li>with a maximum displacement, once more than that many entries are
+ *     waiting</li>
+ * </ul>
+ *
+ * Memory is proportional to the window rather than to the input and no
+ * temporary files are written. An entry that sorts before one already
+ * written breaks the bound; it is rejected, see {@link #add(LogEntry)},
+ * and the caller should fall back to the external sort. Equal keys keep
+ * their input order, so when the bound holds the output is identical to
+ * that of the external sort.
+ */
+public class BoundedDisorderSorter {
+
+  /** Most lines failing to parse that {@link #sort(BufferedReader)} holds back */
+  public static final int MAX_HELD_REJECTS = 4096;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final long windowMillis_;
+  private final int maxDisplacement_;
+  private final SortedOutputWriter out_;
+  private final LogFilter filter_;
+  private final BadRecordPolicy badRecords_;
+  private final SortListener listener_;
+
+  // the heap, as parallel arrays ordered by (key, sequence)
+  private LogEntry[] entries_ = new LogEntry[INITIAL_CAPACITY];
+  private long[] keys_ = new long[INITIAL_CAPACITY];
+  private long[] sequences_ = new long[INITIAL_CAPACITY];
+  private int count_;
+  private long nextSequence_;
+
+  private long watermark_ = Long.MIN_VALUE;
+  private long lastKey_ = Long.MIN_VALUE;
+  private long written_;
+  private int maxPending_;
+
+  /**
+   * @param options the disorder window and maximum displacement, at least
+   *        one of which must be set, the time index interval, the
+   *        filter, the bad record policy and the listener
+   * @param out the stream to write sorted lines to, not closed by this sorter
+   */
+  public BoundedDisorderSorter(final SortOptions options, final OutputStream out) {
+
+    if (!options.isBoundedDisorder())
+      throw new IllegalArgumentException("A disorder window or max displacement must be set.");
+
+    windowMillis_ = options.getDisorderWindowMillis();
+    maxDisplacement_ = options.getMaxDisplacement();
+    out_ = new SortedOutputWriter(out, options.getTimeIndexInterval());
+    filter_ = options.getFilter();
+    badRecords_ = options.getBadRecordPolicy();
+    listener_ = options.getListener();
+
+  }
+
+  /**
+   * Sort all lines of the reader. Lines that fail to parse are handed to
+   * the {@link SortOptions#getBadRecordPolicy()}, and lines the filter
+   * rejects are dropped. The reader is not closed.
+   *
+   * Since the caller sorts the input again when the bound breaks, lines
+   * that fail to parse are held back and only rejected, and reported to
+   * the listener, once the whole input has been sorted. More than
+   * {@link #MAX_HELD_REJECTS} of them are treated like a broken bound.
+   *
+   * @param reader the source of raw log lines
+   * @return false if the input broke the bound, leaving the output
+   *         incomplete
+   * @throws IOException on read or write errors
+   */
+  public boolean sort(final BufferedReader reader) throws IOException {
+
+    final ParallelRunGenerator.CountingLineSource source =
+        new ParallelRunGenerator.CountingLineSource(reader::readLine, listener_);
+    final List<String> rejected = new ArrayList<>();
+
+    try {
+
+      for (String line; (line = source.readLine()) != null;) {
+
+        final LogEntry entry = LogEntry.tryParse(line);
+
+        if (entry == null) {
+
+          if (rejected.size() == MAX_HELD_REJECTS) {
+            return false;
+          }
+          rejected.add(line);
+
+        } else if ((filter_ == null || filter_.accepts(entry)) && !add(entry)) {
+
+          return false;
+
+        }
+
+      }
+
+    } finally {
+
+      source.flush();
+
+    }
+
+    close();
+
+    for (final String line : rejected) {
+      listener_.parseFailed(line);
+      badRecords_.reject(line);
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Accept the next entry and write any entries it releases.
+   *
+   * @param entry the next entry of the input
+   * @return false if the entry sorts before an entry already written, in
+   *         which case it is not accepted
+   * @throws IOException on write errors
+   */
+  public boolean add(final LogEntry entry) throws IOException {
+
+    final long key = entry.getSortKey();
+
+    if (key < lastKey_) {
+      return false;
+    }
+
+    push(entry, key);
+    maxPending_ = Math.max(maxPending_, count_);
+    watermark_ = Math.max(watermark_, entry.getTimestampMillis());
+
+    // a later entry may still carry the oldest timestamp within the window,
+    // so only strictly older ones are released
+    while (count_ > 0
+        && ((windowMillis_ > 0
+             && LogEntryParser.timestampOf(keys_[0]) < watermark_ - windowMillis_)
+            || (maxDisplacement_ > 0 && count_ > maxDisplacement_))) {
+      emitMin();
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Write all waiting entries and flush the output.
+   * @throws IOException on write errors
+   */
+  public void close() throws IOException {
+
+    while (count_ > 0) {
+      emitMin();
+    }
+
+    out_.flush();
+
+  }
+
+  /**
+   * @return the number of entries written so far
+   */
+  public long getWrittenCount() {
+    return written_;
+  }
+
+  /**
+   * @return the time index of the lines written so far, or null unless
+   *         {@link SortOptions#getTimeIndexInterval()} is set
+   */
+  public TimeIndex getTimeIndex() {
+    return out_.getTimeIndex();
+  }
+
+  /**
+   * @return the largest number of entries that were waiting at once
+   */
+  public int getMaxPendingCount() {
+    return maxPending_;
+  }
+
+  private void emitMin() throws IOException {
+
+    final LogEntry entry = entries_[0];
+    lastKey_ = keys_[0];
+
+    count_--;
+    entries_[0] = entries_[count_];
+    keys_[0] = keys_[count_];
+    sequences_[0] = sequences_[count_];
+    entries_[count_] = null;
+    siftDown(0);
+
+    out_.write(entry);
+    written_++;
+
+  }
+
+  private void push(final LogEntry entry, final long key) {
+
+    if (count_ == entries_.length) {
+
+      final int capacity = count_ + (count_ >> 1);
+      entries_ = Arrays.copyOf(entries_, capacity);
+      keys_ = Arrays.copyOf(keys_, capacity);
+      sequences_ = Arrays.copyOf(sequences_, capacity);
+
+    }
+
+    int index = count_++;
+    final long sequence = nextSequence_++;
+
+    // sift up, moving parents down into the hole
+    while (index > 0) {
+
+      final int parent = (index - 1) >>> 1;
+
+      if (keys_[parent] < key || (keys_[parent] == key && sequences_[parent] < sequence)) {
+        break;
+      }
+
+      entries_[index] = entries_[parent];
+      keys_[index] = keys_[parent];
+      sequences_[index] = sequences_[parent];
+      index = parent;
+
+    }
+
+    entries_[index] = entry;
+    keys_[index] = key;
+    sequences_[index] = sequence;
+
+  }
+
+  private void siftDown(int index) {
+
+    final LogEntry entry = entries_[index];
+    final long key = keys_[index];
+    final long sequence = sequences_[index];
+
+    while (true) {
+
+      int child = index * 2 + 1;
+      if (child >= count_) {
+        break;
+      }
+
+      if (child + 1 < count_ && less(child + 1, child)) {
+        child++;
+      }
+
+      if (key < keys_[child] || (key == keys_[child] && sequence < sequences_[child])) {
+        break;
+      }
+
+      entries_[index] = entries_[child];
+      keys_[index] = keys_[child];
+      sequences_[index] = sequences_[child];
+      index = child;
+
+    }
+
+    entries_[index] = entry;
+    keys_[index] = key;
+    sequences_[index] = sequence;
+
+  }
+
+  private boolean less(final int a, final int b) {
+
+    if (keys_[a] != keys_[b]) {
+      return keys_[a] < keys_[b];
+    }
+    return sequences_[a] < sequences_[b];
+
+  }
+
+}
@@ -0,0 +1,145 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class BoundedDisorderSorterTest {
+
+  @Test
+  public void testWindow() throws IOException {
+    
+    // 10ms apart, each arriving up to 500ms late 
+    final Random random = new Random(42);
+    final long[] order = new long[5000];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = ((long) (i + random.nextInt(50)) << 32) | i;
+    }
+    Arrays.sort(order);
+    
+    final List<String> lines = new ArrayList<>();
+    for (final long packed : order) {
+      lines.add(line((int) packed * 10L, (int) packed));
+    }
+    
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final BoundedDisorderSorter sorter = 
+        new BoundedDisorderSorter(new SortOptions().setDisorderWindowMillis(1000), out);
+    
+    assertThat(sorter.sort(reader(lines)), equalTo(true));
+    assertThat(sorter.getWrittenCount(), equalTo(5000L));
+    assertThat(sorter.getMaxPendingCount(), lessThan(200));
+    assertThat(output(out), equalTo(TestLogs.sorted(lines)));
+    
+  }
+  
+  @Test
+  public void testDisplacement() throws IOException {
+    
+    final Random random = new Random(7);
+    final long[] order = new long[5000];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = ((long) (i + random.nextInt(30)) << 32) | i;
+    }
+    Arrays.sort(order);
+    
+    final List<String> lines = new ArrayList<>();
+    for (final long packed : order) {
+      lines.add(line((int) packed, (int) packed));
+    }
+    
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final BoundedDisorderSorter sorter = 
+        new BoundedDisorderSorter(new SortOptions().setMaxDisplacement(30), out);
+    
+    assertThat(sorter.sort(reader(lines)), equalTo(true));
+    assertThat(sorter.getMaxPendingCount(), equalTo(31));
+    assertThat(output(out), equalTo(TestLogs.sorted(lines)));
+    
+  }
+  
+  @Test
+  public void testTies() throws IOException {
+    
+    final List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      lines.add(line(i / 100 * 1000 + (i % 2) * 10, i));
+    }
+    
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final BoundedDisorderSorter sorter = 
+        new BoundedDisorderSorter(new SortOptions().setDisorderWindowMillis(20), out);
+    
+    assertThat(sorter.sort(reader(lines)), equalTo(true));
+    assertThat(output(out), equalTo(TestLogs.sorted(lines)));
+    
+  }
+  
+  @Test
+  public void testBoundBroken() throws IOException {
+    
+    final List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      lines.add(line(i * 1000L, i));
+    }
+    lines.add(line(50000L, 100));
+    
+    final BoundedDisorderSorter sorter = new BoundedDisorderSorter(
+        new SortOptions().setDisorderWindowMillis(5000), new ByteArrayOutputStream());
+    
+    assertThat(sorter.sort(reader(lines)), equalTo(false));
+    
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnbounded() {
+    new BoundedDisorderSorter(new SortOptions(), new ByteArrayOutputStream());
+  }
+  
+  private static String line(final long offsetMillis, final int id) {
+    
+    final long millis = 1447929000000L + offsetMillis;
+    final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSZ");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    
+    return "[" + format.format(new Date(millis)) + "] [HOST1] [INFO] [CLASS1] [MESSAGE " 
+        + id + "]";
+    
+  }
+  
+  private static BufferedReader reader(final List<String> lines) {
+    
+    final StringBuilder builder = new StringBuilder();
+    for (final String line : lines) {
+      builder.append(line).append(System.lineSeparator());
+    }
+    return new BufferedReader(new StringReader(builder.toString()));
+    
+  }
+  
+  private static List<String> output(final ByteArrayOutputStream out) throws IOException {
+    
+    final List<String> lines = new ArrayList<>();
+    final BufferedReader reader = new BufferedReader(new StringReader(out.toString("UTF-8")));
+    for (String line; (line = reader.readLine()) != null;) {
+      lines.add(line);
+    }
+    return lines;
+    
+  }
+  
+}
@@ -0,0 +1,308 @@
+package samples.logutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A run buffer that keeps no per-line objects. The UTF-8 bytes of each
+ * line are appended to a direct {@link ByteBuffer} slab, and a single
+ * {@code long[]} holds a (sort key, position) pair per line, where the
+ * position packs the slab offset into the high and the length into the
+ * low 32 bits. Sorting only moves pairs of primitives, and writing copies
+ * each line slice straight from the slab.
+ *
+ * A line costs its UTF-8 length plus 16 bytes, 32 while sorting, against
+ * roughly 90 bytes plus two bytes per character for a {@link LogEntry},
+ * and the slab lives outside the collected heap. Both the slab and the
+ * index start small and grow on demand up to their limits; the slab is
+ * limited to 2 GB.
+ */
+final class CompactRunBuffer extends RunBuffer {
+
+  /** Initial slab size in bytes, grown on demand */
+  static final int INITIAL_SLAB_SIZE = 1 << 20;
+
+  /** Index bytes per line: a sort key and a slab position */
+  static final int INDEX_BYTES_PER_LINE = 16;
+
+  // largest size the VM will reliably allocate
+  private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+  // below this many lines, insertion sort beats partitioning
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+
+  private final int maxCount_;
+  private final int maxSlabSize_;
+  private final CharsetEncoder encoder_ = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  private ByteBuffer slab_;
+  private long[] index_;
+  private long[] scratch_;
+  private int count_;
+  private byte[] line_ = new byte[256];
+
+  /**
+   * @param initialCapacity the initial line capacity of the index
+   * @param maxCount the maximum number of lines
+   * @param maxBytes the maximum retained bytes, slab and index together
+   */
+  CompactRunBuffer(final int initialCapacity, final int maxCount, final long maxBytes) {
+
+    maxCount_ = maxCount;
+    maxSlabSize_ = (int) Math.min(maxBytes, MAX_ARRAY_LENGTH);
+    slab_ = ByteBuffer.allocateDirect(Math.min(INITIAL_SLAB_SIZE, maxSlabSize_));
+    index_ = new long[Math.min(initialCapacity, maxCount) * 2];
+
+  }
+
+  @Override
+  boolean add(final LogEntry entry) {
+
+    if (count_ * 2 == index_.length && !growIndex()) {
+      return false;
+    }
+
+    final int start = slab_.position();
+
+    if (entry.isUtf8()) {
+
+      // already encoded, copy the bytes as they are
+      final int length = entry.getUtf8Length();
+
+      if (slab_.remaining() < length
+          && (!growSlab(start + length) || slab_.remaining() < length)) {
+        return false;
+      }
+
+      slab_.put(entry.getUtf8Array(), entry.getUtf8Offset(), length);
+
+    } else {
+
+      final String line = entry.getLogLine();
+
+      while (!encode(line)) {
+
+        slab_.position(start);
+
+        if (!growSlab(start + line.length())) {
+          return false;
+        }
+
+      }
+
+    }
+
+    final int length = slab_.position() - start;
+
+    index_[count_ * 2] = entry.getSortKey();
+    index_[count_ * 2 + 1] = ((long) start << 32) | length;
+    count_++;
+
+    return true;
+
+  }
+
+  @Override
+  int size() {
+    return count_;
+  }
+
+  @Override
+  long getSizeByte() {
+    return slab_.position() + (long) INDEX_BYTES_PER_LINE * count_;
+  }
+
+  /**
+   * Sort the (key, position) pairs with a {@link RadixSort}, or for small
+   * runs a quicksort. Positions increase in insertion order and are
+   * unique, so ordering pairs by key then position keeps equal keys in
+   * insertion order without the quicksort needing to be stable.
+   */
+  @Override
+  void sort() {
+
+    if (count_ < RadixSort.MIN_RADIX_COUNT) {
+      sort(index_, 0, count_ - 1);
+      return;
+    }
+
+    if (scratch_ == null || scratch_.length < count_ * 2) {
+      scratch_ = new long[index_.length];
+    }
+
+    RadixSort.sort(index_, scratch_, count_);
+
+  }
+
+  @Override
+  void writeTo(final RunWriter writer) throws IOException {
+
+    final ByteBuffer slab = slab_.duplicate();
+
+    for (int i = 0; i < count_; i++) {
+
+      final long key = index_[i * 2];
+      final long position = index_[i * 2 + 1];
+      final int length = (int) position;
+
+      if (line_.length < length) {
+        line_ = new byte[Math.max(length, line_.length * 2)];
+      }
+
+      slab.position((int) (position >>> 32));
+      slab.get(line_, 0, length);
+
+      writer.write(LogEntryParser.timestampOf(key), LogEntryParser.severityOf(key),
+                   line_, 0, length);
+
+    }
+
+  }
+
+  @Override
+  void clear() {
+
+    // keep the slab, index and sort scratch for reuse
+    slab_.clear();
+    count_ = 0;
+
+  }
+
+  /**
+   * @return false on slab overflow, leaving the slab position undefined
+   */
+  private boolean encode(final String line) {
+
+    encoder_.reset();
+
+    final CoderResult result = encoder_.encode(CharBuffer.wrap(line), slab_, true);
+
+    return !result.isOverflow() && !encoder_.flush(slab_).isOverflow();
+
+  }
+
+  private boolean growIndex() {
+
+    final int capacity = index_.length / 2;
+
+    if (capacity == maxCount_) {
+      return false;
+    }
+
+    final long grown = (long) capacity + (capacity >> 1) + 1;
+    index_ = Arrays.copyOf(index_, (int) Math.min(Math.min(grown, maxCount_), MAX_ARRAY_LENGTH / 2) * 2);
+
+    return true;
+
+  }
+
+  /**
+   * Double the slab, at least to the given size, copying the used bytes.
+   * @return false if the slab is already at its limit
+   */
+  private boolean growSlab(final long minSize) {
+
+    if (slab_.capacity() == maxSlabSize_) {
+      return false;
+    }
+
+    final int size = (int) Math.min(Math.max(slab_.capacity() * 2L, minSize), maxSlabSize_);
+    final ByteBuffer grown = ByteBuffer.allocateDirect(size);
+
+    slab_.flip();
+    grown.put(slab_);
+    slab_ = grown;
+
+    return true;
+
+  }
+
+  /**
+   * Quicksort of the pairs lo..hi inclusive, by key then position.
+   */
+  private static void sort(final long[] pairs, int lo, int hi) {
+
+    while (hi - lo >= INSERTION_SORT_THRESHOLD) {
+
+      // median of three, moved to lo
+      final int mid = (lo + hi) >>> 1;
+      if (less(pairs, mid, lo)) swap(pairs, mid, lo);
+      if (less(pairs, hi, lo)) swap(pairs, hi, lo);
+      if (less(pairs, hi, mid)) swap(pairs, hi, mid);
+      swap(pairs, lo, mid);
+
+      final long pivotKey = pairs[lo * 2];
+      final long pivotPosition = pairs[lo * 2 + 1];
+
+      int i = lo;
+      int j = hi + 1;
+
+      while (true) {
+
+        do {
+          i++;
+        } while (i < hi && less(pairs[i * 2], pairs[i * 2 + 1], pivotKey, pivotPosition));
+
+        do {
+          j--;
+        } while (less(pivotKey, pivotPosition, pairs[j * 2], pairs[j * 2 + 1]));
+
+        if (i >= j) {
+          break;
+        }
+
+        swap(pairs, i, j);
+
+      }
+
+      swap(pairs, lo, j);
+
+      // recurse into the smaller side to bound the stack depth
+      if (j - lo < hi - j) {
+        sort(pairs, lo, j - 1);
+        lo = j + 1;
+      } else {
+        sort(pairs, j + 1, hi);
+        hi = j - 1;
+      }
+
+    }
+
+    for (int i = lo + 1; i <= hi; i++) {
+      for (int j = i; j > lo && less(pairs, j, j - 1); j--) {
+        swap(pairs, j, j - 1);
+      }
+    }
+
+  }
+
+  private static boolean less(final long[] pairs, final int a, final int b) {
+    return less(pairs[a * 2], pairs[a * 2 + 1], pairs[b * 2], pairs[b * 2 + 1]);
+  }
+
+  private static boolean less(final long key1, final long position1,
+                              final long key2, final long position2) {
+    return key1 < key2 || (key1 == key2 && position1 < position2);
+  }
+
+  private static void swap(final long[] pairs, final int a, final int b) {
+
+    final long key = pairs[a * 2];
+    final long position = pairs[a * 2 + 1];
+
+    pairs[a * 2] = pairs[b * 2];
+    pairs[a * 2 + 1] = pairs[b * 2 + 1];
+    pairs[b * 2] = key;
+    pairs[b * 2 + 1] = position;
+
+  }
+
+}
@@ -0,0 +1,143 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class CompactRunBufferTest {
+
+  @Test
+  public void testMatchesEntryBuffer() throws IOException {
+
+    // few distinct keys, so plenty of ties to keep in order
+    final String input = ParallelRunGeneratorTest.randomLog(5000)
+        .replaceAll(":\\d\\d\\.\\d\\d\\d", ":00.000");
+
+    final RunBuffer entries = new EntryRunBuffer(16, Integer.MAX_VALUE);
+    final RunBuffer compact = new CompactRunBuffer(16, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      final LogEntry entry = LogEntry.fromString(line);
+      assertThat(entries.add(entry), equalTo(true));
+      assertThat(compact.add(entry), equalTo(true));
+    }
+
+    assertThat(compact.size(), equalTo(5000));
+
+    for (final RunFormat format : RunFormat.values()) {
+      assertThat(sortedBytes(compact, format), equalTo(sortedBytes(entries, format)));
+    }
+
+  }
+
+  @Test
+  public void testSlabGrowth() throws IOException {
+
+    final LogEntry entry = LogEntry.fromString(
+        "[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [\u00fcnicode \u2603]");
+    final int length = entry.getLogLine().getBytes("UTF-8").length;
+
+    // enough lines to outgrow the initial slab
+    final int count = CompactRunBuffer.INITIAL_SLAB_SIZE / 50;
+    final RunBuffer compact = new CompactRunBuffer(1, count, CompactRunBuffer.INITIAL_SLAB_SIZE * 4L);
+    for (int i = 0; i < count; i++) {
+      compact.add(entry);
+    }
+
+    assertThat(compact.getSizeByte(),
+               equalTo((long) count * (length + CompactRunBuffer.INDEX_BYTES_PER_LINE)));
+
+    compact.clear();
+    assertThat(compact.size(), equalTo(0));
+    assertThat(compact.getSizeByte(), equalTo(0L));
+
+  }
+
+  @Test
+  public void testFull() {
+
+    final LogEntry entry = LogEntry.fromString(
+        "[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 random]");
+
+    // room for two lines of slab
+    final RunBuffer compact = new CompactRunBuffer(1, 10, entry.getLogLine().length() * 2);
+
+    assertThat(compact.add(entry), equalTo(true));
+    assertThat(compact.add(entry), equalTo(true));
+    assertThat(compact.add(entry), equalTo(false));
+    assertThat(compact.size(), equalTo(2));
+
+  }
+
+  @Test
+  public void testWriterRollsOnFullSlab() throws IOException {
+
+    final LogEntry entry = LogEntry.fromString(
+        "[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 random]");
+
+    // the third line overflows the slab before the budget is reached
+    final SortOptions options = new SortOptions()
+        .setCompactRunBuffer(true)
+        .setRunByteBudget(entry.getLogLine().length() * 3 - 1);
+    final RollingSortedLogWriter rslw = RollingSortedLogWriter.create(options, null);
+
+    for (int i = 0; i < 7; i++) {
+      rslw.addLogEntry(entry);
+    }
+    rslw.close();
+
+    final Set<File> files = rslw.getFiles();
+    final Iterator<File> it = files.iterator();
+    assertThat(files.size(), equalTo(4));
+    assertThat(it.next().length(), equalTo(it.next().length()));
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWriterRejectsOversizedLineAfterOthers() throws IOException {
+
+    final LogEntry entry = LogEntry.fromString(
+        "[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 random]");
+    final StringBuilder message = new StringBuilder();
+    while (message.length() < 450) {
+      message.append("padding ");
+    }
+    final LogEntry oversized = LogEntry.fromString(
+        "[2015-11-19 10:31:56.128+0000] [HOST2] [ERROR] [CLASS2] [" + message + "]");
+
+    // the oversized line arrives in a non-empty buffer, so the writer rolls
+    // first and only then finds it does not fit an empty slab either
+    final RollingSortedLogWriter rslw = RollingSortedLogWriter.create(new SortOptions()
+        .setCompactRunBuffer(true)
+        .setRunByteBudget(200), null);
+
+    rslw.addLogEntry(entry);
+    rslw.addLogEntry(oversized);
+
+  }
+
+  private static byte[] sortedBytes(final RunBuffer buffer,
+                                    final RunFormat format) throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final RunWriter writer = format.newWriter(out);
+
+    buffer.sort();
+    buffer.writeTo(writer);
+    writer.close();
+
+    return out.toByteArray();
+
+  }
+
+}
@@ -0,0 +1,31 @@
+package samples.logutils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names pool threads and marks them as daemons, so an abandoned sort 
+ * never pins the JVM. 
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+
+  private final String prefix_;
+  private final AtomicInteger count_ = new AtomicInteger();
+  
+  /**
+   * @param prefix the thread name prefix, e.g. "log-sort-worker-" 
+   */
+  DaemonThreadFactory(final String prefix) {
+    prefix_ = prefix;
+  }
+  
+  @Override
+  public Thread newThread(final Runnable r) {
+    
+    final Thread thread = new Thread(r, prefix_ + count_.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+    
+  }
+  
+}
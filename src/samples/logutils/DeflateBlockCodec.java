@@ -0,0 +1,425 @@
+package samples.logutils;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link SpillCodec} that splits the stream into fixed size blocks and 
+ * compresses each block independently with {@link Deflater}. Blocks are 
+ * compressed and decompressed on an executor, several at a time, so the 
+ * thread writing or merging a run only copies bytes. 
+ * 
+ * Each block is framed as its raw length (4 bytes), its stored length 
+ * (4 bytes) and the stored bytes. Blocks that do not shrink are stored 
+ * uncompressed, flagged by equal lengths. 
+ */
+public class DeflateBlockCodec implements SpillCodec {
+
+  /** Default uncompressed block size in bytes */
+  public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+  
+  /** Default number of blocks compressed or decompressed ahead per stream */
+  public static final int DEFAULT_BLOCKS_IN_FLIGHT = 4;
+  
+  private final int level_;
+  private final int blockSize_;
+  private final int blocksInFlight_;
+  private final Executor executor_;
+  
+  // a deflater/inflater per worker thread, reset between blocks
+  private final ThreadLocal<Deflater> deflaters_;
+  private final ThreadLocal<Inflater> inflaters_ = 
+      ThreadLocal.withInitial(() -> new Inflater(true));
+  
+  /**
+   * Create a fast codec: {@link Deflater#BEST_SPEED} with default block 
+   * sizes, working on the common fork/join pool. 
+   */
+  public DeflateBlockCodec() {
+    
+    this(Deflater.BEST_SPEED, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS_IN_FLIGHT, 
+         ForkJoinPool.commonPool());
+    
+  }
+  
+  /**
+   * @param level the deflate level, 1 (fastest) to 9 (smallest)
+   * @param blockSize the uncompressed block size in bytes
+   * @param blocksInFlight the number of blocks queued on the executor per
+   *        stream; 1 keeps at most one block in flight
+   * @param executor runs compression and decompression tasks 
+   */
+  public DeflateBlockCodec(final int level, 
+                           final int blockSize, 
+                           final int blocksInFlight, 
+                           final Executor executor) {
+    
+    if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+      throw new IllegalArgumentException("Level must be between 1 and 9.");
+    if (blockSize < 1)
+      throw new IllegalArgumentException("Block size must be positive.");
+    if (blocksInFlight < 1)
+      throw new IllegalArgumentException("Blocks in flight must be positive.");
+    
+    level_ = level;
+    blockSize_ = blockSize;
+    blocksInFlight_ = blocksInFlight;
+    executor_ = executor;
+    deflaters_ = ThreadLocal.withInitial(() -> new Deflater(level_, true));
+    
+  }
+  
+  @Override
+  public OutputStream encode(final OutputStream out) {
+    return new BlockOutputStream(out);
+  }
+  
+  @Override
+  public InputStream decode(final InputStream in) {
+    return new BlockInputStream(in);
+  }
+  
+  /**
+   * @return the same name for every level and block size, since blocks 
+   *         are framed with their own lengths 
+   */
+  @Override
+  public String getName() {
+    return "DEFLATE_BLOCK";
+  }
+  
+  /**
+   * Compress a block into its framed form. 
+   */
+  private byte[] compress(final byte[] raw, final int length) {
+    
+    final Deflater deflater = deflaters_.get();
+    deflater.reset();
+    deflater.setInput(raw, 0, length);
+    deflater.finish();
+    
+    // anything that would not fit in length bytes is stored instead 
+    final byte[] frame = new byte[8 + length];
+    int stored = 0;
+    
+    while (!deflater.finished() && stored < length) {
+      stored += deflater.deflate(frame, 8 + stored, length - stored);
+    }
+    
+    if (!deflater.finished() || stored >= length) {
+      System.arraycopy(raw, 0, frame, 8, length);
+      stored = length;
+    }
+    
+    putInt(frame, 0, length);
+    putInt(frame, 4, stored);
+    
+    return stored == length ? frame : Arrays.copyOf(frame, 8 + stored);
+    
+  }
+  
+  /**
+   * Decompress the stored bytes of a frame. 
+   */
+  private byte[] decompress(final byte[] stored, final int rawLength) throws IOException {
+    
+    if (stored.length == rawLength) {
+      return stored;
+    }
+    
+    final Inflater inflater = inflaters_.get();
+    inflater.reset();
+    inflater.setInput(stored);
+    
+    final byte[] raw = new byte[rawLength];
+    int length = 0;
+    
+    try {
+      
+      while (length < rawLength && !inflater.finished()) {
+        
+        final int count = inflater.inflate(raw, length, rawLength - length);
+        
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        
+        length += count;
+        
+      }
+      
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt compressed block", e);
+    }
+    
+    if (length != rawLength) {
+      throw new IOException("Corrupt compressed block");
+    }
+    
+    return raw;
+    
+  }
+  
+  private <T> FutureTask<T> submit(final Callable<T> task) {
+    
+    final FutureTask<T> future = new FutureTask<>(task);
+    executor_.execute(future);
+    return future;
+    
+  }
+  
+  private static <T> T await(final FutureTask<T> future) throws IOException {
+    
+    try {
+      
+      return future.get();
+      
+    } catch (InterruptedException e) {
+      
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a block");
+      
+    } catch (ExecutionException e) {
+      
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException("Unable to process block", cause);
+      
+    }
+    
+  }
+  
+  private static void putInt(final byte[] buffer, final int offset, final int value) {
+    
+    buffer[offset] = (byte) (value >>> 24);
+    buffer[offset + 1] = (byte) (value >>> 16);
+    buffer[offset + 2] = (byte) (value >>> 8);
+    buffer[offset + 3] = (byte) value;
+    
+  }
+  
+  /**
+   * Collects writes into blocks, hands full blocks to the executor and 
+   * writes the compressed frames in order. 
+   */
+  private final class BlockOutputStream extends OutputStream {
+    
+    private final OutputStream out_;
+    private final Deque<FutureTask<byte[]>> pending_ = new ArrayDeque<>();
+    private byte[] block_ = new byte[blockSize_];
+    private int count_;
+    private boolean closed_;
+    
+    BlockOutputStream(final OutputStream out) {
+      out_ = out;
+    }
+    
+    @Override
+    public void write(final int b) throws IOException {
+      
+      block_[count_++] = (byte) b;
+      
+      if (count_ == block_.length) {
+        submitBlock();
+      }
+      
+    }
+    
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+      
+      while (len > 0) {
+        
+        final int count = Math.min(len, block_.length - count_);
+        System.arraycopy(b, off, block_, count_, count);
+        count_ += count;
+        off += count;
+        len -= count;
+        
+        if (count_ == block_.length) {
+          submitBlock();
+        }
+        
+      }
+      
+    }
+    
+    /**
+     * Writes out every block compressed so far. A partially filled block
+     * is kept back, since flushing it early would only hurt the ratio. 
+     */
+    @Override
+    public void flush() throws IOException {
+      
+      while (!pending_.isEmpty()) {
+        out_.write(await(pending_.removeFirst()));
+      }
+      out_.flush();
+      
+    }
+    
+    @Override
+    public void close() throws IOException {
+      
+      if (closed_) {
+        return;
+      }
+      closed_ = true;
+      
+      try {
+        
+        if (count_ > 0) {
+          submitBlock();
+        }
+        flush();
+        
+      } finally {
+        out_.close();
+      }
+      
+    }
+    
+    private void submitBlock() throws IOException {
+      
+      final byte[] raw = block_;
+      final int length = count_;
+      
+      pending_.addLast(submit(() -> compress(raw, length)));
+      
+      block_ = new byte[blockSize_];
+      count_ = 0;
+      
+      while (pending_.size() > blocksInFlight_) {
+        out_.write(await(pending_.removeFirst()));
+      }
+      
+    }
+    
+  }
+  
+  /**
+   * Reads frames ahead of the consumer and decompresses them on the 
+   * executor, returning the blocks in order. 
+   */
+  private final class BlockInputStream extends InputStream {
+    
+    private final DataInputStream in_;
+    private final Deque<FutureTask<byte[]>> pending_ = new ArrayDeque<>();
+    private boolean endOfFrames_;
+    private byte[] block_ = new byte[0];
+    private int position_;
+    
+    BlockInputStream(final InputStream in) {
+      in_ = new DataInputStream(in);
+    }
+    
+    @Override
+    public int read() throws IOException {
+      
+      if (!fill()) {
+        return -1;
+      }
+      
+      return block_[position_++] & 0xff;
+      
+    }
+    
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      
+      if (len == 0) {
+        return 0;
+      }
+      
+      if (!fill()) {
+        return -1;
+      }
+      
+      final int count = Math.min(len, block_.length - position_);
+      System.arraycopy(block_, position_, b, off, count);
+      position_ += count;
+      
+      return count;
+      
+    }
+    
+    @Override
+    public int available() {
+      return block_.length - position_;
+    }
+    
+    @Override
+    public void close() throws IOException {
+      in_.close();
+    }
+    
+    /**
+     * @return false at the end of the stream 
+     */
+    private boolean fill() throws IOException {
+      
+      while (position_ == block_.length) {
+        
+        readAhead();
+        
+        if (pending_.isEmpty()) {
+          return false;
+        }
+        
+        block_ = await(pending_.removeFirst());
+        position_ = 0;
+        
+      }
+      
+      return true;
+      
+    }
+    
+    private void readAhead() throws IOException {
+      
+      while (!endOfFrames_ && pending_.size() < blocksInFlight_) {
+        
+        final int first = in_.read();
+        
+        if (first < 0) {
+          endOfFrames_ = true;
+          return;
+        }
+        
+        final int rawLength = (first << 24) | (in_.readUnsignedByte() << 16) 
+            | (in_.readUnsignedByte() << 8) | in_.readUnsignedByte();
+        final int storedLength = in_.readInt();
+        
+        if (rawLength < 0 || storedLength < 0 || storedLength > rawLength) {
+          throw new IOException("Corrupt compressed block header");
+        }
+        
+        final byte[] stored = new byte[storedLength];
+        in_.readFully(stored);
+        
+        pending_.addLast(submit(() -> decompress(stored, rawLength)));
+        
+      }
+      
+    }
+    
+  }
+  
+}
@@ -0,0 +1,131 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class DeflateBlockCodecTest {
+
+  @Test
+  public void testCompressibleRoundTrip() throws IOException {
+    
+    final byte[] data = ParallelRunGeneratorTest.randomLog(5000).getBytes("UTF-8");
+    final byte[] encoded = encode(new DeflateBlockCodec(), data);
+    
+    assertThat(encoded.length, lessThan(data.length / 2));
+    assertThat(decode(new DeflateBlockCodec(), encoded), equalTo(data));
+    
+  }
+  
+  @Test
+  public void testSmallBlocksOnPool() throws IOException {
+    
+    final ExecutorService pool = Executors.newFixedThreadPool(3);
+    
+    try {
+      
+      final DeflateBlockCodec codec = new DeflateBlockCodec(1, 1000, 2, pool);
+      final byte[] data = ParallelRunGeneratorTest.randomLog(500).getBytes("UTF-8");
+      
+      assertThat(decode(codec, encode(codec, data)), equalTo(data));
+      
+    } finally {
+      pool.shutdown();
+    }
+    
+  }
+  
+  @Test
+  public void testIncompressibleRoundTrip() throws IOException {
+    
+    final byte[] data = new byte[100000];
+    new Random(3).nextBytes(data);
+    
+    final DeflateBlockCodec codec = new DeflateBlockCodec(1, 4096, 4, Runnable::run);
+    final byte[] encoded = encode(codec, data);
+    
+    // stored blocks only add their 8 byte frame header 
+    assertThat(encoded.length, equalTo(data.length + 8 * 25));
+    assertThat(decode(codec, encoded), equalTo(data));
+    
+  }
+  
+  @Test
+  public void testEmptyStream() throws IOException {
+    
+    final DeflateBlockCodec codec = new DeflateBlockCodec();
+    final byte[] encoded = encode(codec, new byte[0]);
+    
+    assertThat(encoded.length, equalTo(0));
+    assertThat(decode(codec, encoded).length, equalTo(0));
+    
+  }
+  
+  @Test
+  public void testSingleByteIo() throws IOException {
+    
+    final DeflateBlockCodec codec = new DeflateBlockCodec(1, 7, 3, Runnable::run);
+    
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = codec.encode(bytes);
+    for (int i = 0; i < 100; i++) {
+      out.write(i);
+    }
+    out.close();
+    
+    final InputStream in = codec.decode(new ByteArrayInputStream(bytes.toByteArray()));
+    for (int i = 0; i < 100; i++) {
+      assertThat(in.read(), equalTo(i));
+    }
+    assertThat(in.read(), equalTo(-1));
+    in.close();
+    
+  }
+  
+  @Test(expected = IOException.class)
+  public void testTruncated() throws IOException {
+    
+    final DeflateBlockCodec codec = new DeflateBlockCodec();
+    final byte[] encoded = encode(codec, ParallelRunGeneratorTest.randomLog(100).getBytes("UTF-8"));
+    
+    final byte[] truncated = new byte[encoded.length - 10];
+    System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+    decode(codec, truncated);
+    
+  }
+  
+  private static byte[] encode(final SpillCodec codec, final byte[] data) throws IOException {
+    
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = codec.encode(bytes);
+    out.write(data);
+    out.close();
+    return bytes.toByteArray();
+    
+  }
+  
+  private static byte[] decode(final SpillCodec codec, final byte[] data) throws IOException {
+    
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final InputStream in = codec.decode(new ByteArrayInputStream(data));
+    final byte[] buffer = new byte[333];
+    for (int count; (count = in.read(buffer)) >= 0;) {
+      bytes.write(buffer, 0, count);
+    }
+    in.close();
+    return bytes.toByteArray();
+    
+  }
+
+}
@@ -0,0 +1,122 @@
+package samples.logutils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A run buffer holding {@link LogEntry} references. The array starts small
+ * and grows by half again as needed, up to the line limit.
+ *
+ * Large runs are sorted by radix sorting (sort key, index) pairs and then
+ * permuting the entries, so no comparison dereferences an entry; small
+ * runs use the comparison sort of {@link LogEntry#compareTo(LogEntry)}.
+ */
+final class EntryRunBuffer extends RunBuffer {
+
+  private final int maxCount_;
+  private LogEntry[] entries_;
+  private int count_;
+  private long sizeBytes_;
+
+  // radix sort work arrays, kept for reuse between runs
+  private long[] pairs_;
+  private long[] scratch_;
+  private LogEntry[] sorted_;
+
+  /**
+   * @param initialCapacity the initial entry capacity
+   * @param maxCount the maximum number of entries
+   */
+  EntryRunBuffer(final int initialCapacity, final int maxCount) {
+
+    maxCount_ = maxCount;
+    entries_ = new LogEntry[Math.min(initialCapacity, maxCount)];
+
+  }
+
+  @Override
+  boolean add(final LogEntry entry) {
+
+    if (count_ == entries_.length) {
+
+      if (count_ == maxCount_) {
+        return false;
+      }
+
+      final long grown = (long) entries_.length + (entries_.length >> 1) + 1;
+      entries_ = Arrays.copyOf(entries_, (int) Math.min(grown, maxCount_));
+
+    }
+
+    entries_[count_++] = entry;
+    sizeBytes_ += entry.getSizeByte();
+    return true;
+
+  }
+
+  @Override
+  int size() {
+    return count_;
+  }
+
+  @Override
+  long getSizeByte() {
+    return sizeBytes_;
+  }
+
+  @Override
+  void sort() {
+
+    if (count_ < RadixSort.MIN_RADIX_COUNT) {
+      // object sorts are stable
+      Arrays.sort(entries_, 0, count_);
+      return;
+    }
+
+    if (pairs_ == null || pairs_.length < count_ * 2 || sorted_.length < count_) {
+      pairs_ = new long[entries_.length * 2];
+      scratch_ = new long[entries_.length * 2];
+      sorted_ = new LogEntry[entries_.length];
+    }
+
+    for (int i = 0; i < count_; i++) {
+      pairs_[i * 2] = entries_[i].getSortKey();
+      pairs_[i * 2 + 1] = i;
+    }
+
+    RadixSort.sort(pairs_, scratch_, count_);
+
+    for (int i = 0; i < count_; i++) {
+      sorted_[i] = entries_[(int) pairs_[i * 2 + 1]];
+    }
+
+    // the permuted copy becomes the buffer, the old array the next copy
+    final LogEntry[] swap = entries_;
+    entries_ = sorted_;
+    sorted_ = swap;
+
+  }
+
+  @Override
+  void writeTo(final RunWriter writer) throws IOException {
+
+    for (int i = 0; i < count_; i++) {
+      writer.write(entries_[i]);
+    }
+
+  }
+
+  @Override
+  void clear() {
+
+    // release the references, keep the arrays for reuse
+    Arrays.fill(entries_, 0, count_, null);
+    if (sorted_ != null) {
+      Arrays.fill(sorted_, 0, Math.min(count_, sorted_.length), null);
+    }
+    count_ = 0;
+    sizeBytes_ = 0;
+
+  }
+
+}
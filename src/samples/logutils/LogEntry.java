@@ -1,26 +1,51 @@
 package samples.logutils;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import samples.datatypes.ItemWithSize;
 
 /**
  * A data structure representing the log entries. Responsible for parsing
  * the date and the severity level, and also implements the comparable
  * interface to aid with sorting the entries.   
+ * 
+ * The timestamp is held as primitive epoch milliseconds; parsing is done 
+ * by {@link LogEntryParser} and is safe to run on many threads at once. 
+ * 
+ * An entry holds its line either as a {@link String} or, when created by
+ * {@link #fromUtf8(byte[], int, int)}, as a range of UTF-8 bytes. Byte 
+ * backed entries are sorted, spilled and written out without ever being
+ * decoded; {@link #getLogLine()} decodes on demand. 
  */
-public class LogEntry implements Comparable<LogEntry> {
+public class LogEntry implements Comparable<LogEntry>, ItemWithSize {
+  
+  /**
+   * Approximate fixed heap cost of a String backed entry on a 64 bit VM 
+   * with compressed references: the entry object (40), the String object 
+   * (24), the character array header (16) and the slot referencing the 
+   * entry in a buffer array (4), rounded up for alignment. 
+   */
+  static final int ENTRY_OVERHEAD_BYTES = 88;
+  
+  /**
+   * Approximate fixed heap cost of a byte backed entry, which owns its 
+   * UTF-8 array: the entry object (40), the byte array header (16) and the
+   * slot referencing the entry in a buffer array (4), rounded up for 
+   * alignment. 
+   */
+  static final int UTF8_ENTRY_OVERHEAD_BYTES = 64;
   
+  // exactly one of the line or its UTF-8 bytes is set
   private final String logLine_;
-  private final Date timestamp_;
+  private final byte[] utf8_;
+  private final int offset_;
+  private final int length_;
+  private final long timestamp_;
   private final Severity severity_;
   
-  private final static Pattern LOG_REGEX = Pattern.compile("\\[(.*?)\\]");
-  private final static DateFormat DATE_FORMAT = 
-      new SimpleDateFormat("yyyy-mm-dd HH:mm:ss.SSSZ");
-  
   /**
    * Parse a string and creates a new instance of the LogEntry representation. 
    * @param logLine the log entry to parse 
@@ -32,55 +57,154 @@ public class LogEntry implements Comparable<LogEntry> {
     // Example syntax: 
     // [2015-11-19 10:33:54.934+0000] [HOST1] [INFO] [CLASS1] [MESSAGE1 something]
     
-    try {
-      
-      // Use a regex matcher to extract [] groups 
-      final Matcher matcher = LOG_REGEX.matcher(logLine);
-      
-      matcher.find();
-      final String timeStampString = matcher.group(1);
-      matcher.find(); // skip the [host] group 
-      matcher.find();
-      final String severityString = matcher.group(1);
-      
-      final Date date = DATE_FORMAT.parse(timeStampString);
-      final Severity severity = Severity.valueOf(severityString);
-      
-      return new LogEntry(logLine, date, severity);
-      
-    } catch (Exception e) {
-      
-      // TODO: Better exception reporting
-      throw new IllegalArgumentException("Unable to parse log line: " + logLine 
-          + "\n Root cause was: " + e);
-      
+    final LogEntry entry = LogEntryParser.parse(logLine);
+    
+    if (entry == null) {
+      throw new IllegalArgumentException("Unable to parse log line: " + logLine);
+    }
+    
+    return entry;
+    
+  }
+  
+  /**
+   * Parse a string without throwing on malformed input. Prefer this over
+   * {@link #fromString(String)} where bad lines are expected, since no
+   * exception or message is built for rejected lines. 
+   * 
+   * @param logLine the log entry to parse 
+   * @return a new instance of the LogEntry, or null on parsing errors
+   */
+  public static LogEntry tryParse(final String logLine) {
+    
+    return LogEntryParser.parse(logLine);
+    
+  }
+  
+  /**
+   * Parse the UTF-8 bytes of a line. Only the ASCII header is inspected, 
+   * the line is not decoded. The array is referenced, not copied, and 
+   * must not be modified afterwards. 
+   * 
+   * @param utf8 the array holding the line
+   * @param offset the index of the first byte of the line
+   * @param length the length of the line in bytes, without a terminator
+   * @return a new byte backed instance of the LogEntry
+   * @throws IllegalArgumentException on parsing errors 
+   */
+  public static LogEntry fromUtf8(final byte[] utf8, 
+                                  final int offset, 
+                                  final int length) throws IllegalArgumentException {
+    
+    final LogEntry entry = LogEntryParser.parse(utf8, offset, length);
+    
+    if (entry == null) {
+      throw new IllegalArgumentException("Unable to parse log line: " 
+          + new String(utf8, offset, length, StandardCharsets.UTF_8));
     }
     
+    return entry;
+    
   }
   
   /** protected constructor to enforce fromString(..) access pattern */
   protected LogEntry(final String logLine, 
-                     final Date timestamp, 
+                     final long timestamp, 
                      final Severity severity) {
     logLine_ = logLine;
+    utf8_ = null;
+    offset_ = 0;
+    length_ = 0;
+    timestamp_ = timestamp;
+    severity_ = severity;
+  }
+  
+  /** a byte backed entry, see fromUtf8(..) */
+  LogEntry(final byte[] utf8, 
+           final int offset, 
+           final int length, 
+           final long timestamp, 
+           final Severity severity) {
+    logLine_ = null;
+    utf8_ = utf8;
+    offset_ = offset;
+    length_ = length;
     timestamp_ = timestamp;
     severity_ = severity;
   }
   
   /**
-   * @return the raw log line 
+   * @return the raw log line, decoded on each call for byte backed entries
    */
   public String getLogLine() {
     
-    return logLine_;
+    if (logLine_ != null) {
+      return logLine_;
+    }
+    
+    return new String(utf8_, offset_, length_, StandardCharsets.UTF_8);
+    
+  }
+  
+  /**
+   * Write the raw log line as UTF-8, copying the bytes of byte backed 
+   * entries unchanged. 
+   * 
+   * @param out the stream to write to 
+   * @throws IOException on write errors 
+   */
+  public void writeUtf8(final OutputStream out) throws IOException {
+    
+    if (utf8_ != null) {
+      out.write(utf8_, offset_, length_);
+    } else {
+      out.write(logLine_.getBytes(StandardCharsets.UTF_8));
+    }
     
   }
   
+  /**
+   * @return true if the line is held as UTF-8 bytes 
+   */
+  boolean isUtf8() {
+    return utf8_ != null;
+  }
+  
+  /**
+   * @return the array holding the UTF-8 line of a byte backed entry 
+   */
+  byte[] getUtf8Array() {
+    return utf8_;
+  }
+  
+  /**
+   * @return the offset of the line in {@link #getUtf8Array()}
+   */
+  int getUtf8Offset() {
+    return offset_;
+  }
+  
+  /**
+   * @return the length of the line in {@link #getUtf8Array()}
+   */
+  int getUtf8Length() {
+    return length_;
+  }
+  
   /**
    * @return the extract timestamp of the log entry as a Java Date
    */
   public Date getTimestamp() {
     
+    return new Date(timestamp_);
+    
+  }
+  
+  /**
+   * @return the extracted timestamp of the log entry in epoch milliseconds
+   */
+  public long getTimestampMillis() {
+    
     return timestamp_;
     
   }
@@ -94,15 +218,59 @@ public class LogEntry implements Comparable<LogEntry> {
     
   }
   
+  /**
+   * Estimate the heap retained by this entry. The line is costed at two
+   * bytes per character, which is exact for UTF-16 backed strings and an
+   * over-estimate where the VM stores compact Latin-1 strings, or at its
+   * UTF-8 length for byte backed entries. 
+   * 
+   * @return the estimated retained size in bytes 
+   */
+  @Override
+  public long getSizeByte() {
+    
+    if (utf8_ != null) {
+      return UTF8_ENTRY_OVERHEAD_BYTES + length_;
+    }
+    
+    return ENTRY_OVERHEAD_BYTES + 2L * logLine_.length();
+    
+  }
+  
   @Override
   public String toString() {
-    return logLine_;
+    return getLogLine();
+  }
+  
+  /**
+   * @return the timestamp and severity packed into a single long that 
+   *         orders exactly as {@link #compareTo(LogEntry)}
+   */
+  public long getSortKey() {
+    
+    return sortKey(timestamp_, severity_);
+    
+  }
+  
+  /**
+   * Pack a timestamp and severity into a sort key. The severity ordinal
+   * fills the low two bits, which is exact for timestamps within roughly
+   * 73 million years of the epoch. 
+   * 
+   * @param timestamp the timestamp in epoch milliseconds
+   * @param severity the severity 
+   * @return the packed sort key 
+   */
+  static long sortKey(final long timestamp, final Severity severity) {
+    
+    return (timestamp << 2) | severity.ordinal();
+    
   }
   
   @Override
   public int compareTo(LogEntry o) {
     
-    final int dateCompare = timestamp_.compareTo(o.timestamp_);
+    final int dateCompare = Long.compare(timestamp_, o.timestamp_);
     
     if (dateCompare != 0) {
       
@@ -120,7 +288,7 @@ public class LogEntry implements Comparable<LogEntry> {
   public int hashCode() {
     final int prime = 31;
     int result = 1;
-    result = prime * result + ((logLine_ == null) ? 0 : logLine_.hashCode());
+    result = prime * result + getLogLine().hashCode();
     return result;
   }
 
@@ -133,17 +301,12 @@ public class LogEntry implements Comparable<LogEntry> {
     if (getClass() != obj.getClass())
       return false;
     LogEntry other = (LogEntry) obj;
-    if (logLine_ == null) {
-      if (other.logLine_ != null)
-        return false;
-    } else if (!logLine_.equals(other.logLine_))
-      return false;
-    return true;
+    return getLogLine().equals(other.getLogLine());
   }
 
 
   /** Log entry level severity */
-  enum Severity {
+  public enum Severity {
     ERROR, 
     WARN, 
     INFO,
@@ -0,0 +1,487 @@
+package samples.logutils;
+
+import java.nio.ByteBuffer;
+
+import samples.logutils.LogEntry.Severity;
+
+/**
+ * A hand written scanner for the bracketed log line header. Decodes
+ * {@code [yyyy-MM-dd HH:mm:ss.SSS+ZZZZ] [HOST] [SEVERITY]} straight into
+ * epoch milliseconds and a {@link Severity} without regular expressions,
+ * date formatters, substrings or exceptions.
+ *
+ * All methods are static and thread-safe. The epoch value of the most
+ * recent {@code yyyy-MM-dd HH} prefix is cached in an immutable holder, so
+ * lines from the same hour only decode minutes, seconds and millis.
+ *
+ * Besides {@link String} lines the header can be decoded straight from
+ * raw bytes, see {@link #parseSortKey(ByteBuffer, int, int)}. The header
+ * is ASCII, so no charset decoding is needed to sort a line.
+ */
+public final class LogEntryParser {
+
+  /** Returned by the timestamp scanner when the field is malformed */
+  public static final long INVALID_TIMESTAMP = Long.MIN_VALUE;
+
+  /** Returned by the sort key scanner when the header is malformed */
+  public static final long INVALID_KEY = Long.MIN_VALUE;
+
+  // [yyyy-MM-dd HH:mm:ss.SSS+ZZZZ]
+  static final int TIMESTAMP_LENGTH = 28;
+  private static final int HOUR_PREFIX_LENGTH = 13;
+
+  private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+  private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+  private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+  private static final Severity[] SEVERITIES = Severity.values();
+
+  private static volatile HourCache hourCache_ = new HourCache("", 0);
+
+  private LogEntryParser() {
+    // static utility
+  }
+
+  /**
+   * Parse a raw log line.
+   *
+   * @param logLine the log line to parse
+   * @return a new log entry, or null if the line is malformed
+   */
+  public static LogEntry parse(final String logLine) {
+
+    if (logLine == null) {
+      return null;
+    }
+
+    final int length = logLine.length();
+
+    // timestamp group
+    final int timeOpen = logLine.indexOf('[');
+    if (timeOpen < 0 || timeOpen + TIMESTAMP_LENGTH + 1 >= length
+        || logLine.charAt(timeOpen + TIMESTAMP_LENGTH + 1) != ']') {
+      return null;
+    }
+
+    final long timestamp = parseTimestamp(logLine, timeOpen + 1);
+    if (timestamp == INVALID_TIMESTAMP) {
+      return null;
+    }
+
+    // skip the [host] group
+    final int hostOpen = logLine.indexOf('[', timeOpen + TIMESTAMP_LENGTH + 2);
+    if (hostOpen < 0) {
+      return null;
+    }
+    final int hostClose = logLine.indexOf(']', hostOpen + 1);
+    if (hostClose < 0) {
+      return null;
+    }
+
+    // severity group
+    final int severityOpen = logLine.indexOf('[', hostClose + 1);
+    if (severityOpen < 0) {
+      return null;
+    }
+    final int severityClose = logLine.indexOf(']', severityOpen + 1);
+    if (severityClose < 0) {
+      return null;
+    }
+
+    final Severity severity = parseSeverity(logLine, severityOpen + 1, severityClose);
+    if (severity == null) {
+      return null;
+    }
+
+    return new LogEntry(logLine, timestamp, severity);
+
+  }
+
+  /**
+   * Parse the UTF-8 bytes of a raw log line into a byte backed entry.
+   *
+   * @param utf8 the array holding the line, referenced by the entry
+   * @param offset the index of the first byte of the line
+   * @param length the length of the line in bytes
+   * @return a new log entry, or null if the line is malformed
+   */
+  public static LogEntry parse(final byte[] utf8, final int offset, final int length) {
+
+    final long key = parseSortKey(ByteBuffer.wrap(utf8), offset, offset + length);
+
+    if (key == INVALID_KEY) {
+      return null;
+    }
+
+    return new LogEntry(utf8, offset, length, timestampOf(key), severityOf(key));
+
+  }
+
+  /**
+   * Decode the header of a raw line held as bytes into its packed sort
+   * key, see {@link LogEntry#getSortKey()}. Only the ASCII header is
+   * inspected; the rest of the line is never decoded.
+   *
+   * @param bytes the buffer holding the line, read with absolute gets
+   * @param start the index of the first byte of the line
+   * @param end the index after the last byte of the line
+   * @return the packed sort key, or {@link #INVALID_KEY}
+   */
+  public static long parseSortKey(final ByteBuffer bytes, final int start, final int end) {
+
+    // timestamp group
+    final int timeOpen = indexOf(bytes, '[', start, end);
+    if (timeOpen < 0 || timeOpen + TIMESTAMP_LENGTH + 1 >= end
+        || bytes.get(timeOpen + TIMESTAMP_LENGTH + 1) != ']') {
+      return INVALID_KEY;
+    }
+
+    final long timestamp = parseTimestamp(bytes, timeOpen + 1);
+    if (timestamp == INVALID_TIMESTAMP) {
+      return INVALID_KEY;
+    }
+
+    // skip the [host] group
+    final int hostOpen = indexOf(bytes, '[', timeOpen + TIMESTAMP_LENGTH + 2, end);
+    if (hostOpen < 0) {
+      return INVALID_KEY;
+    }
+    final int hostClose = indexOf(bytes, ']', hostOpen + 1, end);
+    if (hostClose < 0) {
+      return INVALID_KEY;
+    }
+
+    // severity group
+    final int severityOpen = indexOf(bytes, '[', hostClose + 1, end);
+    if (severityOpen < 0) {
+      return INVALID_KEY;
+    }
+    final int severityClose = indexOf(bytes, ']', severityOpen + 1, end);
+    if (severityClose < 0) {
+      return INVALID_KEY;
+    }
+
+    final Severity severity = parseSeverity(bytes, severityOpen + 1, severityClose);
+    if (severity == null) {
+      return INVALID_KEY;
+    }
+
+    return LogEntry.sortKey(timestamp, severity);
+
+  }
+
+  /**
+   * @return the timestamp packed into a sort key
+   */
+  static long timestampOf(final long sortKey) {
+    return sortKey >> 2;
+  }
+
+  /**
+   * @return the severity packed into a sort key
+   */
+  static Severity severityOf(final long sortKey) {
+    return SEVERITIES[(int) (sortKey & 3)];
+  }
+
+  /**
+   * Decode a {@code yyyy-MM-dd HH:mm:ss.SSS+ZZZZ} timestamp.
+   *
+   * @param s the text holding the timestamp
+   * @param start the index of the first year digit
+   * @return the epoch milliseconds, or {@link #INVALID_TIMESTAMP}
+   */
+  public static long parseTimestamp(final String s, final int start) {
+
+    if (start < 0 || start + TIMESTAMP_LENGTH > s.length()
+        || s.charAt(start + 4) != '-' || s.charAt(start + 7) != '-'
+        || s.charAt(start + 10) != ' ' || s.charAt(start + 13) != ':'
+        || s.charAt(start + 16) != ':' || s.charAt(start + 19) != '.') {
+      return INVALID_TIMESTAMP;
+    }
+
+    final long hourMillis = hourMillis(s, start);
+    final int minute = digits(s, start + 14, 2);
+    final int second = digits(s, start + 17, 2);
+    final int millis = digits(s, start + 20, 3);
+    final int offsetHours = digits(s, start + 24, 2);
+    final int offsetMinutes = digits(s, start + 26, 2);
+    final char sign = s.charAt(start + 23);
+
+    // digits(..) returns -1 for non-digits, so range checks cover both
+    if (hourMillis == INVALID_TIMESTAMP
+        || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0
+        || offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59
+        || (sign != '+' && sign != '-')) {
+      return INVALID_TIMESTAMP;
+    }
+
+    final long offset = offsetHours * MILLIS_PER_HOUR + offsetMinutes * MILLIS_PER_MINUTE;
+
+    return hourMillis + minute * MILLIS_PER_MINUTE + second * 1000L + millis
+        - (sign == '+' ? offset : -offset);
+
+  }
+
+  /**
+   * Match a severity name without {@link Enum#valueOf(Class, String)}.
+   *
+   * @param s the text holding the severity
+   * @param start the index of the first character
+   * @param end the index after the last character
+   * @return the severity, or null if the name is not known
+   */
+  static Severity parseSeverity(final String s, final int start, final int end) {
+
+    final int length = end - start;
+
+    for (final Severity severity : SEVERITIES) {
+
+      final String name = severity.name();
+
+      if (name.length() == length && s.regionMatches(start, name, 0, length)) {
+        return severity;
+      }
+
+    }
+
+    return null;
+
+  }
+
+  /**
+   * Byte oriented twin of {@link #parseTimestamp(String, int)}.
+   */
+  static long parseTimestamp(final ByteBuffer b, final int start) {
+
+    if (start < 0 || start + TIMESTAMP_LENGTH > b.limit()
+        || b.get(start + 4) != '-' || b.get(start + 7) != '-'
+        || b.get(start + 10) != ' ' || b.get(start + 13) != ':'
+        || b.get(start + 16) != ':' || b.get(start + 19) != '.') {
+      return INVALID_TIMESTAMP;
+    }
+
+    final long hourMillis = hourMillis(b, start);
+    final int minute = digits(b, start + 14, 2);
+    final int second = digits(b, start + 17, 2);
+    final int millis = digits(b, start + 20, 3);
+    final int offsetHours = digits(b, start + 24, 2);
+    final int offsetMinutes = digits(b, start + 26, 2);
+    final byte sign = b.get(start + 23);
+
+    if (hourMillis == INVALID_TIMESTAMP
+        || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0
+        || offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59
+        || (sign != '+' && sign != '-')) {
+      return INVALID_TIMESTAMP;
+    }
+
+    final long offset = offsetHours * MILLIS_PER_HOUR + offsetMinutes * MILLIS_PER_MINUTE;
+
+    return hourMillis + minute * MILLIS_PER_MINUTE + second * 1000L + millis
+        - (sign == '+' ? offset : -offset);
+
+  }
+
+  /**
+   * Byte oriented twin of {@link #parseSeverity(String, int, int)}.
+   */
+  static Severity parseSeverity(final ByteBuffer b, final int start, final int end) {
+
+    final int length = end - start;
+
+    for (final Severity severity : SEVERITIES) {
+
+      final String name = severity.name();
+
+      if (name.length() == length && regionMatches(b, start, name, length)) {
+        return severity;
+      }
+
+    }
+
+    return null;
+
+  }
+
+  /**
+   * Epoch millis of the {@code yyyy-MM-dd HH} prefix, served from the cache
+   * when the prefix matches the previous lookup.
+   */
+  private static long hourMillis(final String s, final int start) {
+
+    final HourCache cache = hourCache_;
+
+    if (s.regionMatches(start, cache.prefix_, 0, HOUR_PREFIX_LENGTH)) {
+      return cache.millis_;
+    }
+
+    final int year = digits(s, start, 4);
+    final int month = digits(s, start + 5, 2);
+    final int day = digits(s, start + 8, 2);
+    final int hour = digits(s, start + 11, 2);
+
+    if (year < 0 || month < 1 || month > 12 || day < 1
+        || day > daysInMonth(year, month) || hour < 0 || hour > 23) {
+      return INVALID_TIMESTAMP;
+    }
+
+    final long millis = epochDay(year, month, day) * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR;
+
+    hourCache_ = new HourCache(s.substring(start, start + HOUR_PREFIX_LENGTH), millis);
+
+    return millis;
+
+  }
+
+  private static long hourMillis(final ByteBuffer b, final int start) {
+
+    final HourCache cache = hourCache_;
+
+    if (regionMatches(b, start, cache.prefix_, HOUR_PREFIX_LENGTH)) {
+      return cache.millis_;
+    }
+
+    final int year = digits(b, start, 4);
+    final int month = digits(b, start + 5, 2);
+    final int day = digits(b, start + 8, 2);
+    final int hour = digits(b, start + 11, 2);
+
+    if (year < 0 || month < 1 || month > 12 || day < 1
+        || day > daysInMonth(year, month) || hour < 0 || hour > 23) {
+      return INVALID_TIMESTAMP;
+    }
+
+    final long millis = epochDay(year, month, day) * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR;
+
+    final char[] prefix = new char[HOUR_PREFIX_LENGTH];
+    for (int i = 0; i < HOUR_PREFIX_LENGTH; i++) {
+      prefix[i] = (char) b.get(start + i);
+    }
+    hourCache_ = new HourCache(new String(prefix), millis);
+
+    return millis;
+
+  }
+
+  /**
+   * @return true if the bytes match the first length ASCII characters
+   */
+  private static boolean regionMatches(final ByteBuffer b,
+                                       final int start,
+                                       final String ascii,
+                                       final int length) {
+
+    if (ascii.length() < length) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (b.get(start + i) != ascii.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+
+  }
+
+  /**
+   * @return the index of the first matching byte in [from, to), or -1
+   */
+  static int indexOf(final ByteBuffer b, final char c, final int from, final int to) {
+
+    for (int i = from; i < to; i++) {
+      if (b.get(i) == c) {
+        return i;
+      }
+    }
+
+    return -1;
+
+  }
+
+  /**
+   * @return the decimal value of count digits, or -1 on a non-digit
+   */
+  private static int digits(final String s, final int start, final int count) {
+
+    int value = 0;
+
+    for (int i = start; i < start + count; i++) {
+
+      final int digit = s.charAt(i) - '0';
+
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+
+      value = value * 10 + digit;
+
+    }
+
+    return value;
+
+  }
+
+  private static int digits(final ByteBuffer b, final int start, final int count) {
+
+    int value = 0;
+
+    for (int i = start; i < start + count; i++) {
+
+      final int digit = b.get(i) - '0';
+
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+
+      value = value * 10 + digit;
+
+    }
+
+    return value;
+
+  }
+
+  /**
+   * Days since 1970-01-01 of a proleptic Gregorian date.
+   */
+  static long epochDay(final int year, final int month, final int day) {
+
+    // shift the year to start in March so the leap day is last
+    final long y = month <= 2 ? year - 1 : year;
+    final long era = (y >= 0 ? y : y - 399) / 400;
+    final long yearOfEra = y - era * 400;
+    final long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+    return era * 146097 + dayOfEra - 719468;
+
+  }
+
+  private static int daysInMonth(final int year, final int month) {
+
+    if (month == 2) {
+      final boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+      return leap ? 29 : 28;
+    }
+
+    return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+
+  }
+
+  /** Immutable, safely published cache entry */
+  private static final class HourCache {
+
+    private final String prefix_;
+    private final long millis_;
+
+    HourCache(final String prefix, final long millis) {
+      prefix_ = prefix;
+      millis_ = millis;
+    }
+
+  }
+
+}
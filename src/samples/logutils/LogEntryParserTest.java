@@ -0,0 +1,94 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogEntryParserTest {
+
+  @Test
+  public void testEpochDay() {
+    
+    for (LocalDate date = LocalDate.of(1899, 12, 25); date.getYear() < 2101; date = date.plusDays(1)) {
+      assertThat(LogEntryParser.epochDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth()), 
+                 equalTo(date.toEpochDay()));
+    }
+    
+  }
+  
+  @Test
+  public void testRandomTimestamps() {
+    
+    final DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSxx");
+    final Random random = new Random(11);
+    
+    for (int i = 0; i < 10000; i++) {
+      
+      final OffsetDateTime time = OffsetDateTime.of(
+          1970 + random.nextInt(100), 1 + random.nextInt(12), 1 + random.nextInt(28), 
+          random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1000) * 1000000, 
+          ZoneOffset.ofHoursMinutes(random.nextInt(25) - 12, 0));
+      
+      final String line = "[" + time.format(format) + "] [HOST] [WARN] [CLASS] [message]";
+      
+      assertThat(LogEntryParser.parseTimestamp(line, 1), 
+                 equalTo(time.toInstant().toEpochMilli()));
+      
+    }
+    
+  }
+  
+  @Test
+  public void testSeverity() {
+    
+    final String text = "[ERROR] [WARN] [INFO] [WARNING]";
+    
+    assertThat(LogEntryParser.parseSeverity(text, 1, 6), equalTo(LogEntry.Severity.ERROR));
+    assertThat(LogEntryParser.parseSeverity(text, 9, 13), equalTo(LogEntry.Severity.WARN));
+    assertThat(LogEntryParser.parseSeverity(text, 16, 20), equalTo(LogEntry.Severity.INFO));
+    assertThat(LogEntryParser.parseSeverity(text, 23, 30), equalTo(null));
+    
+  }
+  
+  @Test
+  public void testByteSortKey() throws UnsupportedEncodingException {
+    
+    final String[] lines = {
+        "[2015-11-19 10:33:54.934+0000] [HOST1] [ERROR] [CLASS] [message]",
+        "[2015-11-19 10:33:54.934-0130] [HOST1] [INFO] [CLASS] [\u00fcnicode]",
+        "  [2016-02-29 23:59:59.999+1200] [] [WARN] [CLASS] [message]",
+        "[2015-02-29 10:33:54.934+0000] [HOST1] [ERROR] [CLASS] [message]",
+        "[2015-11-19 10:33:54.934+0000] [HOST1] [WARNING] [CLASS] [message]",
+        "[2015-11-19 10:33:54.934+0000] [HOST1 [ERROR",
+        "[2015-11-19 10:33:54.934+0000]",
+        "",
+    };
+    
+    for (final String line : lines) {
+      
+      // pad so the line does not start at index 0 of the buffer
+      final byte[] bytes = ("xx" + line + "yy").getBytes("UTF-8");
+      final long key = LogEntryParser.parseSortKey(ByteBuffer.wrap(bytes), 2, bytes.length - 2);
+      final LogEntry entry = LogEntry.tryParse(line);
+      
+      assertThat(line, key, equalTo(entry == null ? LogEntryParser.INVALID_KEY : entry.getSortKey()));
+      
+      if (entry != null) {
+        assertThat(LogEntryParser.timestampOf(key), equalTo(entry.getTimestampMillis()));
+        assertThat(LogEntryParser.severityOf(key), equalTo(entry.getSeverity()));
+      }
+      
+    }
+    
+  }
+
+}
@@ -3,6 +3,9 @@ package samples.logutils;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Date;
@@ -18,7 +21,8 @@ public class LogEntryTest {
     final LogEntry entry = LogEntry.fromString(line);
     
     assertThat(entry.getSeverity(), equalTo(LogEntry.Severity.INFO));
-    assertThat(entry.getTimestamp(), equalTo(new Date(1421663634934L)));
+    assertThat(entry.getTimestamp(), equalTo(new Date(1447929234934L)));
+    assertThat(entry.getTimestampMillis(), equalTo(1447929234934L));
     assertThat(entry.getLogLine(), equalTo(line));
     
   }
@@ -46,5 +50,74 @@ public class LogEntryTest {
     assertThat(array3, equalTo(new LogEntry[]{entry1, entry2, entry3, entry4, entry5, entry6}));
     
   }
+  
+  @Test
+  public void testTimeZoneOffset() {
+    
+    final LogEntry utc = LogEntry.fromString("[2015-11-19 10:33:54.934+0000] [HOST1] [INFO] [CLASS1] [MESSAGE1 something]");
+    final LogEntry ahead = LogEntry.fromString("[2015-11-19 12:03:54.934+0130] [HOST1] [INFO] [CLASS1] [MESSAGE1 something]");
+    final LogEntry behind = LogEntry.fromString("[2015-11-19 05:33:54.934-0500] [HOST1] [INFO] [CLASS1] [MESSAGE1 something]");
+    
+    assertThat(ahead.getTimestampMillis(), equalTo(utc.getTimestampMillis()));
+    assertThat(behind.getTimestampMillis(), equalTo(utc.getTimestampMillis()));
+    
+  }
+  
+  @Test
+  public void testMalformedLines() {
+    
+    assertThat(LogEntry.tryParse(null), equalTo(null));
+    assertThat(LogEntry.tryParse(""), equalTo(null));
+    assertThat(LogEntry.tryParse("no brackets at all"), equalTo(null));
+    assertThat(LogEntry.tryParse("[2015-11-19 10:33:54.934+0000] [HOST1]"), equalTo(null));
+    assertThat(LogEntry.tryParse("[2015-11-19 10:33:54.934+0000] [HOST1] [DEBUG] [CLASS1]"), equalTo(null));
+    assertThat(LogEntry.tryParse("[2015-13-19 10:33:54.934+0000] [HOST1] [INFO] [CLASS1]"), equalTo(null));
+    assertThat(LogEntry.tryParse("[2015-02-29 10:33:54.934+0000] [HOST1] [INFO] [CLASS1]"), equalTo(null));
+    assertThat(LogEntry.tryParse("[2015-11-19 10:3x:54.934+0000] [HOST1] [INFO] [CLASS1]"), equalTo(null));
+    assertThat(LogEntry.tryParse("[2015-11-19 10:33:54.934Z] [HOST1] [INFO] [CLASS1]"), equalTo(null));
+    
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testFromStringThrows() {
+    LogEntry.fromString("[2015-11-19 10:33:54.934+0000] [HOST1] [TRACE] [CLASS1]");
+  }
+  
+  @Test
+  public void testFromUtf8() throws IOException {
+    
+    final String line = "[2015-11-19 10:33:54.934+0000] [HOST1] [WARN] [CLASS1] [\u00fcnicode \u2603]";
+    final byte[] utf8 = line.getBytes(StandardCharsets.UTF_8);
+    
+    // the line sits inside a larger array
+    final byte[] padded = new byte[utf8.length + 6];
+    System.arraycopy(utf8, 0, padded, 3, utf8.length);
+    
+    final LogEntry entry = LogEntry.fromUtf8(padded, 3, utf8.length);
+    final LogEntry expected = LogEntry.fromString(line);
+    
+    assertThat(entry.getLogLine(), equalTo(line));
+    assertThat(entry.getSortKey(), equalTo(expected.getSortKey()));
+    assertThat(entry, equalTo(expected));
+    assertThat(entry.hashCode(), equalTo(expected.hashCode()));
+    assertThat(entry.getSizeByte(), equalTo((long) LogEntry.UTF8_ENTRY_OVERHEAD_BYTES + utf8.length));
+    
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entry.writeUtf8(out);
+    expected.writeUtf8(out);
+    assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8), equalTo(line + line));
+    
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testFromUtf8Throws() {
+    
+    final byte[] utf8 = "[2015-11-19 10:33:54.934+0000] [HOST1] [INFO] [CLASS1]"
+        .getBytes(StandardCharsets.UTF_8);
+    
+    // cut inside the severity
+    LogEntry.fromUtf8(utf8, 0, 42);
+    
+  }
 
 }
@@ -0,0 +1,270 @@
+package samples.logutils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Set;
+
+import samples.logutils.LogEntry.Severity;
+
+/**
+ * Selects the log lines a sort keeps: a set of severities, a time range
+ * and optionally an exact host or class. Set as
+ * {@link SortOptions#setFilter(LogFilter)}, it is applied as lines are
+ * parsed, so rejected lines are never buffered, sorted, spilled or merged,
+ * and a selective job costs little more than one read of the input.
+ *
+ * Severity and time are checked against the packed sort key, which the
+ * memory mapped path decodes from the ASCII header alone, so a rejected
+ * line is never copied. Host and class are compared in place, as bytes
+ * for byte backed lines. Setters return this instance, as for
+ * {@link SortOptions}; an unset criterion accepts everything.
+ */
+public class LogFilter {
+
+  // [timestamp] [host] [severity] [class] [message]
+  private static final int HOST_GROUP = 1;
+  private static final int CLASS_GROUP = 3;
+
+  private int severityMask_ = (1 << Severity.values().length) - 1;
+  private long fromMillis_ = Long.MIN_VALUE;
+  private long toMillis_ = Long.MAX_VALUE;
+  private String host_;
+  private byte[] hostUtf8_;
+  private String className_;
+  private byte[] classNameUtf8_;
+
+  /**
+   * @return the accepted severities
+   */
+  public Set<Severity> getSeverities() {
+
+    final Set<Severity> severities = EnumSet.noneOf(Severity.class);
+    for (final Severity severity : Severity.values()) {
+      if ((severityMask_ & (1 << severity.ordinal())) != 0) {
+        severities.add(severity);
+      }
+    }
+    return severities;
+
+  }
+
+  /**
+   * @param severities the severities to keep, e.g. ERROR and WARN
+   * @return this filter
+   */
+  public LogFilter setSeverities(final Set<Severity> severities) {
+
+    if (severities.isEmpty())
+      throw new IllegalArgumentException("At least one severity must be accepted.");
+
+    severityMask_ = 0;
+    for (final Severity severity : severities) {
+      severityMask_ |= 1 << severity.ordinal();
+    }
+    return this;
+
+  }
+
+  /**
+   * @param first a severity to keep
+   * @param rest further severities to keep
+   * @return this filter
+   */
+  public LogFilter setSeverities(final Severity first, final Severity... rest) {
+
+    return setSeverities(EnumSet.of(first, rest));
+
+  }
+
+  /**
+   * @return the first accepted time in epoch milliseconds
+   */
+  public long getFromMillis() {
+    return fromMillis_;
+  }
+
+  /**
+   * @return the first time no longer accepted, in epoch milliseconds
+   */
+  public long getToMillis() {
+    return toMillis_;
+  }
+
+  /**
+   * Keep lines with timestamps in [from, to).
+   *
+   * @param fromMillis the first time included, in epoch milliseconds
+   * @param toMillis the first time excluded, in epoch milliseconds
+   * @return this filter
+   */
+  public LogFilter setTimeRange(final long fromMillis, final long toMillis) {
+
+    if (toMillis < fromMillis)
+      throw new IllegalArgumentException("Range end must not be before its start.");
+
+    fromMillis_ = fromMillis;
+    toMillis_ = toMillis;
+    return this;
+
+  }
+
+  /**
+   * @return the host to keep, or null for any
+   */
+  public String getHost() {
+    return host_;
+  }
+
+  /**
+   * @param host the exact host to keep, or null for any
+   * @return this filter
+   */
+  public LogFilter setHost(final String host) {
+
+    host_ = host;
+    hostUtf8_ = host == null ? null : host.getBytes(StandardCharsets.UTF_8);
+    return this;
+
+  }
+
+  /**
+   * @return the class to keep, or null for any
+   */
+  public String getClassName() {
+    return className_;
+  }
+
+  /**
+   * @param className the exact class to keep, or null for any
+   * @return this filter
+   */
+  public LogFilter setClassName(final String className) {
+
+    className_ = className;
+    classNameUtf8_ = className == null ? null : className.getBytes(StandardCharsets.UTF_8);
+    return this;
+
+  }
+
+  /**
+   * @param entry a parsed entry
+   * @return true if the entry is kept
+   */
+  public boolean accepts(final LogEntry entry) {
+
+    if (!acceptsKey(entry.getSortKey())) {
+      return false;
+    }
+
+    if (host_ == null && className_ == null) {
+      return true;
+    }
+
+    if (entry.isUtf8()) {
+      final int start = entry.getUtf8Offset();
+      return acceptsFields(ByteBuffer.wrap(entry.getUtf8Array()),
+                           start, start + entry.getUtf8Length());
+    }
+
+    final String line = entry.getLogLine();
+    return (host_ == null || groupEquals(line, HOST_GROUP, host_))
+        && (className_ == null || groupEquals(line, CLASS_GROUP, className_));
+
+  }
+
+  /**
+   * @param key a packed sort key, see {@link LogEntry#getSortKey()}
+   * @return true if the severity and time of the key are kept
+   */
+  boolean acceptsKey(final long key) {
+
+    final long timestamp = LogEntryParser.timestampOf(key);
+
+    return (severityMask_ & (1 << (int) (key & 3))) != 0
+        && timestamp >= fromMillis_ && timestamp < toMillis_;
+
+  }
+
+  /**
+   * Match the host and class of a raw line held as bytes.
+   *
+   * @param bytes the buffer holding the line, read with absolute gets
+   * @param start the index of the first byte of the line
+   * @param end the index after the last byte of the line
+   * @return true if the host and class are kept
+   */
+  boolean acceptsFields(final ByteBuffer bytes, final int start, final int end) {
+
+    return (hostUtf8_ == null || groupEquals(bytes, start, end, HOST_GROUP, hostUtf8_))
+        && (classNameUtf8_ == null || groupEquals(bytes, start, end, CLASS_GROUP, classNameUtf8_));
+
+  }
+
+  /**
+   * @return true if the text inside bracket group n (from 0) of the line
+   *         is the expected text
+   */
+  private static boolean groupEquals(final String line, final int n, final String expected) {
+
+    int close = -1;
+    int open = -1;
+
+    for (int group = 0; group <= n; group++) {
+
+      open = line.indexOf('[', close + 1);
+      if (open < 0) {
+        return false;
+      }
+      close = line.indexOf(']', open + 1);
+      if (close < 0) {
+        return false;
+      }
+
+    }
+
+    return close - open - 1 == expected.length()
+        && line.regionMatches(open + 1, expected, 0, expected.length());
+
+  }
+
+  /**
+   * Byte oriented twin of {@link #groupEquals(String, int, String)}.
+   */
+  private static boolean groupEquals(final ByteBuffer bytes,
+                                     final int start,
+                                     final int end,
+                                     final int n,
+                                     final byte[] expected) {
+
+    int close = start - 1;
+    int open = -1;
+
+    for (int group = 0; group <= n; group++) {
+
+      open = LogEntryParser.indexOf(bytes, '[', close + 1, end);
+      if (open < 0) {
+        return false;
+      }
+      close = LogEntryParser.indexOf(bytes, ']', open + 1, end);
+      if (close < 0) {
+        return false;
+      }
+
+    }
+
+    if (close - open - 1 != expected.length) {
+      return false;
+    }
+
+    for (int i = 0; i < expected.length; i++) {
+      if (bytes.get(open + 1 + i) != expected[i]) {
+        return false;
+      }
+    }
+
+    return true;
+
+  }
+
+}
@@ -0,0 +1,85 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import samples.logutils.LogEntry.Severity;
+
+public class LogFilterTest {
+
+  private static final String LINE =
+      "[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 [nested] random]";
+
+  @Test
+  public void testSeverities() {
+
+    final LogFilter filter = new LogFilter().setSeverities(Severity.ERROR, Severity.WARN);
+
+    assertThat(filter.accepts(LogEntry.fromString(LINE)), equalTo(true));
+    assertThat(filter.accepts(LogEntry.fromString(LINE.replace("ERROR", "INFO"))), equalTo(false));
+    assertThat(filter.getSeverities(), equalTo(EnumSet.of(Severity.ERROR, Severity.WARN)));
+
+  }
+
+  @Test
+  public void testTimeRange() {
+
+    final long time = LogEntry.fromString(LINE).getTimestampMillis();
+
+    assertThat(new LogFilter().setTimeRange(time, time + 1)
+        .accepts(LogEntry.fromString(LINE)), equalTo(true));
+    assertThat(new LogFilter().setTimeRange(time - 10, time)
+        .accepts(LogEntry.fromString(LINE)), equalTo(false));
+    assertThat(new LogFilter().setTimeRange(time + 1, time + 10)
+        .accepts(LogEntry.fromString(LINE)), equalTo(false));
+
+  }
+
+  @Test
+  public void testHostAndClass() {
+
+    final byte[] utf8 = ("xx" + LINE + "yy").getBytes(StandardCharsets.UTF_8);
+    final LogEntry[] entries = {
+        LogEntry.fromString(LINE),
+        LogEntry.fromUtf8(utf8, 2, utf8.length - 4),
+    };
+
+    for (final LogEntry entry : entries) {
+
+      assertThat(new LogFilter().setHost("HOST2").accepts(entry), equalTo(true));
+      assertThat(new LogFilter().setHost("HOST").accepts(entry), equalTo(false));
+      assertThat(new LogFilter().setHost("HOST22").accepts(entry), equalTo(false));
+      assertThat(new LogFilter().setClassName("CLASS2").accepts(entry), equalTo(true));
+      assertThat(new LogFilter().setClassName("ERROR").accepts(entry), equalTo(false));
+      assertThat(new LogFilter().setHost("HOST2").setClassName("CLASS1").accepts(entry),
+                 equalTo(false));
+
+    }
+
+  }
+
+  @Test
+  public void testAcceptsKey() {
+
+    final LogEntry entry = LogEntry.fromString(LINE);
+    final LogFilter filter = new LogFilter().setSeverities(Severity.WARN);
+
+    assertThat(filter.acceptsKey(entry.getSortKey()), equalTo(false));
+    assertThat(filter.acceptsKey(LogEntry.sortKey(entry.getTimestampMillis(), Severity.WARN)),
+               equalTo(true));
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoSeverities() {
+
+    new LogFilter().setSeverities(EnumSet.noneOf(Severity.class));
+
+  }
+
+}
@@ -0,0 +1,128 @@
+package samples.logutils;
+
+/**
+ * A tournament (loser) tree for k-way merging. The tree only ever stores
+ * run indices; the heads of the runs live with the caller and are compared
+ * through a {@link RunComparator}. After the caller advances the winning
+ * run, {@link #replay()} walks a single leaf-to-root path, so each merged
+ * record costs about log2(k) comparisons and no allocation.
+ *
+ * Ties are broken by run index, lower index first, which makes the merge
+ * stable when runs are numbered in input order. Exhausted runs compare
+ * greater than every live run.
+ */
+public class LoserTree {
+
+  /**
+   * Compares the current heads of two runs.
+   */
+  public interface RunComparator {
+
+    /**
+     * @return true once the run has no more records
+     */
+    boolean isExhausted(int run);
+
+    /**
+     * Compare the current heads of two live runs.
+     * @return negative, zero or positive as for {@link Comparable}
+     */
+    int compare(int run1, int run2);
+
+  }
+
+  private final RunComparator comparator_;
+  private final int size_;
+
+  // losers_[0] holds the overall winner, losers_[1..size-1] hold the loser
+  // of the match played at that internal node. Leaf i sits at size + i.
+  private final int[] losers_;
+
+  /**
+   * Build the tree, playing the initial tournament over the current heads.
+   *
+   * @param size the number of runs, at least 1
+   * @param comparator compares run heads
+   */
+  public LoserTree(final int size, final RunComparator comparator) {
+
+    if (size < 1)
+      throw new IllegalArgumentException("Tree size must be positive.");
+
+    size_ = size;
+    comparator_ = comparator;
+    losers_ = new int[size];
+
+    final int[] winners = new int[size * 2];
+    for (int i = 0; i < size; i++) {
+      winners[size + i] = i;
+    }
+
+    for (int node = size - 1; node > 0; node--) {
+
+      final int left = winners[node * 2];
+      final int right = winners[node * 2 + 1];
+
+      if (beats(left, right)) {
+        winners[node] = left;
+        losers_[node] = right;
+      } else {
+        winners[node] = right;
+        losers_[node] = left;
+      }
+
+    }
+
+    losers_[0] = size == 1 ? 0 : winners[1];
+
+  }
+
+  /**
+   * @return the index of the run holding the smallest head. The run may be
+   *         exhausted, in which case every run is exhausted.
+   */
+  public int winner() {
+    return losers_[0];
+  }
+
+  /**
+   * Re-run the matches on the path of the previous winner. Call this after
+   * the winning run has advanced to its next record (or been exhausted).
+   */
+  public void replay() {
+
+    int winner = losers_[0];
+
+    for (int node = (winner + size_) >> 1; node > 0; node >>= 1) {
+
+      final int challenger = losers_[node];
+
+      if (beats(challenger, winner)) {
+        losers_[node] = winner;
+        winner = challenger;
+      }
+
+    }
+
+    losers_[0] = winner;
+
+  }
+
+  /**
+   * @return true if run1 should be emitted before run2
+   */
+  private boolean beats(final int run1, final int run2) {
+
+    final boolean exhausted1 = comparator_.isExhausted(run1);
+    final boolean exhausted2 = comparator_.isExhausted(run2);
+
+    if (exhausted1 || exhausted2) {
+      return exhausted2 && (!exhausted1 || run1 < run2);
+    }
+
+    final int compare = comparator_.compare(run1, run2);
+    return compare < 0 || (compare == 0 && run1 < run2);
+
+  }
+
+}
@@ -0,0 +1,93 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LoserTreeTest {
+
+  @Test
+  public void testRandomMerge() {
+    
+    final Random random = new Random(7);
+    
+    for (int k = 1; k <= 33; k++) {
+      
+      final int[][] runs = new int[k][];
+      final List<Integer> expected = new ArrayList<>();
+      
+      for (int run = 0; run < k; run++) {
+        runs[run] = new int[random.nextInt(20)];
+        for (int i = 0; i < runs[run].length; i++) {
+          runs[run][i] = random.nextInt(50);
+          expected.add(runs[run][i]);
+        }
+        Arrays.sort(runs[run]);
+      }
+      
+      final List<Integer> merged = merge(runs, new ArrayList<int[]>());
+      expected.sort(null);
+      assertThat(merged, equalTo(expected));
+      
+    }
+    
+  }
+  
+  @Test
+  public void testStableTies() {
+    
+    final int[][] runs = new int[][]{{1, 2, 2}, {}, {2, 2}, {0, 2}};
+    final List<int[]> order = new ArrayList<>();
+    merge(runs, order);
+    
+    final List<String> actual = new ArrayList<>();
+    for (final int[] position : order) {
+      actual.add(position[0] + ":" + position[1]);
+    }
+    
+    // equal values come out in run order, then position order
+    assertThat(actual, equalTo(Arrays.asList(
+        "3:0", "0:0", "0:1", "0:2", "2:0", "2:1", "3:1")));
+    
+  }
+  
+  /**
+   * Merge sorted int arrays, recording the (run, position) of each output.
+   */
+  private static List<Integer> merge(final int[][] runs, final List<int[]> order) {
+    
+    final int[] positions = new int[runs.length];
+    
+    final LoserTree tree = new LoserTree(runs.length, new LoserTree.RunComparator() {
+      
+      @Override
+      public boolean isExhausted(final int run) {
+        return positions[run] == runs[run].length;
+      }
+      
+      @Override
+      public int compare(final int run1, final int run2) {
+        return Integer.compare(runs[run1][positions[run1]], runs[run2][positions[run2]]);
+      }
+      
+    });
+    
+    final List<Integer> merged = new ArrayList<>();
+    
+    for (int run = tree.winner(); positions[run] < runs[run].length; run = tree.winner()) {
+      order.add(new int[]{run, positions[run]});
+      merged.add(runs[run][positions[run]++]);
+      tree.replay();
+    }
+    
+    return merged;
+    
+  }
+
+}
@@ -0,0 +1,58 @@
+package samples.logutils;
+
+/**
+ * Statistics gathered while merging sorted temporary files. Intended to
+ * help tune the merge fan-in and read buffer sizes. 
+ */
+public class MergeStats {
+
+  // volatile, as a sort's statistics may be read while it runs
+  private volatile int passes_;
+  private volatile int intermediateFiles_;
+  private volatile long bytesRead_;
+  private volatile long bytesWritten_;
+  
+  /**
+   * @return the number of merge passes, including the final streaming pass
+   */
+  public int getPasses() {
+    return passes_;
+  }
+  
+  /**
+   * @return the number of intermediate files written by earlier passes 
+   */
+  public int getIntermediateFiles() {
+    return intermediateFiles_;
+  }
+  
+  /**
+   * @return the bytes of sorted files read across all passes 
+   */
+  public long getBytesRead() {
+    return bytesRead_;
+  }
+  
+  /**
+   * @return the bytes of intermediate files written by earlier passes 
+   */
+  public long getBytesWritten() {
+    return bytesWritten_;
+  }
+  
+  void addPass(final long bytesRead, final long bytesWritten, final int filesWritten) {
+    
+    passes_++;
+    intermediateFiles_ += filesWritten;
+    bytesRead_ += bytesRead;
+    bytesWritten_ += bytesWritten;
+    
+  }
+  
+  @Override
+  public String toString() {
+    return "MergeStats [passes=" + passes_ + ", intermediateFiles=" + intermediateFiles_ 
+        + ", bytesRead=" + bytesRead_ + ", bytesWritten=" + bytesWritten_ + "]";
+  }
+  
+}
@@ -0,0 +1,231 @@
+package samples.logutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merges an arbitrary number of sorted files while keeping at most a fixed
+ * number of them open at once. When there are more files than the fan-in
+ * allows, groups of adjacent files are merged into intermediate files over
+ * as many passes as needed, and the final pass is streamed to the caller
+ * through a {@link SortedLogReader}. 
+ * 
+ * Each intermediate pass only merges as many groups as are required to
+ * bring the file count down to what the next pass can handle, so data is
+ * re-written as few times as possible. Adjacent files are always merged
+ * together, which keeps the overall merge stable. 
+ */
+public class MultiPassMerger {
+
+  private final int maxFanIn_;
+  private final RunFormat format_;
+  private final SpillCodec codec_;
+  private final SortOptions options_;
+  private final SortListener listener_;
+  private final MergeStats stats_ = new MergeStats();
+  
+  /**
+   * @param maxFanIn the maximum number of files open at once, at least 2
+   * @param readerBufferSize the read buffer size per open file in bytes
+   */
+  public MultiPassMerger(final int maxFanIn, final int readerBufferSize) {
+    
+    this(new SortOptions()
+        .setMaxMergeFanIn(maxFanIn)
+        .setMergeBufferSize(readerBufferSize)
+        .setRunFormat(RunFormat.TEXT));
+    
+  }
+  
+  /**
+   * Create a merger using the fan-in, buffer size, file format, codec,
+   * read-ahead and listener settings of the sort options. 
+   * 
+   * @param options the sort options 
+   */
+  public MultiPassMerger(final SortOptions options) {
+    
+    maxFanIn_ = options.getMaxMergeFanIn();
+    format_ = options.getRunFormat();
+    codec_ = options.getSpillCodec();
+    options_ = options;
+    listener_ = options.getListener();
+    
+  }
+  
+  /**
+   * Run any intermediate passes and open a reader over the remaining files.
+   * The given files, and any intermediate files, are deleted once merged
+   * into a later file. 
+   * 
+   * @param files the sorted files, in run order
+   * @return a reader over the final pass 
+   * @throws IOException on disk IO errors 
+   */
+  public SortedLogReader merge(final Set<File> files) throws IOException {
+    
+    return new SortedLogReader(new LinkedHashSet<>(intermediatePasses(files)), options_);
+    
+  }
+  
+  /**
+   * Run any intermediate passes and return a lazy iterator over the final
+   * pass. The given files, and any intermediate files, are deleted once 
+   * merged, or when the iterator is closed. 
+   * 
+   * @param files the sorted files, in run order
+   * @return an iterator over the sorted entries 
+   * @throws IOException on disk IO errors 
+   */
+  public SortedLogIterator iterate(final Set<File> files) throws IOException {
+    
+    final List<File> remaining = intermediatePasses(files);
+    
+    return new SortedLogIterator(
+        new SortedLogReader(new LinkedHashSet<>(remaining), options_), remaining);
+    
+  }
+  
+  /**
+   * @return statistics for the passes run so far 
+   */
+  public MergeStats getStats() {
+    return stats_;
+  }
+  
+  /**
+   * Run any intermediate passes, see {@link #merge(Set)}. The files left
+   * for the final pass are the caller's to delete once merged, see 
+   * {@link #deleteMerged(List)}. 
+   * 
+   * @param files the sorted files, in run order
+   * @return the files left for the final pass 
+   * @throws IOException on disk IO errors 
+   */
+  public List<File> intermediatePasses(final Set<File> files) throws IOException {
+    
+    List<File> current = new ArrayList<>(files);
+    
+    while (current.size() > maxFanIn_) {
+      current = mergePass(current);
+    }
+    
+    final long bytesRead = totalLength(current);
+    stats_.addPass(bytesRead, 0, 0);
+    listener_.mergePassFinished(current.size(), bytesRead, 0, 0);
+    
+    return current;
+    
+  }
+  
+  private List<File> mergePass(final List<File> files) throws IOException {
+    
+    // each merged group of n files removes n - 1 files; merge just enough 
+    // groups that the next pass can take everything that remains 
+    final int excess = files.size() - maxFanIn_;
+    final int groups = (excess + maxFanIn_ - 2) / (maxFanIn_ - 1);
+    
+    final List<File> next = new ArrayList<>();
+    long bytesRead = 0;
+    long bytesWritten = 0;
+    int filesWritten = 0;
+    int fanIn = 0;
+    int index = 0;
+    
+    for (int group = 0; group < groups && index < files.size(); group++) {
+      
+      final int end = Math.min(files.size(), index + maxFanIn_);
+      
+      if (end - index < 2) {
+        break; // a single file would only be copied 
+      }
+      
+      final List<File> members = files.subList(index, end);
+      final long groupBytes = totalLength(members);
+      
+      bytesRead += groupBytes;
+      fanIn = Math.max(fanIn, members.size());
+      
+      final File merged = mergeGroup(members);
+      bytesWritten += merged.length();
+      filesWritten++;
+      next.add(merged);
+      listener_.tempSpaceChanged(merged.length());
+      
+      for (final File file : members) {
+        file.delete();
+      }
+      listener_.tempSpaceChanged(-groupBytes);
+      
+      index = end;
+      
+    }
+    
+    next.addAll(files.subList(index, files.size()));
+    
+    stats_.addPass(bytesRead, bytesWritten, filesWritten);
+    listener_.mergePassFinished(fanIn, bytesRead, bytesWritten, filesWritten);
+    
+    return next;
+    
+  }
+  
+  private File mergeGroup(final List<File> members) throws IOException {
+    
+    final File tempFile = File.createTempFile("temp-merge-file-", format_.getSuffix());
+    tempFile.deleteOnExit();
+    
+    final SortedLogReader reader = new SortedLogReader(new LinkedHashSet<>(members), options_);
+    
+    final RunWriter writer = 
+        format_.openWriter(tempFile, RollingSortedLogWriter.WRITE_BUFFER_SIZE, codec_);
+    
+    try {
+      
+      while (reader.hasNext()) {
+        reader.copyNextEntry(writer);
+      }
+      
+    } finally {
+      
+      writer.close();
+      reader.closeAll();
+      
+    }
+    
+    return tempFile;
+    
+  }
+  
+  /**
+   * Delete the files of a final pass once merged, reporting the space 
+   * freed to the listener. 
+   * 
+   * @param files the files returned by {@link #intermediatePasses(Set)}
+   */
+  public void deleteMerged(final List<File> files) {
+    
+    final long bytes = totalLength(files);
+    
+    for (final File file : files) {
+      file.delete();
+    }
+    listener_.tempSpaceChanged(-bytes);
+    
+  }
+  
+  private static long totalLength(final List<File> files) {
+    
+    long total = 0;
+    for (final File file : files) {
+      total += file.length();
+    }
+    return total;
+    
+  }
+  
+}
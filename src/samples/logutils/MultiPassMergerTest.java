@@ -0,0 +1,171 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class MultiPassMergerTest {
+
+  @Test
+  public void testMatchesSinglePass() throws IOException {
+    
+    final String input = ParallelRunGeneratorTest.randomLog(2000);
+    
+    final List<String> singlePass = 
+        readAll(new MultiPassMerger(100, 1024).merge(writeRuns(input)));
+    
+    final MultiPassMerger merger = new MultiPassMerger(3, 1024);
+    final List<String> multiPass = readAll(merger.merge(writeRuns(input)));
+    
+    assertThat(multiPass.size(), equalTo(2000));
+    assertThat(multiPass, equalTo(singlePass));
+    
+    // 20 files at fan-in 3: 20 -> 7 -> 3 files, then the final pass 
+    assertThat(merger.getStats().getPasses(), equalTo(3));
+    assertThat(merger.getStats().getIntermediateFiles(), equalTo(9));
+    assertThat(merger.getStats().getBytesWritten(), greaterThan(0L));
+    
+  }
+  
+  @Test
+  public void testNoIntermediatePass() throws IOException {
+    
+    final MultiPassMerger merger = new MultiPassMerger(20, 1024);
+    readAll(merger.merge(writeRuns(ParallelRunGeneratorTest.randomLog(2000))));
+    
+    assertThat(merger.getStats().getPasses(), equalTo(1));
+    assertThat(merger.getStats().getIntermediateFiles(), equalTo(0));
+    assertThat(merger.getStats().getBytesWritten(), equalTo(0L));
+    
+  }
+  
+  @Test
+  public void testBinaryFormat() throws IOException {
+    
+    final String input = ParallelRunGeneratorTest.randomLog(2000);
+    
+    final List<String> text = 
+        readAll(new MultiPassMerger(3, 1024).merge(writeRuns(input)));
+    final SortOptions options = new SortOptions()
+        .setMaxMergeFanIn(3)
+        .setMergeBufferSize(1024)
+        .setRunFormat(RunFormat.BINARY);
+    final List<String> binary = 
+        readAll(new MultiPassMerger(options).merge(writeRuns(input, RunFormat.BINARY)));
+    
+    assertThat(binary, equalTo(text));
+    
+  }
+  
+  @Test
+  public void testReadAhead() throws IOException {
+    
+    final String input = ParallelRunGeneratorTest.randomLog(2000);
+    
+    final List<String> plain = 
+        readAll(new MultiPassMerger(3, 1024).merge(writeRuns(input)));
+    
+    // 20 runs of about 8 KB read through 1 KB blocks, first pass fan-in 3
+    final SortOptions options = new SortOptions()
+        .setMaxMergeFanIn(3)
+        .setMergeBufferSize(256)
+        .setRunFormat(RunFormat.TEXT)
+        .setReadAheadBudget(6 * 1024)
+        .setReadAheadBlockSize(1024);
+    final List<String> readAhead = 
+        readAll(new MultiPassMerger(options).merge(writeRuns(input)));
+    
+    assertThat(SortedLogReader.readAheadBlockSize(options, 3), equalTo(1024));
+    assertThat(SortedLogReader.readAheadBlockSize(options, 12), equalTo(0));
+    assertThat(readAhead, equalTo(plain));
+    
+  }
+  
+  @Test
+  public void testIterate() throws IOException {
+    
+    final String input = ParallelRunGeneratorTest.randomLog(2000);
+    
+    final List<String> expected = 
+        readAll(new MultiPassMerger(3, 1024).merge(writeRuns(input)));
+    
+    final Set<File> runs = writeRuns(input);
+    final SortedLogIterator iterator = new MultiPassMerger(3, 1024).iterate(runs);
+    final List<String> actual = new ArrayList<>();
+    while (iterator.hasNext()) {
+      actual.add(iterator.next().getLogLine());
+    }
+    
+    assertThat(actual, equalTo(expected));
+    
+    // exhausting the iterator deletes every run 
+    for (final File run : runs) {
+      assertThat(run.exists(), equalTo(false));
+    }
+    
+  }
+  
+  @Test
+  public void testIterateEarlyClose() throws IOException {
+    
+    final Set<File> runs = writeRuns(ParallelRunGeneratorTest.randomLog(2000));
+    final SortedLogIterator iterator = new MultiPassMerger(100, 1024).iterate(runs);
+    
+    try {
+      assertThat(iterator.stream().limit(10).count(), equalTo(10L));
+    } finally {
+      iterator.close();
+    }
+    
+    assertThat(iterator.hasNext(), equalTo(false));
+    for (final File run : runs) {
+      assertThat(run.exists(), equalTo(false));
+    }
+    
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testFanIn() {
+    new MultiPassMerger(1, 1024);
+  }
+  
+  private static Set<File> writeRuns(final String input) throws IOException {
+    
+    return writeRuns(input, RunFormat.TEXT);
+    
+  }
+  
+  private static Set<File> writeRuns(final String input, final RunFormat format) throws IOException {
+    
+    final RollingSortedLogWriter rslw = RollingSortedLogWriter.create(
+        new SortOptions().setRunLineCount(100).setRunFormat(format), null);
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      rslw.addLogEntry(LogEntry.fromString(line));
+    }
+    rslw.close();
+    return rslw.getFiles();
+    
+  }
+  
+  private static List<String> readAll(final SortedLogReader reader) throws IOException {
+    
+    final List<String> lines = new ArrayList<>();
+    while (reader.hasNext()) {
+      lines.add(reader.getNextEntry().getLogLine());
+    }
+    return lines;
+    
+  }
+
+}
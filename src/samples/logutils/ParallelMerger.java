@@ -0,0 +1,398 @@
+package samples.logutils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Range partitioned merge of sorted files into an output file. The key
+ * space is cut at splitter keys into one range per merge thread, and each
+ * thread merges its range across all runs with its own
+ * {@link SortedLogReader}, so the merge scales past the comparison rate of
+ * a single thread.
+ *
+ * Splitters are quantiles of the {@link RunIndex} checkpoint keys, which
+ * are sampled at even byte intervals while the runs are written, and each
+ * thread seeks every run to the checkpoint just before its range. The
+ * first range is written straight to the output file and every other range
+ * to a segment file that is then appended to it. Equal keys always fall
+ * in the same range, so the output is identical to that of a single
+ * merge.
+ *
+ * Runs without checkpoints (text or compressed runs) cannot be seeked and
+ * are merged as a single range. With a time index interval set, each range
+ * indexes its own lines and the indexes are joined at the segment offsets.
+ * Any intermediate passes needed to respect the merge fan-in run first, as
+ * in {@link MultiPassMerger}; each thread then keeps every remaining run
+ * open.
+ */
+public class ParallelMerger {
+
+  private final SortOptions options_;
+  private final int threadCount_;
+  private final MultiPassMerger merger_;
+  private TimeIndex timeIndex_;
+
+  /**
+   * @param options the merge thread count, fan-in, buffer size, file format
+   *        and codec
+   */
+  public ParallelMerger(final SortOptions options) {
+
+    options_ = options;
+    threadCount_ = options.getMergeThreadCount();
+    merger_ = new MultiPassMerger(options);
+
+  }
+
+  /**
+   * Merge the files into the output, one raw log line per line. The
+   * files, and any intermediate files, are deleted once merged.
+   *
+   * @param files the sorted files, in run order
+   * @param output the file to write, replaced if it exists
+   * @throws IOException on disk IO errors
+   */
+  public void merge(final Set<File> files, final File output) throws IOException {
+
+    final List<File> runs = merger_.intermediatePasses(files);
+    final RunIndex[] indexes = readIndexes(runs);
+    final long[] splitters = indexes == null ? new long[0] : splitters(indexes, threadCount_);
+
+    final int ranges = splitters.length + 1;
+    final File[] segments = new File[ranges];
+    segments[0] = output;
+
+    try {
+
+      for (int range = 1; range < ranges; range++) {
+        segments[range] = File.createTempFile("temp-merge-segment-", ".txt");
+        segments[range].deleteOnExit();
+      }
+
+      if (ranges == 1) {
+
+        timeIndex_ = mergeRange(runs, null, Long.MIN_VALUE, Long.MAX_VALUE, output);
+
+      } else {
+
+        timeIndex_ = joinIndexes(mergeRanges(runs, indexes, splitters, segments), segments);
+        append(output, Arrays.asList(segments).subList(1, ranges));
+
+      }
+
+    } finally {
+
+      for (int range = 1; range < ranges; range++) {
+        if (segments[range] != null) {
+          segments[range].delete();
+        }
+      }
+      merger_.deleteMerged(runs);
+
+    }
+
+  }
+
+  /**
+   * @return statistics for the passes run so far
+   */
+  public MergeStats getStats() {
+    return merger_.getStats();
+  }
+
+  /**
+   * @return the time index of the last output, or null unless
+   *         {@link SortOptions#getTimeIndexInterval()} is set
+   */
+  public TimeIndex getTimeIndex() {
+    return timeIndex_;
+  }
+
+  /**
+   * Pick up to count - 1 distinct splitter keys at even quantiles of the
+   * checkpoint keys of all runs.
+   */
+  static long[] splitters(final RunIndex[] indexes, final int count) {
+
+    int total = 0;
+    for (final RunIndex index : indexes) {
+      total += index.size();
+    }
+
+    final long[] keys = new long[total];
+    int position = 0;
+    for (final RunIndex index : indexes) {
+      for (int i = 0; i < index.size(); i++) {
+        keys[position++] = index.key(i);
+      }
+    }
+    Arrays.sort(keys);
+
+    final long[] splitters = new long[Math.max(0, count - 1)];
+    int found = 0;
+
+    for (int i = 1; i < count && total > 0; i++) {
+
+      final long key = keys[(int) ((long) i * total / count)];
+
+      // a splitter at or below the previous one would give an empty range
+      if (key > keys[0] && (found == 0 || key > splitters[found - 1])) {
+        splitters[found++] = key;
+      }
+
+    }
+
+    return Arrays.copyOf(splitters, found);
+
+  }
+
+  /**
+   * @return the index of every run, or null unless all runs have one
+   */
+  private RunIndex[] readIndexes(final List<File> runs) throws IOException {
+
+    if (threadCount_ < 2 || options_.getRunFormat() != RunFormat.BINARY
+        || options_.getSpillCodec() != SpillCodec.NONE) {
+      return null;
+    }
+
+    final RunIndex[] indexes = new RunIndex[runs.size()];
+
+    for (int run = 0; run < indexes.length; run++) {
+
+      indexes[run] = RunIndex.read(runs.get(run));
+
+      if (indexes[run] == null) {
+        return null;
+      }
+
+    }
+
+    return indexes;
+
+  }
+
+  /**
+   * @return the time index of each range, or null if not indexing
+   */
+  private TimeIndex[] mergeRanges(final List<File> runs,
+                                  final RunIndex[] indexes,
+                                  final long[] splitters,
+                                  final File[] segments) throws IOException {
+
+    final ExecutorService workers = Executors.newFixedThreadPool(
+        segments.length, new DaemonThreadFactory("log-merge-worker-"));
+
+    try {
+
+      final List<Future<TimeIndex>> futures = new ArrayList<>();
+
+      for (int range = 0; range < segments.length; range++) {
+
+        final long lo = range == 0 ? Long.MIN_VALUE : splitters[range - 1];
+        final long hi = range == splitters.length ? Long.MAX_VALUE : splitters[range];
+        final File segment = segments[range];
+
+        futures.add(workers.submit(new Callable<TimeIndex>() {
+
+          @Override
+          public TimeIndex call() throws IOException {
+            return mergeRange(runs, indexes, lo, hi, segment);
+          }
+
+        }));
+
+      }
+
+      final TimeIndex[] timeIndexes = new TimeIndex[segments.length];
+      for (int range = 0; range < segments.length; range++) {
+        timeIndexes[range] = await(futures.get(range));
+      }
+
+      return options_.getTimeIndexInterval() > 0 ? timeIndexes : null;
+
+    } finally {
+
+      workers.shutdownNow();
+
+    }
+
+  }
+
+  /**
+   * Merge the records with keys in [lo, hi) of every run into a file. The
+   * last range passes a hi of Long.MAX_VALUE, which is unbounded.
+   *
+   * @param indexes the run indexes to seek with, or null to read each run
+   *        from its start
+   * @return the time index of the file, or null if not indexing
+   */
+  private TimeIndex mergeRange(final List<File> runs,
+                               final RunIndex[] indexes,
+                               final long lo,
+                               final long hi,
+                               final File file) throws IOException {
+
+    final RunCursor[] cursors = new RunCursor[runs.size()];
+
+    try {
+
+      for (int run = 0; run < cursors.length; run++) {
+
+        final FileInputStream in = new FileInputStream(runs.get(run));
+
+        try {
+          if (indexes != null) {
+            in.getChannel().position(indexes[run].offsetBefore(lo));
+          }
+        } catch (IOException e) {
+          in.close();
+          throw e;
+        }
+
+        cursors[run] = new RangeCursor(
+            options_.getRunFormat().openCursor(in, options_.getMergeBufferSize(),
+                                               options_.getSpillCodec()),
+            lo, hi);
+
+      }
+
+    } catch (IOException | RuntimeException e) {
+
+      for (final RunCursor cursor : cursors) {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+      throw e;
+
+    }
+
+    final SortedLogReader reader = new SortedLogReader(cursors);
+    final FileOutputStream fos = new FileOutputStream(file);
+    final SortedOutputWriter out = new SortedOutputWriter(fos, options_.getTimeIndexInterval());
+
+    try {
+
+      while (reader.hasNext()) {
+        out.write(reader.getNextEntry());
+      }
+      out.flush();
+
+    } finally {
+
+      try {
+        fos.close();
+      } finally {
+        reader.closeAll();
+      }
+
+    }
+
+    return out.getTimeIndex();
+
+  }
+
+  /**
+   * Join the time indexes of the ranges, shifting each by the length of
+   * the segments before it.
+   */
+  private TimeIndex joinIndexes(final TimeIndex[] timeIndexes,
+                                final File[] segments) {
+
+    if (timeIndexes == null) {
+      return null;
+    }
+
+    final TimeIndex joined = new TimeIndex(options_.getTimeIndexInterval());
+    long shift = 0;
+
+    for (int range = 0; range < segments.length; range++) {
+      joined.append(timeIndexes[range], shift);
+      shift += timeIndexes[range].getDataLength();
+    }
+
+    joined.setDataLength(shift);
+
+    return joined;
+
+  }
+
+  /**
+   * Append the segments to the output in order.
+   */
+  private static void append(final File output, final List<File> segments) throws IOException {
+
+    final FileOutputStream out = new FileOutputStream(output, true);
+
+    try {
+
+      final FileChannel target = out.getChannel();
+
+      for (final File segment : segments) {
+
+        final FileInputStream in = new FileInputStream(segment);
+
+        try {
+
+          final FileChannel source = in.getChannel();
+          final long size = source.size();
+
+          for (long position = 0; position < size;) {
+            position += source.transferTo(position, size - position, target);
+          }
+
+        } finally {
+
+          in.close();
+
+        }
+
+      }
+
+    } finally {
+
+      out.close();
+
+    }
+
+  }
+
+  private static TimeIndex await(final Future<TimeIndex> future) throws IOException {
+
+    try {
+
+      return future.get();
+
+    } catch (InterruptedException e) {
+
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a merge range");
+
+    } catch (ExecutionException e) {
+
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException("Unable to merge range", cause);
+
+    }
+
+  }
+
+}
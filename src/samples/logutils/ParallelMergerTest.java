@@ -0,0 +1,124 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ParallelMergerTest {
+
+  @Test
+  public void testMatchesSingleMerge() throws IOException {
+    
+    final String input = ParallelRunGeneratorTest.randomLog(20000);
+    final SortOptions options = new SortOptions().setRunLineCount(5000);
+    
+    final Set<File> runs = writeRuns(input, options);
+    final RunIndex[] indexes = new RunIndex[runs.size()];
+    int run = 0;
+    for (final File file : runs) {
+      indexes[run++] = RunIndex.read(file);
+    }
+    assertThat(ParallelMerger.splitters(indexes, 4).length, equalTo(3));
+    
+    assertThat(merge(input, options.setMergeThreadCount(4)), 
+               equalTo(merge(input, options.setMergeThreadCount(1))));
+    
+  }
+  
+  @Test
+  public void testTies() throws IOException {
+    
+    // a handful of distinct keys, so splitters collapse and every range 
+    // holds long runs of ties 
+    final StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      input.append("[2015-11-19 10:00:0").append(i % 3).append(".000+0000] [HOST")
+           .append(i % 7).append("] [INFO] [CLASS1] [MESSAGE ").append(i).append(']')
+           .append(System.lineSeparator());
+    }
+    
+    final SortOptions options = new SortOptions().setRunLineCount(1000);
+    
+    assertThat(merge(input.toString(), options.setMergeThreadCount(8)), 
+               equalTo(merge(input.toString(), options.setMergeThreadCount(1))));
+    
+  }
+  
+  @Test
+  public void testUnindexedRuns() throws IOException {
+    
+    final String input = ParallelRunGeneratorTest.randomLog(2000);
+    final SortOptions options = new SortOptions()
+        .setRunLineCount(100)
+        .setMaxMergeFanIn(4)
+        .setRunFormat(RunFormat.TEXT);
+    
+    final List<String> merged = merge(input, options.setMergeThreadCount(4));
+    
+    assertThat(merged.size(), equalTo(2000));
+    assertThat(merged, equalTo(merge(input, options.setMergeThreadCount(1))));
+    
+  }
+  
+  @Test
+  public void testSplitters() throws IOException {
+    
+    final RunIndex first = new RunIndex();
+    final RunIndex second = new RunIndex();
+    for (int i = 0; i < 100; i++) {
+      first.add(i * 2, i);
+      second.add(i * 2 + 1, i);
+    }
+    
+    final long[] splitters = ParallelMerger.splitters(new RunIndex[]{first, second}, 4);
+    
+    assertThat(splitters.length, equalTo(3));
+    assertThat(splitters[0], equalTo(50L));
+    assertThat(splitters[2], equalTo(150L));
+    assertThat(ParallelMerger.splitters(new RunIndex[]{new RunIndex()}, 4).length, equalTo(0));
+    
+  }
+  
+  /**
+   * Sort the input into runs and merge them with the given merge thread 
+   * count. 
+   */
+  private static List<String> merge(final String input, 
+                                    final SortOptions options) throws IOException {
+    
+    final File output = File.createTempFile("test-output-", ".txt");
+    output.deleteOnExit();
+    
+    final ParallelMerger merger = new ParallelMerger(options);
+    merger.merge(writeRuns(input, options), output);
+    assertThat(merger.getStats().getPasses(), greaterThan(0));
+    
+    return new ArrayList<>(Files.readAllLines(output.toPath()));
+    
+  }
+  
+  private static Set<File> writeRuns(final String input, 
+                                     final SortOptions options) throws IOException {
+    
+    final RollingSortedLogWriter rslw = RollingSortedLogWriter.create(options, null);
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      rslw.addLogEntry(LogEntry.fromString(line));
+    }
+    rslw.close();
+    return rslw.getFiles();
+    
+  }
+  
+}
@@ -0,0 +1,572 @@
+package samples.logutils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pipelined generation of sorted temporary files. The work that
+ * {@link RollingSortedLogWriter} normally does on a single thread is split
+ * into three overlapping stages:
+ * <ul>
+ * <li>the calling thread reads raw lines into fixed size batches</li>
+ * <li>a pool of workers parses each batch into {@link LogEntry} values</li>
+ * <li>full run buffers are sorted and written on the same pool while the
+ *     next buffer is being filled</li>
+ * </ul>
+ *
+ * Parsed batches are handed to the writer strictly in input order, so the
+ * runs (and therefore the final sorted output) are identical to those of
+ * the single threaded path. With {@link ReplacementSelectionWriter} runs
+ * the last stage stays on the calling thread.
+ *
+ * When given a file rather than a reader, the file is memory mapped in
+ * large windows and the calling thread only cuts each window into newline
+ * aligned chunks; line scanning and header parsing happen on the workers
+ * directly against the mapped bytes. Entries then stay byte backed, see
+ * {@link LogEntry#fromUtf8(byte[], int, int)}, through the runs and the
+ * merge, so no line is decoded to a {@link String} on that path.
+ *
+ * A {@link SortOptions#getFilter()} is applied by the parse workers, so
+ * rejected lines never reach the writer. On the mapped path severity and
+ * time are checked from the header bytes before the line is copied.
+ *
+ * The workers report each batch read, and each line that fails to parse,
+ * to the {@link SortOptions#getListener()}. Lines that fail to parse are
+ * handled by the {@link SortOptions#getBadRecordPolicy()}.
+ *
+ * With a {@link SortOptions#getThreadCount()} of one, lines from a reader
+ * or an iterator are parsed and buffered on the calling thread, with no
+ * pool at all.
+ */
+public class ParallelRunGenerator {
+
+  /** Number of raw lines handed to a parse worker at a time */
+  public static final int BATCH_LINE_COUNT = 4096;
+
+  /** Number of chunks covered by a single memory mapped window */
+  static final int CHUNKS_PER_WINDOW = 16;
+
+  private final SortOptions options_;
+  private final int threadCount_;
+  private final int chunkSize_;
+  private final LogFilter filter_;
+  private final BadRecordPolicy badRecords_;
+  private final SortListener listener_;
+
+  /**
+   * @param options the run sizing, thread count, in-flight buffer count,
+   *        filter, bad record policy and listener
+   */
+  public ParallelRunGenerator(final SortOptions options) {
+
+    options_ = options;
+    threadCount_ = options.getThreadCount();
+    chunkSize_ = options.getMappedChunkSize();
+    filter_ = options.getFilter();
+    badRecords_ = options.getBadRecordPolicy();
+    listener_ = options.getListener();
+
+  }
+
+  /**
+   * Read all lines from the reader and write them to sorted temporary
+   * files. The reader is not closed by this method.
+   *
+   * @param reader the source of raw log lines
+   * @return the sorted temporary files, in creation order
+   * @throws IOException on disk IO errors during reading or writing
+   */
+  public Set<File> generateRuns(final BufferedReader reader) throws IOException {
+
+    return generateRuns(reader::readLine);
+
+  }
+
+  /**
+   * Write all lines of an iterator, e.g. that of a {@link java.util.stream.Stream},
+   * to sorted temporary files.
+   *
+   * @param lines the source of raw log lines, which must not contain null
+   * @return the sorted temporary files, in creation order
+   * @throws IOException on disk IO errors during writing
+   */
+  public Set<File> generateRuns(final Iterator<String> lines) throws IOException {
+
+    return generateRuns(() -> lines.hasNext() ? lines.next() : null);
+
+  }
+
+  private Set<File> generateRuns(final LineSource source) throws IOException {
+
+    if (threadCount_ == 1) {
+      return generateRunsInline(source);
+    }
+
+    final ExecutorService workers =
+        Executors.newFixedThreadPool(threadCount_, new DaemonThreadFactory("log-sort-worker-"));
+
+    try {
+
+      final RunGenerator rslw = RunGenerator.create(options_, workers);
+
+      // keep a couple of batches per worker queued so no worker idles
+      // while the reader waits on the oldest batch
+      final int maxPendingBatches = threadCount_ * 2;
+      final Deque<Future<LogEntry[]>> pending = new ArrayDeque<>();
+
+      for (String[] batch; (batch = readBatch(source)) != null;) {
+
+        final String[] lines = batch;
+        pending.addLast(workers.submit(() -> parseBatch(lines, filter_, badRecords_, listener_)));
+
+        if (pending.size() >= maxPendingBatches) {
+          addAll(rslw, awaitBatch(pending.removeFirst()));
+        }
+
+      }
+
+      while (!pending.isEmpty()) {
+        addAll(rslw, awaitBatch(pending.removeFirst()));
+      }
+
+      rslw.close();
+
+      return rslw.getFiles();
+
+    } finally {
+
+      workers.shutdownNow();
+
+    }
+
+  }
+
+  /**
+   * The single threaded path: parse and buffer each line as it is read.
+   */
+  private Set<File> generateRunsInline(final LineSource source) throws IOException {
+
+    final RunGenerator rslw = RunGenerator.create(options_, null);
+    final CountingLineSource counted = new CountingLineSource(source, listener_);
+
+    try {
+
+      for (String line; (line = counted.readLine()) != null;) {
+
+        final LogEntry entry = parseLine(line, filter_, badRecords_, listener_);
+        if (entry != null) {
+          rslw.addLogEntry(entry);
+        }
+
+      }
+
+    } finally {
+
+      counted.flush();
+
+    }
+
+    rslw.close();
+
+    return rslw.getFiles();
+
+  }
+
+  /**
+   * Memory map the input file and write its lines to sorted temporary
+   * files. The produced runs are identical to those of
+   * {@link #generateRuns(BufferedReader)} for UTF-8 input with
+   * {@code \n} or {@code \r\n} line endings.
+   *
+   * @param input the file of raw log lines
+   * @return the sorted temporary files, in creation order
+   * @throws IOException on disk IO errors during reading or writing
+   */
+  public Set<File> generateRuns(final File input) throws IOException {
+
+    final ExecutorService workers =
+        Executors.newFixedThreadPool(threadCount_, new DaemonThreadFactory("log-sort-worker-"));
+    final FileInputStream in = new FileInputStream(input);
+
+    try {
+
+      final RunGenerator rslw = RunGenerator.create(options_, workers);
+
+      final int maxPendingBatches = threadCount_ * 2;
+      final Deque<Future<LogEntry[]>> pending = new ArrayDeque<>();
+
+      final FileChannel channel = in.getChannel();
+      final long size = channel.size();
+
+      long windowSize = (long) chunkSize_ * CHUNKS_PER_WINDOW;
+      long position = 0;
+
+      while (position < size) {
+
+        final int length = (int) Math.min(Math.min(windowSize, size - position), Integer.MAX_VALUE);
+        final ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+        // a partial trailing line is carried over to the next window
+        int end = length;
+        if (position + length < size) {
+
+          end = lastLineEnd(window, length);
+
+          if (end == 0) {
+
+            if (length == Integer.MAX_VALUE)
+              throw new IOException("Line exceeds the maximum window size at offset " + position);
+
+            // a single line longer than the window
+            windowSize *= 2;
+            continue;
+
+          }
+
+        }
+
+        for (int start = 0; start < end;) {
+
+          final int chunkEnd = chunkEnd(window, start, end);
+          final int chunkStart = start;
+
+          pending.addLast(workers.submit(
+              () -> parseChunk(window, chunkStart, chunkEnd, filter_, badRecords_, listener_)));
+
+          if (pending.size() >= maxPendingBatches) {
+            addAll(rslw, awaitBatch(pending.removeFirst()));
+          }
+
+          start = chunkEnd;
+
+        }
+
+        position += end;
+
+      }
+
+      while (!pending.isEmpty()) {
+        addAll(rslw, awaitBatch(pending.removeFirst()));
+      }
+
+      rslw.close();
+
+      return rslw.getFiles();
+
+    } finally {
+
+      in.close();
+      workers.shutdownNow();
+
+    }
+
+  }
+
+  /**
+   * @return the index after the last newline in the window, or 0 if the
+   *         window holds no complete line
+   */
+  private static int lastLineEnd(final ByteBuffer window, final int length) {
+
+    for (int i = length - 1; i >= 0; i--) {
+      if (window.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+
+    return 0;
+
+  }
+
+  /**
+   * @return the end of the chunk starting at start, extended past the next
+   *         newline once the target chunk size is reached
+   */
+  private int chunkEnd(final ByteBuffer window, final int start, final int end) {
+
+    if (end - start <= chunkSize_) {
+      return end;
+    }
+
+    final int newline = LogEntryParser.indexOf(window, '\n', start + chunkSize_ - 1, end);
+    return newline < 0 ? end : newline + 1;
+
+  }
+
+  /**
+   * Scan and parse the lines of a mapped chunk. Only the header bytes are
+   * inspected to build the sort key, and lines are kept as UTF-8 bytes
+   * without ever being decoded. Lines the filter rejects are never copied.
+   */
+  private static LogEntry[] parseChunk(final ByteBuffer window,
+                                       final int start,
+                                       final int end,
+                                       final LogFilter filter,
+                                       final BadRecordPolicy badRecords,
+                                       final SortListener listener) throws IOException {
+
+    final List<LogEntry> entries = new ArrayList<>();
+    final ByteBuffer bytes = window.duplicate();
+    int lines = 0;
+
+    for (int lineStart = start; lineStart < end;) {
+
+      int lineEnd = LogEntryParser.indexOf(window, '\n', lineStart, end);
+      final int next = lineEnd < 0 ? end : lineEnd + 1;
+      if (lineEnd < 0) {
+        lineEnd = end;
+      }
+      if (lineEnd > lineStart && window.get(lineEnd - 1) == '\r') {
+        lineEnd--;
+      }
+
+      final long key = LogEntryParser.parseSortKey(window, lineStart, lineEnd);
+      lines++;
+
+      if (key != LogEntryParser.INVALID_KEY && filter != null
+          && !(filter.acceptsKey(key) && filter.acceptsFields(window, lineStart, lineEnd))) {
+
+        lineStart = next;
+        continue;
+
+      }
+
+      // each entry owns its bytes, so a buffered entry never pins the
+      // whole window
+      final byte[] line = new byte[lineEnd - lineStart];
+      bytes.position(lineStart);
+      bytes.get(line);
+
+      if (key == LogEntryParser.INVALID_KEY) {
+
+        listener.parseFailed(new String(line, StandardCharsets.UTF_8));
+        badRecords.reject(line, 0, line.length);
+
+      } else {
+
+        entries.add(new LogEntry(line, 0, line.length,
+                                 LogEntryParser.timestampOf(key),
+                                 LogEntryParser.severityOf(key)));
+
+      }
+
+      lineStart = next;
+
+    }
+
+    listener.linesRead(lines, end - start);
+
+    return entries.toArray(new LogEntry[entries.size()]);
+
+  }
+
+  /**
+   * Read up to {@link #BATCH_LINE_COUNT} lines.
+   * @return the lines read, or null at end of input
+   */
+  static String[] readBatch(final LineSource source) throws IOException {
+
+    final String[] batch = new String[BATCH_LINE_COUNT];
+    int count = 0;
+
+    for (String line; count < batch.length && (line = source.readLine()) != null;) {
+      batch[count++] = line;
+    }
+
+    if (count == 0) {
+      return null;
+    }
+
+    return count == batch.length ? batch : Arrays.copyOf(batch, count);
+
+  }
+
+  /**
+   * Parse a batch of lines. Lines that fail to parse are handed to the
+   * bad record policy and left as null entries, exactly as the single
+   * threaded path skips them, and so are lines the filter rejects.
+   */
+  private static LogEntry[] parseBatch(final String[] lines,
+                                       final LogFilter filter,
+                                       final BadRecordPolicy badRecords,
+                                       final SortListener listener) throws IOException {
+
+    final LogEntry[] entries = new LogEntry[lines.length];
+    long bytes = 0;
+
+    for (int i = 0; i < lines.length; i++) {
+
+      bytes += encodedLength(lines[i]);
+
+      entries[i] = parseLine(lines[i], filter, badRecords, listener);
+
+    }
+
+    listener.linesRead(lines.length, bytes);
+
+    return entries;
+
+  }
+
+  /**
+   * The size of a line read through a reader, as reported to
+   * {@link SortListener#linesRead(int, long)}: its UTF-8 length, computed
+   * without encoding it, plus one byte for the line ending the reader
+   * dropped.
+   */
+  static long encodedLength(final String line) {
+
+    long bytes = line.length() + 1;
+
+    for (int i = 0; i < line.length(); i++) {
+
+      final char c = line.charAt(i);
+      if (c >= 0x800) {
+        // three bytes, or four for a surrogate pair of two chars
+        bytes += Character.isSurrogate(c) ? 1 : 2;
+      } else if (c >= 0x80) {
+        bytes += 1;
+      }
+
+    }
+
+    return bytes;
+
+  }
+
+  /**
+   * Parse a line, handing it to the listener and the bad record policy if
+   * it fails to parse.
+   *
+   * @return the entry, or null if the line failed to parse or the filter
+   *         rejects it
+   */
+  static LogEntry parseLine(final String line,
+                            final LogFilter filter,
+                            final BadRecordPolicy badRecords,
+                            final SortListener listener) throws IOException {
+
+    final LogEntry entry = LogEntry.tryParse(line);
+
+    if (entry == null) {
+      listener.parseFailed(line);
+      badRecords.reject(line);
+      return null;
+    }
+
+    return filter == null || filter.accepts(entry) ? entry : null;
+
+  }
+
+  private static void addAll(final RunGenerator rslw,
+                             final LogEntry[] entries) throws IOException {
+
+    for (final LogEntry entry : entries) {
+      if (entry != null) {
+        rslw.addLogEntry(entry);
+      }
+    }
+
+  }
+
+  private static LogEntry[] awaitBatch(final Future<LogEntry[]> future) throws IOException {
+
+    try {
+
+      return future.get();
+
+    } catch (InterruptedException e) {
+
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a parsed batch");
+
+    } catch (ExecutionException e) {
+
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException("Unable to parse batch", cause);
+
+    }
+
+  }
+
+  /** A source of raw lines, returning null at end of input */
+  interface LineSource {
+
+    String readLine() throws IOException;
+
+  }
+
+  /**
+   * Reports the lines read through it to a listener, in batches of
+   * {@link #BATCH_LINE_COUNT} and sized by {@link #encodedLength(String)}.
+   * Flush it for the last partial batch.
+   */
+  static final class CountingLineSource implements LineSource {
+
+    private final LineSource source_;
+    private final SortListener listener_;
+    private int lines_;
+    private long bytes_;
+
+    CountingLineSource(final LineSource source, final SortListener listener) {
+
+      source_ = source;
+      listener_ = listener;
+
+    }
+
+    @Override
+    public String readLine() throws IOException {
+
+      final String line = source_.readLine();
+
+      if (line != null) {
+
+        bytes_ += encodedLength(line);
+        if (++lines_ == BATCH_LINE_COUNT) {
+          flush();
+        }
+
+      }
+
+      return line;
+
+    }
+
+    /**
+     * Report the lines read since the last report, if any.
+     */
+    void flush() {
+
+      if (lines_ > 0) {
+        listener_.linesRead(lines_, bytes_);
+        lines_ = 0;
+        bytes_ = 0;
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,158 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ParallelRunGeneratorTest {
+
+  @Test
+  public void testMatchesSingleThreaded() throws IOException {
+    
+    final String input = randomLog(10000);
+    
+    final SortOptions options = 
+        new SortOptions().setRunLineCount(1000).setThreadCount(4).setInFlightBuffers(3);
+    
+    final RollingSortedLogWriter rslw = RollingSortedLogWriter.create(options, null);
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      rslw.addLogEntry(LogEntry.fromString(line));
+    }
+    rslw.close();
+    
+    final ParallelRunGenerator generator = new ParallelRunGenerator(options);
+    final Set<File> parallelFiles = 
+        generator.generateRuns(new BufferedReader(new StringReader(input)));
+    
+    assertThat(parallelFiles.size(), equalTo(10));
+    assertThat(readAll(parallelFiles), equalTo(readAll(rslw.getFiles())));
+    
+  }
+  
+  @Test
+  public void testPartialRun() throws IOException {
+    
+    final ParallelRunGenerator generator = new ParallelRunGenerator(
+        new SortOptions().setRunLineCount(4).setThreadCount(2));
+    final Set<File> files = 
+        generator.generateRuns(new BufferedReader(new StringReader(randomLog(10))));
+    
+    assertThat(files.size(), equalTo(3));
+    
+  }
+  
+  @Test
+  public void testMemoryMappedInput() throws IOException {
+    
+    // CRLF endings, an unparseable line and no final newline
+    final String input = randomLog(5000).replace(System.lineSeparator(), "\r\n")
+        + "not a log line\r\n" + "[2015-11-19 10:00:00.000+0000] [HOST] [INFO] [C] [\u00fcnicode]";
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    inputFile.deleteOnExit();
+    Files.write(inputFile.toPath(), input.getBytes("UTF-8"));
+    
+    // small chunks and windows so lines straddle both boundaries
+    final SortOptions options = new SortOptions()
+        .setRunLineCount(700).setThreadCount(3).setMappedChunkSize(1000);
+    
+    final Set<File> readerFiles = new ParallelRunGenerator(options)
+        .generateRuns(new BufferedReader(new StringReader(input)));
+    final Set<File> mappedFiles = new ParallelRunGenerator(options).generateRuns(inputFile);
+    
+    assertThat(mappedFiles.size(), equalTo(8));
+    assertThat(readAll(mappedFiles), equalTo(readAll(readerFiles)));
+    
+  }
+  
+  @Test
+  public void testInputBytesMatchMappedPath() throws IOException {
+    
+    final String input = randomLog(100).replace("MESSAGE", "MESSAGE \u00e9\u20ac\ud83d\ude00");
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    inputFile.deleteOnExit();
+    Files.write(inputFile.toPath(), input.getBytes("UTF-8"));
+    
+    for (final int threads : new int[] {1, 2}) {
+      
+      final SortStats readerStats = new SortStats();
+      new ParallelRunGenerator(new SortOptions().setThreadCount(threads).setListener(readerStats))
+          .generateRuns(new BufferedReader(new StringReader(input)));
+      
+      final SortStats mappedStats = new SortStats();
+      new ParallelRunGenerator(new SortOptions().setThreadCount(2).setListener(mappedStats))
+          .generateRuns(inputFile);
+      
+      assertThat(readerStats.getInputBytes(), equalTo(inputFile.length()));
+      assertThat(mappedStats.getInputBytes(), equalTo(inputFile.length()));
+      
+    }
+    
+  }
+  
+  @Test
+  public void testMemoryMappedLongLine() throws IOException {
+    
+    final StringBuilder message = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      message.append('x');
+    }
+    final String input = randomLog(20) 
+        + "[2015-11-19 10:00:00.000+0000] [HOST] [WARN] [C] [" + message + "]\n"
+        + randomLog(20);
+    
+    final File inputFile = File.createTempFile("test-input-", ".txt");
+    inputFile.deleteOnExit();
+    Files.write(inputFile.toPath(), input.getBytes("UTF-8"));
+    
+    final SortOptions options = new SortOptions().setThreadCount(2).setMappedChunkSize(16);
+    
+    final Set<File> readerFiles = new ParallelRunGenerator(options)
+        .generateRuns(new BufferedReader(new StringReader(input)));
+    final Set<File> mappedFiles = new ParallelRunGenerator(options).generateRuns(inputFile);
+    
+    assertThat(readAll(mappedFiles), equalTo(readAll(readerFiles)));
+    
+  }
+  
+  private static List<String> readAll(final Set<File> files) throws IOException {
+    
+    final List<String> contents = new ArrayList<>();
+    for (final File file : files) {
+      contents.add(new String(Files.readAllBytes(file.toPath()), "ISO-8859-1"));
+    }
+    return contents;
+    
+  }
+  
+  static String randomLog(final int lineCount) {
+    
+    final Random random = new Random(42);
+    final String[] severities = {"ERROR", "WARN", "INFO"};
+    final StringBuilder builder = new StringBuilder();
+    
+    for (int i = 0; i < lineCount; i++) {
+      builder.append(String.format("[2015-11-19 10:%02d:%02d.%03d+0000] [HOST%d] [%s] [CLASS1] [MESSAGE %d]", 
+          random.nextInt(60), random.nextInt(60), random.nextInt(1000), random.nextInt(10), 
+          severities[random.nextInt(3)], i));
+      builder.append(System.lineSeparator());
+    }
+    
+    return builder.toString();
+    
+  }
+  
+}
@@ -0,0 +1,359 @@
+package samples.logutils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merges log files that are each already sorted, e.g. one file per host,
+ * without sorting them again. The input files are read directly as
+ * {@link RunFormat#TEXT} runs of a {@link SortedLogReader}, so the job is a
+ * single streaming pass with no temporary files.
+ *
+ * By default each input is first scanned to verify its order, which reads
+ * it but writes nothing. An input found out of order is spilled: it is
+ * sorted into runs by a {@link RunGenerator}, which take its place in the
+ * merge. With {@link SortOptions#setAssumeSortedInput(boolean)} the scan is
+ * skipped, and an input found out of order while merging fails the merge.
+ *
+ * Entries with equal keys come out in input file order, then line order,
+ * exactly as if the files had been concatenated and sorted. Lines that
+ * fail to parse go to the {@link SortOptions#getBadRecordPolicy()}, and
+ * lines rejected by the {@link SortOptions#getFilter()} are dropped. When
+ * there are more sources than the merge fan-in, groups of adjacent sources
+ * are first merged into runs of the configured format, and the rest is
+ * left to a {@link MultiPassMerger}.
+ */
+public class PresortedMerger {
+
+  private final SortOptions options_;
+  private final MultiPassMerger merger_;
+  private final LogFilter filter_;
+  private final BadRecordPolicy badRecords_;
+  private final SortListener listener_;
+  private int spilledInputs_;
+
+  /**
+   * @param options the merge fan-in, buffer size, run format and codec,
+   *        filter, bad record policy, and whether to assume the inputs
+   *        are sorted
+   */
+  public PresortedMerger(final SortOptions options) {
+
+    options_ = options;
+    merger_ = new MultiPassMerger(options);
+    filter_ = options.getFilter();
+    badRecords_ = options.getBadRecordPolicy();
+    listener_ = options.getListener();
+
+  }
+
+  /**
+   * Open a reader over the merged content of the inputs.
+   *
+   * @param inputs the sorted log files, in the order ties are resolved
+   * @return a reader over the merged entries
+   * @throws IOException on disk IO errors
+   */
+  public SortedLogReader merge(final List<File> inputs) throws IOException {
+
+    // an input file, or the runs it was spilled to
+    final List<Source> sources = new ArrayList<>();
+
+    for (final File input : inputs) {
+
+      if (options_.isAssumeSortedInput() || isSorted(input)) {
+
+        sources.add(new Source(input, true));
+
+      } else {
+
+        spilledInputs_++;
+        for (final File run : spill(input)) {
+          sources.add(new Source(run, false));
+        }
+
+      }
+
+    }
+
+    if (sources.size() <= options_.getMaxMergeFanIn()) {
+      return new SortedLogReader(openAll(sources));
+    }
+
+    final Set<File> runs = new LinkedHashSet<>();
+    final int fanIn = options_.getMaxMergeFanIn();
+
+    for (int start = 0; start < sources.size(); start += fanIn) {
+      runs.add(mergeGroup(sources.subList(start, Math.min(sources.size(), start + fanIn))));
+    }
+
+    return merger_.merge(runs);
+
+  }
+
+  /**
+   * @return the number of inputs found out of order and sorted into runs
+   */
+  public int getSpilledInputCount() {
+    return spilledInputs_;
+  }
+
+  /**
+   * @return statistics for the merge passes after any grouping pass
+   */
+  public MergeStats getStats() {
+    return merger_.getStats();
+  }
+
+  /**
+   * Scan an input for a line that sorts before the one above it.
+   */
+  private static boolean isSorted(final File input) throws IOException {
+
+    final BufferedReader reader = openReader(input);
+
+    try {
+
+      long last = Long.MIN_VALUE;
+
+      for (String line; (line = reader.readLine()) != null;) {
+
+        final LogEntry entry = LogEntry.tryParse(line);
+
+        if (entry != null) {
+
+          final long key = entry.getSortKey();
+          if (key < last) {
+            return false;
+          }
+          last = key;
+
+        }
+
+      }
+
+      return true;
+
+    } finally {
+
+      reader.close();
+
+    }
+
+  }
+
+  /**
+   * Sort an out of order input into runs of the configured format.
+   */
+  private Set<File> spill(final File input) throws IOException {
+
+    final RunGenerator generator = RunGenerator.create(options_, null);
+    final BufferedReader reader = openReader(input);
+
+    try {
+
+      for (String line; (line = reader.readLine()) != null;) {
+
+        final LogEntry entry = ParallelRunGenerator.parseLine(line, filter_, badRecords_, listener_);
+        if (entry != null) {
+          generator.addLogEntry(entry);
+        }
+
+      }
+
+    } finally {
+
+      reader.close();
+
+    }
+
+    generator.close();
+
+    return generator.getFiles();
+
+  }
+
+  /**
+   * Merge a group of sources into a run, deleting the spilled runs among
+   * them. Input files are never deleted.
+   */
+  private File mergeGroup(final List<Source> group) throws IOException {
+
+    final RunFormat format = options_.getRunFormat();
+    final File tempFile = File.createTempFile("temp-merge-file-", format.getSuffix());
+    tempFile.deleteOnExit();
+
+    final SortedLogReader reader = new SortedLogReader(openAll(group));
+
+    try {
+
+      final RunWriter writer = format.openWriter(
+          tempFile, RollingSortedLogWriter.WRITE_BUFFER_SIZE, options_.getSpillCodec());
+
+      try {
+
+        while (reader.hasNext()) {
+          reader.copyNextEntry(writer);
+        }
+
+      } finally {
+
+        writer.close();
+
+      }
+
+    } finally {
+
+      reader.closeAll();
+
+    }
+
+    listener_.tempSpaceChanged(tempFile.length());
+
+    long spilledBytes = 0;
+    for (final Source source : group) {
+      if (!source.input_) {
+        spilledBytes += source.file_.length();
+        source.file_.delete();
+      }
+    }
+    listener_.tempSpaceChanged(-spilledBytes);
+
+    return tempFile;
+
+  }
+
+  private RunCursor[] openAll(final List<Source> sources) throws IOException {
+
+    final RunCursor[] cursors = new RunCursor[sources.size()];
+
+    try {
+
+      for (int i = 0; i < cursors.length; i++) {
+
+        final Source source = sources.get(i);
+
+        cursors[i] = source.input_
+            ? new InputCursor(source.file_, options_.getMergeBufferSize(), filter_, badRecords_,
+                              listener_)
+            : options_.getRunFormat().openCursor(source.file_, options_.getMergeBufferSize(),
+                                                 options_.getSpillCodec());
+
+      }
+
+    } catch (IOException | RuntimeException e) {
+
+      for (final RunCursor cursor : cursors) {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+      throw e;
+
+    }
+
+    return cursors;
+
+  }
+
+  private static BufferedReader openReader(final File input) throws IOException {
+
+    return new BufferedReader(
+        new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8));
+
+  }
+
+  /** A file to merge: a sorted input or a spilled run */
+  private static final class Source {
+
+    private final File file_;
+    private final boolean input_;
+
+    Source(final File file, final boolean input) {
+      file_ = file;
+      input_ = input;
+    }
+
+  }
+
+  /**
+   * A sorted input read as a run, skipping lines that fail to parse or are
+   * filtered out, and failing on lines out of order.
+   */
+  private static final class InputCursor extends RunCursor {
+
+    private final File file_;
+    private final BufferedReader reader_;
+    private final LogFilter filter_;
+    private final BadRecordPolicy badRecords_;
+    private final SortListener listener_;
+    private LogEntry current_;
+    private long key_ = Long.MIN_VALUE;
+
+    InputCursor(final File file,
+                final int bufferSize,
+                final LogFilter filter,
+                final BadRecordPolicy badRecords,
+                final SortListener listener) throws IOException {
+
+      file_ = file;
+      filter_ = filter;
+      badRecords_ = badRecords;
+      listener_ = listener;
+      reader_ = new BufferedReader(new InputStreamReader(
+          new FileInputStream(file), StandardCharsets.UTF_8), bufferSize);
+
+    }
+
+    @Override
+    boolean advance() throws IOException {
+
+      for (String line; (line = reader_.readLine()) != null;) {
+
+        current_ = ParallelRunGenerator.parseLine(line, filter_, badRecords_, listener_);
+
+        if (current_ != null) {
+
+          final long key = current_.getSortKey();
+          if (key < key_) {
+            throw new IOException("Input is not sorted: " + file_ + " at line: " + line);
+          }
+          key_ = key;
+
+          return true;
+
+        }
+
+      }
+
+      current_ = null;
+      return false;
+
+    }
+
+    @Override
+    long key() {
+      return key_;
+    }
+
+    @Override
+    LogEntry entry() {
+      return current_;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader_.close();
+    }
+
+  }
+
+}
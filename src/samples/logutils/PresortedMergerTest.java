@@ -0,0 +1,206 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class PresortedMergerTest {
+
+  @Test
+  public void testMatchesFullSort() throws IOException {
+    
+    final List<LogEntry> entries = entries(ParallelRunGeneratorTest.randomLog(2000));
+    final List<File> inputs = writeHosts(entries, 5, true);
+    
+    final PresortedMerger merger = new PresortedMerger(new SortOptions());
+    
+    assertThat(readAll(merger.merge(inputs)), equalTo(sortedByHost(entries, 5)));
+    assertThat(merger.getSpilledInputCount(), equalTo(0));
+    
+  }
+  
+  @Test
+  public void testUnsortedInput() throws IOException {
+    
+    final List<LogEntry> entries = entries(ParallelRunGeneratorTest.randomLog(2000));
+    final List<File> inputs = writeHosts(entries, 5, true);
+    
+    // replace the third host with its lines out of order 
+    inputs.set(2, writeHosts(entries, 5, false).get(2));
+    
+    final PresortedMerger merger = new PresortedMerger(new SortOptions().setRunLineCount(100));
+    
+    assertThat(readAll(merger.merge(inputs)), equalTo(sortedByHost(entries, 5)));
+    assertThat(merger.getSpilledInputCount(), equalTo(1));
+    
+  }
+  
+  @Test(expected = IOException.class)
+  public void testAssumedSortedInput() throws IOException {
+    
+    final List<LogEntry> entries = entries(ParallelRunGeneratorTest.randomLog(2000));
+    final List<File> inputs = writeHosts(entries, 5, false);
+    
+    readAll(new PresortedMerger(new SortOptions().setAssumeSortedInput(true)).merge(inputs));
+    
+  }
+  
+  @Test
+  public void testFanIn() throws IOException {
+    
+    final List<LogEntry> entries = entries(ParallelRunGeneratorTest.randomLog(2000));
+    final List<File> inputs = writeHosts(entries, 10, true);
+    inputs.set(4, writeHosts(entries, 10, false).get(4));
+    
+    final PresortedMerger merger = new PresortedMerger(new SortOptions()
+        .setRunLineCount(50)
+        .setMaxMergeFanIn(3));
+    
+    assertThat(readAll(merger.merge(inputs)), equalTo(sortedByHost(entries, 10)));
+    
+  }
+  
+  @Test
+  public void testSpilledRunsDeleted() throws IOException {
+    
+    final List<LogEntry> entries = entries(ParallelRunGeneratorTest.randomLog(2000));
+    final List<File> inputs = writeHosts(entries, 10, true);
+    inputs.set(4, writeHosts(entries, 10, false).get(4));
+    
+    // the four spilled runs share a group, and the four groups are merged 
+    // in the final pass, so only the grouping pass frees any space 
+    final AtomicLong spilled = new AtomicLong();
+    final AtomicLong freed = new AtomicLong();
+    final PresortedMerger merger = new PresortedMerger(new SortOptions()
+        .setRunLineCount(50)
+        .setMaxMergeFanIn(4)
+        .setListener(new SortListener() {
+          
+          @Override
+          public void runWritten(final int entries, 
+                                 final long bytes, 
+                                 final long sortNanos, 
+                                 final long writeNanos) {
+            spilled.addAndGet(bytes);
+          }
+          
+          @Override
+          public void tempSpaceChanged(final long bytes) {
+            if (bytes < 0) {
+              freed.addAndGet(-bytes);
+            }
+          }
+          
+        }));
+    
+    assertThat(readAll(merger.merge(inputs)), equalTo(sortedByHost(entries, 10)));
+    assertThat(spilled.get(), greaterThan(0L));
+    assertThat(freed.get(), equalTo(spilled.get()));
+    
+    for (final File input : inputs) {
+      assertThat(input.exists(), equalTo(true));
+    }
+    
+  }
+  
+  private static List<LogEntry> entries(final String input) throws IOException {
+    
+    final List<LogEntry> entries = new ArrayList<>();
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      entries.add(LogEntry.fromString(line));
+    }
+    return entries;
+    
+  }
+  
+  /**
+   * Deal the entries round robin into one file per host, each sorted or in
+   * input order, with a malformed line in each file. 
+   */
+  private static List<File> writeHosts(final List<LogEntry> entries, 
+                                       final int hosts, 
+                                       final boolean sorted) throws IOException {
+    
+    final List<File> files = new ArrayList<>();
+    
+    for (int host = 0; host < hosts; host++) {
+      
+      final List<LogEntry> lines = new ArrayList<>();
+      for (int i = host; i < entries.size(); i += hosts) {
+        lines.add(entries.get(i));
+      }
+      if (sorted) {
+        Collections.sort(lines);
+      }
+      
+      final List<String> text = new ArrayList<>();
+      for (final LogEntry entry : lines) {
+        text.add(entry.getLogLine());
+      }
+      text.add(text.size() / 2, "not a log line");
+      
+      final File file = File.createTempFile("test-host-", ".txt");
+      file.deleteOnExit();
+      Files.write(file.toPath(), text, StandardCharsets.UTF_8);
+      files.add(file);
+      
+    }
+    
+    return files;
+    
+  }
+  
+  /**
+   * The expected merge: the hosts concatenated in order, then stably 
+   * sorted. 
+   */
+  private static List<String> sortedByHost(final List<LogEntry> entries, final int hosts) {
+    
+    final List<LogEntry> concatenated = new ArrayList<>();
+    for (int host = 0; host < hosts; host++) {
+      final List<LogEntry> lines = new ArrayList<>();
+      for (int i = host; i < entries.size(); i += hosts) {
+        lines.add(entries.get(i));
+      }
+      Collections.sort(lines);
+      concatenated.addAll(lines);
+    }
+    Collections.sort(concatenated);
+    
+    final List<String> lines = new ArrayList<>();
+    for (final LogEntry entry : concatenated) {
+      lines.add(entry.getLogLine());
+    }
+    return lines;
+    
+  }
+  
+  private static List<String> readAll(final SortedLogReader reader) throws IOException {
+    
+    final List<String> lines = new ArrayList<>();
+    try {
+      while (reader.hasNext()) {
+        lines.add(reader.getNextEntry().getLogLine());
+      }
+    } finally {
+      reader.closeAll();
+    }
+    return lines;
+    
+  }
+  
+}
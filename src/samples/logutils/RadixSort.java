@@ -0,0 +1,104 @@
+package samples.logutils;
+
+import java.util.Arrays;
+
+/**
+ * A stable least-significant-digit radix sort of (key, value) pairs held
+ * interleaved in a {@code long[]}, as used for packed sort keys (see
+ * {@link LogEntry#getSortKey()}).
+ *
+ * The sort is adaptive in two ways: keys are rebased on the run's
+ * minimum so only the digits spanned by the key range are sorted, and a
+ * pass is skipped when every key shares its digit. A run covering a day
+ * of millisecond timestamps needs three passes of 11 bits, whatever the
+ * number of lines. Below {@link #MIN_RADIX_COUNT} pairs the fixed cost of
+ * the digit histograms outweighs a comparison sort, and callers should
+ * fall back to one.
+ */
+final class RadixSort {
+
+  /** Pair counts below which a comparison sort is cheaper */
+  static final int MIN_RADIX_COUNT = 1024;
+
+  private static final int DIGIT_BITS = 11;
+  private static final int RADIX = 1 << DIGIT_BITS;
+  private static final int DIGIT_MASK = RADIX - 1;
+
+  private RadixSort() {
+    // static utility
+  }
+
+  /**
+   * Sort the first count pairs by key, keeping pairs with equal keys in
+   * their current order. Values are carried along untouched.
+   *
+   * @param pairs the pairs, key at even and value at odd indices
+   * @param scratch a work array of at least count * 2 longs
+   * @param count the number of pairs to sort
+   */
+  static void sort(final long[] pairs, final long[] scratch, final int count) {
+
+    if (count < 2) {
+      return;
+    }
+
+    long min = pairs[0];
+    long max = pairs[0];
+
+    for (int i = 2; i < count * 2; i += 2) {
+      min = Math.min(min, pairs[i]);
+      max = Math.max(max, pairs[i]);
+    }
+
+    // the difference is exact as an unsigned value, even on overflow
+    final int bits = 64 - Long.numberOfLeadingZeros(max - min);
+
+    final int[] offsets = new int[RADIX];
+    long[] src = pairs;
+    long[] dst = scratch;
+
+    for (int shift = 0; shift < bits; shift += DIGIT_BITS) {
+
+      Arrays.fill(offsets, 0);
+
+      for (int i = 0; i < count * 2; i += 2) {
+        offsets[digit(src[i], min, shift)]++;
+      }
+
+      // every key shares this digit, the pass would be a plain copy
+      if (offsets[digit(src[0], min, shift)] == count) {
+        continue;
+      }
+
+      int offset = 0;
+      for (int d = 0; d < RADIX; d++) {
+        final int digitCount = offsets[d];
+        offsets[d] = offset;
+        offset += digitCount * 2;
+      }
+
+      for (int i = 0; i < count * 2; i += 2) {
+        final int d = digit(src[i], min, shift);
+        final int target = offsets[d];
+        offsets[d] = target + 2;
+        dst[target] = src[i];
+        dst[target + 1] = src[i + 1];
+      }
+
+      final long[] swap = src;
+      src = dst;
+      dst = swap;
+
+    }
+
+    if (src != pairs) {
+      System.arraycopy(src, 0, pairs, 0, count * 2);
+    }
+
+  }
+
+  private static int digit(final long key, final long min, final int shift) {
+    return (int) ((key - min) >>> shift) & DIGIT_MASK;
+  }
+
+}
@@ -0,0 +1,124 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RadixSortTest {
+
+  @Test
+  public void testRandomKeys() {
+    
+    final Random random = new Random(7);
+    
+    // narrow, wide and full 64 bit key ranges, with and without ties
+    for (final long range : new long[] {1, 3, 1000, 1L << 40, Long.MAX_VALUE}) {
+      
+      final int count = 5000;
+      final long[] pairs = new long[count * 2];
+      
+      for (int i = 0; i < count; i++) {
+        pairs[i * 2] = range == Long.MAX_VALUE 
+            ? random.nextLong() 
+            : (long) (random.nextDouble() * range) - range / 2;
+        pairs[i * 2 + 1] = i;
+      }
+      
+      final long[] expected = stableSort(pairs, count);
+      RadixSort.sort(pairs, new long[count * 2], count);
+      
+      assertThat(Arrays.equals(pairs, expected), equalTo(true));
+      
+    }
+    
+  }
+  
+  @Test
+  public void testPartialArray() {
+    
+    final long[] pairs = {5, 0, 3, 1, 5, 2, 1, 3, -1, -1};
+    RadixSort.sort(pairs, new long[8], 4);
+    
+    assertThat(Arrays.equals(pairs, new long[] {1, 3, 3, 1, 5, 0, 5, 2, -1, -1}), equalTo(true));
+    
+  }
+  
+  @Test
+  public void testEntryBufferMatchesComparisonSort() throws IOException {
+    
+    final String input = ParallelRunGeneratorTest.randomLog(RadixSort.MIN_RADIX_COUNT * 4)
+        .replaceAll("\\.\\d\\d\\d\\+", ".000+");
+    
+    final List<LogEntry> expected = new ArrayList<>();
+    final RunBuffer buffer = new EntryRunBuffer(16, Integer.MAX_VALUE);
+    
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      final LogEntry entry = LogEntry.fromString(line);
+      expected.add(entry);
+      buffer.add(entry);
+    }
+    
+    Collections.sort(expected);
+    buffer.sort();
+    
+    final List<LogEntry> actual = new ArrayList<>();
+    buffer.writeTo(new RunWriter() {
+      
+      @Override
+      public void write(final LogEntry entry) {
+        actual.add(entry);
+      }
+      
+      @Override
+      public void write(final long timestamp, 
+                        final LogEntry.Severity severity, 
+                        final byte[] utf8, 
+                        final int offset, 
+                        final int length) {
+        throw new UnsupportedOperationException();
+      }
+      
+      @Override
+      public void close() {
+      }
+      
+    });
+    
+    // identity, not equality, so ties must keep their input order
+    assertThat(actual.size(), equalTo(expected.size()));
+    for (int i = 0; i < actual.size(); i++) {
+      assertThat(actual.get(i) == expected.get(i), equalTo(true));
+    }
+    
+  }
+  
+  private static long[] stableSort(final long[] pairs, final int count) {
+    
+    final List<long[]> list = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      list.add(new long[] {pairs[i * 2], pairs[i * 2 + 1]});
+    }
+    
+    Collections.sort(list, (a, b) -> Long.compare(a[0], b[0]));
+    
+    final long[] sorted = new long[count * 2];
+    for (int i = 0; i < count; i++) {
+      sorted[i * 2] = list.get(i)[0];
+      sorted[i * 2 + 1] = list.get(i)[1];
+    }
+    return sorted;
+    
+  }
+  
+}
@@ -0,0 +1,59 @@
+package samples.logutils;
+
+import java.io.IOException;
+
+/**
+ * The records of a cursor with keys in [lo, hi). Records before lo are
+ * skipped, and the cursor ends at the first record at or after hi. A hi of
+ * Long.MAX_VALUE is unbounded.
+ */
+final class RangeCursor extends RunCursor {
+
+  private final RunCursor cursor_;
+  private final long lo_;
+  private final long hi_;
+
+  RangeCursor(final RunCursor cursor, final long lo, final long hi) {
+    cursor_ = cursor;
+    lo_ = lo;
+    hi_ = hi;
+  }
+
+  @Override
+  boolean advance() throws IOException {
+
+    while (cursor_.advance()) {
+
+      final long key = cursor_.key();
+
+      if (key >= lo_) {
+        return hi_ == Long.MAX_VALUE || key < hi_;
+      }
+
+    }
+
+    return false;
+
+  }
+
+  @Override
+  long key() {
+    return cursor_.key();
+  }
+
+  @Override
+  LogEntry entry() {
+    return cursor_.entry();
+  }
+
+  @Override
+  void copyTo(final RunWriter writer) throws IOException {
+    cursor_.copyTo(writer);
+  }
+
+  @Override
+  public void close() throws IOException {
+    cursor_.close();
+  }
+
+}
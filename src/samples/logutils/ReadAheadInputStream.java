@@ -0,0 +1,201 @@
+package samples.logutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * An input stream that reads its source ahead in large blocks on a
+ * background executor. Two blocks are kept: while the caller consumes one,
+ * the next is filled, so the source sees large sequential reads that
+ * overlap with whatever the caller does with the data.
+ *
+ * The stream is not thread-safe; only the block fills run on the
+ * executor, one at a time.
+ */
+final class ReadAheadInputStream extends InputStream {
+
+  private final InputStream in_;
+  private final Executor executor_;
+
+  private byte[] current_;
+  private byte[] spare_;
+  private int position_;
+  private int limit_;
+
+  // the fill of spare_ in progress, null at end of input
+  private FutureTask<Integer> pending_;
+
+  /**
+   * Start reading the first block immediately.
+   *
+   * @param in the source stream, closed with this stream
+   * @param blockSize the size of each of the two blocks in bytes
+   * @param executor runs the block reads
+   */
+  ReadAheadInputStream(final InputStream in, final int blockSize, final Executor executor) {
+
+    if (blockSize < 1)
+      throw new IllegalArgumentException("Block size must be positive.");
+
+    in_ = in;
+    executor_ = executor;
+    current_ = new byte[blockSize];
+    spare_ = new byte[blockSize];
+
+    fillSpare();
+
+  }
+
+  @Override
+  public int read() throws IOException {
+
+    if (position_ == limit_ && !nextBlock()) {
+      return -1;
+    }
+
+    return current_[position_++] & 0xff;
+
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+
+    if (len == 0) {
+      return 0;
+    }
+
+    if (position_ == limit_ && !nextBlock()) {
+      return -1;
+    }
+
+    final int count = Math.min(len, limit_ - position_);
+    System.arraycopy(current_, position_, b, off, count);
+    position_ += count;
+
+    return count;
+
+  }
+
+  @Override
+  public int available() {
+
+    return limit_ - position_;
+
+  }
+
+  /**
+   * Wait for any block read in progress, then close the source.
+   */
+  @Override
+  public void close() throws IOException {
+
+    try {
+
+      if (pending_ != null) {
+        await(pending_);
+      }
+
+    } catch (IOException e) {
+
+      // the caller is done with the data, a failed read ahead is moot
+
+    } finally {
+
+      pending_ = null;
+      in_.close();
+
+    }
+
+  }
+
+  /**
+   * Swap in the block read ahead and start reading the following one.
+   * @return false at end of input
+   */
+  private boolean nextBlock() throws IOException {
+
+    if (pending_ == null) {
+      return false;
+    }
+
+    final int count = await(pending_);
+
+    if (count <= 0) {
+      pending_ = null;
+      return false;
+    }
+
+    final byte[] filled = spare_;
+    spare_ = current_;
+    current_ = filled;
+    position_ = 0;
+    limit_ = count;
+
+    fillSpare();
+
+    return true;
+
+  }
+
+  private void fillSpare() {
+
+    final byte[] block = spare_;
+
+    pending_ = new FutureTask<>(() -> readBlock(block));
+    executor_.execute(pending_);
+
+  }
+
+  /**
+   * Fill the block as far as the source allows.
+   * @return the number of bytes read, 0 at end of input
+   */
+  private int readBlock(final byte[] block) throws IOException {
+
+    int read = 0;
+
+    while (read < block.length) {
+
+      final int count = in_.read(block, read, block.length - read);
+
+      if (count < 0) {
+        break;
+      }
+
+      read += count;
+
+    }
+
+    return read;
+
+  }
+
+  private static int await(final FutureTask<Integer> task) throws IOException {
+
+    try {
+
+      return task.get();
+
+    } catch (InterruptedException e) {
+
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a read ahead block");
+
+    } catch (ExecutionException e) {
+
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException("Unable to read ahead", cause);
+
+    }
+
+  }
+
+}
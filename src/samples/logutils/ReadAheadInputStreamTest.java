@@ -0,0 +1,98 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class ReadAheadInputStreamTest {
+
+  @Test
+  public void testBlockSizes() throws IOException {
+    
+    final byte[] data = new byte[10000];
+    new Random(5).nextBytes(data);
+    
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    
+    try {
+      
+      for (final int blockSize : new int[] {1, 7, 1000, 10000, 20000}) {
+        
+        final InputStream in = 
+            new ReadAheadInputStream(new ByteArrayInputStream(data), blockSize, executor);
+        
+        assertThat(Arrays.equals(readAll(in, 333), data), equalTo(true));
+        assertThat(in.read(), equalTo(-1));
+        in.close();
+        
+      }
+      
+    } finally {
+      executor.shutdown();
+    }
+    
+  }
+  
+  @Test
+  public void testSingleBytes() throws IOException {
+    
+    final InputStream in = new ReadAheadInputStream(
+        new ByteArrayInputStream(new byte[] {1, -1, 3}), 2, Runnable::run);
+    
+    assertThat(in.read(), equalTo(1));
+    assertThat(in.read(), equalTo(255));
+    assertThat(in.read(), equalTo(3));
+    assertThat(in.read(), equalTo(-1));
+    in.close();
+    
+  }
+  
+  @Test
+  public void testEmpty() throws IOException {
+    
+    final InputStream in = 
+        new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), 16, Runnable::run);
+    
+    assertThat(in.read(new byte[4], 0, 4), equalTo(-1));
+    in.close();
+    
+  }
+  
+  @Test(expected = IOException.class)
+  public void testReadFailure() throws IOException {
+    
+    final InputStream failing = new InputStream() {
+      
+      @Override
+      public int read() throws IOException {
+        throw new IOException("Disk failure");
+      }
+      
+    };
+    
+    new ReadAheadInputStream(failing, 16, Runnable::run).read();
+    
+  }
+  
+  private static byte[] readAll(final InputStream in, final int chunk) throws IOException {
+    
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[chunk];
+    for (int count; (count = in.read(buffer, 0, chunk)) >= 0;) {
+      out.write(buffer, 0, count);
+    }
+    return out.toByteArray();
+    
+  }
+  
+}
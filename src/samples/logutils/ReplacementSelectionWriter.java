@@ -0,0 +1,333 @@
+package samples.logutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Generates sorted temporary files by replacement selection. Entries are
+ * held in a min-heap the size of one memory load. Once the heap is full,
+ * each new entry pushes out the smallest entry, which is appended to the
+ * current run. An incoming entry that sorts before the last one written
+ * cannot join the current run and is tagged for the next run instead; the
+ * current run ends when only such entries remain.
+ *
+ * On random input runs average twice the memory size, and input that is
+ * already sorted, or only disordered within a window smaller than the
+ * heap (e.g. logs interleaved from hosts with skewed clocks), comes out
+ * as a single run. Entries are ordered by (run, sort key, arrival), so
+ * equal keys keep their input order and the merged output is identical
+ * to that of {@link RollingSortedLogWriter}.
+ *
+ * Runs are written incrementally on the calling thread. All files are
+ * Java "temporary" files and will have {@link File#deleteOnExit()}
+ * invoked.
+ */
+public class ReplacementSelectionWriter implements RunGenerator {
+
+  // largest array size the VM will reliably allocate
+  private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+  private final int maxLineCount_;
+  private final long maxBytes_;
+  private final RunFormat format_;
+  private final SpillCodec codec_;
+  private final SortListener listener_;
+  private final Set<File> files_ = new LinkedHashSet<>();
+
+  // the heap, as parallel arrays ordered by (run, key, sequence)
+  private LogEntry[] entries_;
+  private long[] keys_;
+  private int[] runs_;
+  private long[] sequences_;
+  private int count_;
+  private long bytes_;
+  private long nextSequence_;
+
+  // the run being written
+  private int currentRun_;
+  private long lastKey_ = Long.MIN_VALUE;
+  private RunWriter writer_;
+  private File file_;
+  private int runEntries_;
+
+  /**
+   * @param maxLineCount the number of entries held in memory
+   */
+  public ReplacementSelectionWriter(final int maxLineCount) {
+
+    this(maxLineCount, Long.MAX_VALUE, RunFormat.TEXT, SpillCodec.NONE, SortListener.NONE);
+
+  }
+
+  private ReplacementSelectionWriter(final int maxLineCount,
+                                     final long maxBytes,
+                                     final RunFormat format,
+                                     final SpillCodec codec,
+                                     final SortListener listener) {
+
+    if (maxLineCount < 1)
+      throw new IllegalArgumentException("Line count must be positive.");
+    if (maxBytes < 1)
+      throw new IllegalArgumentException("Byte budget must be positive.");
+
+    maxLineCount_ = Math.min(maxLineCount, MAX_ARRAY_LENGTH);
+    maxBytes_ = maxBytes;
+    format_ = format;
+    codec_ = codec;
+    listener_ = listener;
+
+    final int capacity = Math.min(maxLineCount_, RollingSortedLogWriter.INITIAL_CAPACITY);
+    entries_ = new LogEntry[capacity];
+    keys_ = new long[capacity];
+    runs_ = new int[capacity];
+    sequences_ = new long[capacity];
+
+  }
+
+  /**
+   * Create a writer that holds entries up to the estimated heap budget
+   * of maxBytes, see {@link LogEntry#getSizeByte()}.
+   *
+   * @param maxBytes the memory budget in bytes
+   * @return a new writer
+   */
+  public static ReplacementSelectionWriter withByteBudget(final long maxBytes) {
+
+    return new ReplacementSelectionWriter(MAX_ARRAY_LENGTH, maxBytes,
+                                          RunFormat.TEXT, SpillCodec.NONE, SortListener.NONE);
+
+  }
+
+  /**
+   * Create a writer sized, encoded and compressed according to the sort
+   * options, reporting each run to {@link SortOptions#getListener()}.
+   *
+   * @param options the sort options
+   * @return a new writer
+   */
+  public static ReplacementSelectionWriter create(final SortOptions options) {
+
+    if (options.getRunByteBudget() > 0) {
+      return new ReplacementSelectionWriter(MAX_ARRAY_LENGTH, options.getRunByteBudget(),
+                                            options.getRunFormat(), options.getSpillCodec(),
+                                            options.getListener());
+    }
+
+    return new ReplacementSelectionWriter(options.getRunLineCount(), Long.MAX_VALUE,
+                                          options.getRunFormat(), options.getSpillCodec(),
+                                          options.getListener());
+
+  }
+
+  @Override
+  public void addLogEntry(final LogEntry entry) throws IOException {
+
+    final long size = entry.getSizeByte();
+
+    // make room by emitting the smallest entries
+    while (count_ > 0 && (count_ == maxLineCount_ || bytes_ + size > maxBytes_)) {
+      emitMin();
+    }
+
+    final long key = entry.getSortKey();
+    final int run = writer_ != null && key < lastKey_ ? currentRun_ + 1 : currentRun_;
+
+    push(entry, key, run);
+
+  }
+
+  /**
+   * @return the number of entries held in the heap
+   */
+  public int getBufferedCount() {
+
+    return count_;
+
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    while (count_ > 0) {
+      emitMin();
+    }
+
+    closeRun();
+
+  }
+
+  @Override
+  public Set<File> getFiles() {
+
+    return files_;
+
+  }
+
+  /**
+   * Remove the smallest entry from the heap and append it to its run,
+   * starting a new run file when the entry belongs to the next run.
+   */
+  private void emitMin() throws IOException {
+
+    final LogEntry entry = entries_[0];
+    final long key = keys_[0];
+    final int run = runs_[0];
+
+    count_--;
+    bytes_ -= entry.getSizeByte();
+    move(count_, 0);
+    entries_[count_] = null;
+    siftDown(0);
+
+    if (writer_ == null || run != currentRun_) {
+      startRun(run);
+    }
+
+    writer_.write(entry);
+    runEntries_++;
+    lastKey_ = key;
+
+  }
+
+  private void startRun(final int run) throws IOException {
+
+    closeRun();
+
+    final File tempFile = File.createTempFile("temp-sort-file-", format_.getSuffix());
+    tempFile.deleteOnExit();
+    files_.add(tempFile);
+
+    writer_ = format_.openWriter(tempFile, RollingSortedLogWriter.WRITE_BUFFER_SIZE, codec_);
+    file_ = tempFile;
+    currentRun_ = run;
+
+  }
+
+  private void closeRun() throws IOException {
+
+    if (writer_ == null) {
+      return;
+    }
+
+    writer_.close();
+    writer_ = null;
+
+    final long bytes = file_.length();
+    listener_.runWritten(runEntries_, bytes, 0, 0);
+    listener_.tempSpaceChanged(bytes);
+    runEntries_ = 0;
+
+  }
+
+  private void push(final LogEntry entry, final long key, final int run) {
+
+    if (count_ == entries_.length) {
+      grow();
+    }
+
+    entries_[count_] = entry;
+    keys_[count_] = key;
+    runs_[count_] = run;
+    sequences_[count_] = nextSequence_++;
+    bytes_ += entry.getSizeByte();
+
+    siftUp(count_++);
+
+  }
+
+  /**
+   * Grow the heap by half again, bounded by the line limit.
+   */
+  private void grow() {
+
+    final long grown = (long) entries_.length + (entries_.length >> 1) + 1;
+    final int capacity = (int) Math.min(grown, maxLineCount_);
+
+    entries_ = Arrays.copyOf(entries_, capacity);
+    keys_ = Arrays.copyOf(keys_, capacity);
+    runs_ = Arrays.copyOf(runs_, capacity);
+    sequences_ = Arrays.copyOf(sequences_, capacity);
+
+  }
+
+  private void siftUp(int index) {
+
+    while (index > 0) {
+
+      final int parent = (index - 1) >>> 1;
+
+      if (!less(index, parent)) {
+        return;
+      }
+
+      swap(index, parent);
+      index = parent;
+
+    }
+
+  }
+
+  private void siftDown(int index) {
+
+    while (true) {
+
+      final int left = index * 2 + 1;
+      if (left >= count_) {
+        return;
+      }
+
+      final int right = left + 1;
+      final int child = right < count_ && less(right, left) ? right : left;
+
+      if (!less(child, index)) {
+        return;
+      }
+
+      swap(index, child);
+      index = child;
+
+    }
+
+  }
+
+  private boolean less(final int a, final int b) {
+
+    if (runs_[a] != runs_[b]) {
+      return runs_[a] < runs_[b];
+    }
+    if (keys_[a] != keys_[b]) {
+      return keys_[a] < keys_[b];
+    }
+    return sequences_[a] < sequences_[b];
+
+  }
+
+  private void swap(final int a, final int b) {
+
+    final LogEntry entry = entries_[a];
+    final long key = keys_[a];
+    final int run = runs_[a];
+    final long sequence = sequences_[a];
+
+    move(b, a);
+
+    entries_[b] = entry;
+    keys_[b] = key;
+    runs_[b] = run;
+    sequences_[b] = sequence;
+
+  }
+
+  private void move(final int from, final int to) {
+
+    entries_[to] = entries_[from];
+    keys_[to] = keys_[from];
+    runs_[to] = runs_[from];
+    sequences_[to] = sequences_[from];
+
+  }
+
+}
@@ -0,0 +1,162 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ReplacementSelectionWriterTest {
+
+  @Test
+  public void testRandomInput() throws IOException {
+    
+    final String input = ParallelRunGeneratorTest.randomLog(20000);
+    
+    final RunGenerator rolling = new RollingSortedLogWriter(1000);
+    final RunGenerator selection = new ReplacementSelectionWriter(1000);
+    addAll(rolling, input);
+    addAll(selection, input);
+    
+    // runs average twice the heap size on random input
+    assertThat(rolling.getFiles().size(), equalTo(20));
+    assertThat(selection.getFiles().size(), greaterThan(8));
+    assertThat(selection.getFiles().size(), lessThan(13));
+    
+    assertThat(merge(selection.getFiles()), equalTo(merge(rolling.getFiles())));
+    
+  }
+  
+  @Test
+  public void testNearlySortedInput() throws IOException {
+    
+    // sorted input with entries displaced by less than the heap size
+    final List<String> sorted = sortedLines(ParallelRunGeneratorTest.randomLog(5000));
+    final Random random = new Random(3);
+    final List<String> lines = new ArrayList<>();
+    final long[] jittered = new long[sorted.size()];
+    for (int i = 0; i < jittered.length; i++) {
+      jittered[i] = ((long) (i + random.nextInt(50)) << 32) | i;
+    }
+    Arrays.sort(jittered);
+    for (final long position : jittered) {
+      lines.add(sorted.get((int) position));
+    }
+    final String input = String.join(System.lineSeparator(), lines);
+    
+    final RunGenerator selection = new ReplacementSelectionWriter(100);
+    addAll(selection, input);
+    
+    assertThat(selection.getFiles().size(), equalTo(1));
+    assertThat(merge(selection.getFiles()), equalTo(sortedLines(input)));
+    
+  }
+  
+  @Test
+  public void testTies() throws IOException {
+    
+    // a handful of distinct keys, so runs split inside runs of equal keys
+    final String input = ParallelRunGeneratorTest.randomLog(3000)
+        .replaceAll(":\\d\\d\\.\\d\\d\\d", ":00.000");
+    
+    final RunGenerator selection = new ReplacementSelectionWriter(50);
+    addAll(selection, input);
+    
+    assertThat(merge(selection.getFiles()), equalTo(sortedLines(input)));
+    
+  }
+  
+  @Test
+  public void testByteBudget() throws IOException {
+    
+    final LogEntry entry = LogEntry.fromString("[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 random]");
+    final ReplacementSelectionWriter writer = 
+        ReplacementSelectionWriter.withByteBudget(entry.getSizeByte() * 3);
+    
+    for (int i = 0; i < 5; i++) {
+      writer.addLogEntry(entry);
+      assertThat(writer.getBufferedCount(), equalTo(Math.min(i + 1, 3)));
+    }
+    
+    writer.close();
+    assertThat(writer.getFiles().size(), equalTo(1));
+    
+  }
+  
+  @Test
+  public void testOptions() throws IOException {
+    
+    final SortOptions options = new SortOptions()
+        .setRunLineCount(500)
+        .setReplacementSelection(true)
+        .setSpillCodec(new DeflateBlockCodec());
+    final RunGenerator selection = RunGenerator.create(options, null);
+    addAll(selection, ParallelRunGeneratorTest.randomLog(2000));
+    
+    assertThat(selection instanceof ReplacementSelectionWriter, equalTo(true));
+    
+    final List<String> merged = new ArrayList<>();
+    final SortedLogReader reader = new SortedLogReader(selection.getFiles(), 1024, 
+        options.getRunFormat(), options.getSpillCodec());
+    while (reader.hasNext()) {
+      merged.add(reader.getNextEntry().getLogLine());
+    }
+    
+    assertThat(merged, equalTo(sortedLines(ParallelRunGeneratorTest.randomLog(2000))));
+    
+  }
+  
+  private static void addAll(final RunGenerator generator, final String input) throws IOException {
+    
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      generator.addLogEntry(LogEntry.fromString(line));
+    }
+    generator.close();
+    
+  }
+  
+  private static List<String> merge(final Set<File> files) throws IOException {
+    
+    final List<String> lines = new ArrayList<>();
+    final SortedLogReader reader = new SortedLogReader(files);
+    while (reader.hasNext()) {
+      lines.add(reader.getNextEntry().getLogLine());
+    }
+    return lines;
+    
+  }
+  
+  /**
+   * @return the lines of input in stable sorted order
+   */
+  private static List<String> sortedLines(final String input) throws IOException {
+    
+    final List<LogEntry> entries = new ArrayList<>();
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      entries.add(LogEntry.fromString(line));
+    }
+    Collections.sort(entries);
+    
+    final List<String> lines = new ArrayList<>();
+    for (final LogEntry entry : entries) {
+      lines.add(entry.getLogLine());
+    }
+    return lines;
+    
+  }
+  
+}
@@ -1,13 +1,18 @@
 package samples.logutils;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.Writer;
-import java.nio.channels.Channels;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * A utility class to write log entries to a collection of different files.
@@ -17,19 +22,166 @@ import java.util.Set;
  * {@link File#deleteOnExit()} invoked. 
  * 
  * The LogEntries will be sorted by this writer prior to writing.
+ * 
+ * Runs are sized either by a maximum line count or, via 
+ * {@link #withByteBudget(long)}, by the estimated heap retained by the
+ * buffered entries (see {@link LogEntry#getSizeByte()}). The entry buffer
+ * starts small and grows as needed up to the limit. 
+ * 
+ * Optionally the sort and write of a full buffer can be handed to an
+ * executor. The writer then continues to accept entries into a fresh 
+ * buffer while the previous one is flushed, up to a fixed number of 
+ * buffers in flight. Files are always created, and reported by 
+ * {@link #getFiles()}, in the order the buffers were filled. 
+ * 
+ * Files are written as uncompressed {@link RunFormat#TEXT} unless created
+ * through {@link #create(SortOptions, ExecutorService)}, which can also 
+ * buffer runs in a {@link CompactRunBuffer} rather than as entry objects. 
  */
-public class RollingSortedLogWriter {
+public class RollingSortedLogWriter implements RunGenerator {
 
-  private int currentCount_;
-  private final LogEntry[] entries_; 
-  private final Set<File> files_ = new HashSet<>();
+  /** Initial entry capacity of a buffer, grown on demand */
+  static final int INITIAL_CAPACITY = 1024;
+  
+  /** Output buffer size used when writing a temporary file */
+  static final int WRITE_BUFFER_SIZE = 65536;
+  
+  // largest array size the VM will reliably allocate
+  private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+  
+  private RunBuffer buffer_; 
+  private final int maxLineCount_;
+  private final long maxBytes_;
+  private final RunFormat format_;
+  private final SpillCodec codec_;
+  private final boolean compact_;
+  private final SortListener listener_;
+  private final Set<File> files_ = new LinkedHashSet<>();
+  
+  // asynchronous flush support, null/empty when flushing inline
+  private final ExecutorService flushExecutor_;
+  private final BlockingQueue<RunBuffer> freeBuffers_;
+  private final List<Future<?>> pendingFlushes_ = new ArrayList<>();
+  private final int maxBuffers_;
+  private int allocatedBuffers_;
 
   public RollingSortedLogWriter(final int maxLineCount) {
-    // Note: maxLineCount is not an entirely accurate/best measurement.
-    // A more optimal constructor argument would be a "desired file size"
-    // but I have not authored that implementation yet. 
-    entries_ = new LogEntry[maxLineCount];
-    currentCount_ = 0;
+    // Note: maxLineCount is not an entirely accurate/best measurement,
+    // see withByteBudget(..) for sizing files by memory instead. 
+    this(maxLineCount, null, 1);
+  }
+  
+  /**
+   * Create a writer that sorts and writes full buffers on the given 
+   * executor. At most maxInFlightBuffers buffers (including the one 
+   * currently being filled) are allocated; once they are all in use 
+   * {@link #addLogEntry(LogEntry)} blocks until a flush completes. 
+   * 
+   * @param maxLineCount the number of entries per temporary file
+   * @param flushExecutor the executor to sort and write on, or null to
+   *        sort and write on the calling thread
+   * @param maxInFlightBuffers the maximum number of allocated buffers
+   */
+  public RollingSortedLogWriter(final int maxLineCount, 
+                                final ExecutorService flushExecutor,
+                                final int maxInFlightBuffers) {
+    
+    this(maxLineCount, Long.MAX_VALUE, flushExecutor, maxInFlightBuffers, 
+         RunFormat.TEXT, SpillCodec.NONE, false, SortListener.NONE);
+    
+  }
+  
+  private RollingSortedLogWriter(final int maxLineCount, 
+                                 final long maxBytes,
+                                 final ExecutorService flushExecutor,
+                                 final int maxInFlightBuffers,
+                                 final RunFormat format,
+                                 final SpillCodec codec,
+                                 final boolean compact,
+                                 final SortListener listener) {
+    
+    if (maxLineCount < 1)
+      throw new IllegalArgumentException("Line count must be positive.");
+    if (maxBytes < 1)
+      throw new IllegalArgumentException("Byte budget must be positive.");
+    if (flushExecutor != null && maxInFlightBuffers < 2)
+      throw new IllegalArgumentException("At least two in-flight buffers are required.");
+    
+    maxLineCount_ = Math.min(maxLineCount, MAX_ARRAY_LENGTH);
+    maxBytes_ = maxBytes;
+    format_ = format;
+    codec_ = codec;
+    compact_ = compact;
+    listener_ = listener;
+    flushExecutor_ = flushExecutor;
+    maxBuffers_ = maxInFlightBuffers;
+    freeBuffers_ = new ArrayBlockingQueue<>(maxInFlightBuffers);
+    buffer_ = newBuffer();
+    allocatedBuffers_ = 1;
+    
+  }
+  
+  /**
+   * Create a writer that rolls to a new file once the estimated heap 
+   * retained by the buffered entries reaches maxBytes. 
+   * 
+   * @param maxBytes the per-file memory budget in bytes
+   * @return a new writer
+   */
+  public static RollingSortedLogWriter withByteBudget(final long maxBytes) {
+    
+    return withByteBudget(maxBytes, null, 1);
+    
+  }
+  
+  /**
+   * Create a memory budgeted writer that flushes on the given executor. 
+   * Note the budget applies per buffer, so up to maxInFlightBuffers times
+   * maxBytes may be retained at once. 
+   * 
+   * @param maxBytes the per-file memory budget in bytes
+   * @param flushExecutor the executor to sort and write on, or null to
+   *        sort and write on the calling thread
+   * @param maxInFlightBuffers the maximum number of allocated buffers
+   * @return a new writer
+   */
+  public static RollingSortedLogWriter withByteBudget(final long maxBytes, 
+                                                      final ExecutorService flushExecutor,
+                                                      final int maxInFlightBuffers) {
+    
+    return new RollingSortedLogWriter(MAX_ARRAY_LENGTH, maxBytes, 
+                                      flushExecutor, maxInFlightBuffers, 
+                                      RunFormat.TEXT, SpillCodec.NONE, false,
+                                      SortListener.NONE);
+    
+  }
+  
+  /**
+   * Create a writer sized, encoded and compressed according to the sort
+   * options, reporting each run to {@link SortOptions#getListener()}. 
+   * 
+   * @param options the sort options 
+   * @param flushExecutor the executor to sort and write on, or null to
+   *        sort and write on the calling thread
+   * @return a new writer
+   */
+  public static RollingSortedLogWriter create(final SortOptions options, 
+                                              final ExecutorService flushExecutor) {
+    
+    final int maxBuffers = flushExecutor == null ? 1 : options.getInFlightBuffers();
+    
+    if (options.getRunByteBudget() > 0) {
+      return new RollingSortedLogWriter(MAX_ARRAY_LENGTH, options.getRunByteBudget(), 
+                                        flushExecutor, maxBuffers, 
+                                        options.getRunFormat(), options.getSpillCodec(),
+                                        options.isCompactRunBuffer(), options.getListener());
+    }
+    
+    return new RollingSortedLogWriter(options.getRunLineCount(), Long.MAX_VALUE, 
+                                      flushExecutor, maxBuffers, 
+                                      options.getRunFormat(), options.getSpillCodec(),
+                                      options.isCompactRunBuffer(), options.getListener());
+    
   }
   
   /**
@@ -40,15 +192,44 @@ public class RollingSortedLogWriter {
    */
   public void addLogEntry(final LogEntry entry) throws IOException {
     
-    entries_[currentCount_] = entry;
-    
-    currentCount_++;
+    if (!buffer_.add(entry)) {
+      
+      // a compact buffer ran out of slab space before the limits were hit
+      if (buffer_.size() == 0)
+        throw new IllegalArgumentException("Log line exceeds the run buffer capacity.");
+      
+      rollFile();
+      
+      if (!buffer_.add(entry))
+        throw new IllegalArgumentException("Log line exceeds the run buffer capacity.");
+      
+    }
     
-    if (currentCount_ == entries_.length) {
+    if (buffer_.size() == maxLineCount_ || buffer_.getSizeByte() >= maxBytes_) {
       rollFile();
     }
     
   }
+  
+  /**
+   * @return the estimated heap retained by the entries pending in the 
+   *         current buffer 
+   */
+  public long getBufferedBytes() {
+    
+    return buffer_.getSizeByte();
+    
+  }
+  
+  private RunBuffer newBuffer() {
+    
+    if (compact_) {
+      return new CompactRunBuffer(INITIAL_CAPACITY, maxLineCount_, maxBytes_);
+    }
+    
+    return new EntryRunBuffer(INITIAL_CAPACITY, maxLineCount_);
+    
+  }
 
   /**
    * Closes this writer. If there are any pending log entries that have
@@ -57,10 +238,16 @@ public class RollingSortedLogWriter {
    */
   public void close() throws IOException {
     
-    if (currentCount_ != 0) {
+    if (buffer_.size() != 0) {
       rollFile();
     }
     
+    // wait for any asynchronous flushes to land on disk
+    for (final Future<?> future : pendingFlushes_) {
+      awaitFlush(future);
+    }
+    pendingFlushes_.clear();
+    
   }
   
   /**
@@ -82,42 +269,152 @@ public class RollingSortedLogWriter {
    */
   protected void rollFile() throws IOException {
     
-    Arrays.sort(entries_, 0, currentCount_);
-    flushToFile();
-    currentCount_ = 0;
+    // allocate the file up front so files are ordered by buffer, not by
+    // whichever asynchronous flush happens to finish first
+    final File tempFile = createTempFile();
+    
+    if (flushExecutor_ == null) {
+      
+      sortAndFlush(tempFile, buffer_);
+      buffer_.clear();
+      return;
+      
+    }
+    
+    reapCompletedFlushes();
+    
+    final RunBuffer buffer = buffer_;
+    
+    pendingFlushes_.add(flushExecutor_.submit(() -> {
+      
+      try {
+        sortAndFlush(tempFile, buffer);
+      } finally {
+        // release the entries and hand the buffer back for reuse
+        buffer.clear();
+        freeBuffers_.add(buffer);
+      }
+      
+      return null;
+      
+    }));
+    
+    buffer_ = nextFreeBuffer();
+    
+  }
+  
+  /**
+   * Fetch a buffer to fill next. Allocates a new buffer while under the
+   * in-flight limit, otherwise blocks until a pending flush returns one.
+   */
+  private RunBuffer nextFreeBuffer() throws IOException {
+    
+    final RunBuffer recycled = freeBuffers_.poll();
+    
+    if (recycled != null) {
+      return recycled;
+    }
+    
+    if (allocatedBuffers_ < maxBuffers_) {
+      allocatedBuffers_++;
+      return newBuffer();
+    }
+    
+    try {
+      return freeBuffers_.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a free buffer");
+    }
+    
+  }
+  
+  /**
+   * Surface failures from finished flushes early rather than at close.
+   */
+  private void reapCompletedFlushes() throws IOException {
+    
+    for (final Iterator<Future<?>> it = pendingFlushes_.iterator(); it.hasNext();) {
+      
+      final Future<?> future = it.next();
+      
+      if (future.isDone()) {
+        awaitFlush(future);
+        it.remove();
+      }
+      
+    }
+    
+  }
+  
+  private static void awaitFlush(final Future<?> future) throws IOException {
+    
+    try {
+      
+      future.get();
+      
+    } catch (InterruptedException e) {
+      
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a flush");
+      
+    } catch (ExecutionException e) {
+      
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException("Unable to flush sorted file", cause);
+      
+    }
     
   }
   
   /**
-   * Allocate a new file and write the string versions of the log entries
-   * to the file. The new file will be marked as "temporary" by the JVM and
-   * will be deleted when the JVM exits. 
+   * Allocate a new file to hold a sorted run. The new file will be marked
+   * as "temporary" by the JVM and will be deleted when the JVM exits. 
    */
-  private void flushToFile() throws IOException {
+  private File createTempFile() throws IOException {
     
-    final File tempFile = File.createTempFile("temp-sort-file-", ".txt");
+    final File tempFile = File.createTempFile("temp-sort-file-", format_.getSuffix());
     tempFile.deleteOnExit();
     files_.add(tempFile);
+    return tempFile;
+    
+  }
+  
+  /**
+   * Sort the buffer and write it to the file, timing both for the listener.
+   */
+  private void sortAndFlush(final File tempFile, final RunBuffer buffer) throws IOException {
+    
+    final long start = System.nanoTime();
+    buffer.sort();
+    final long sorted = System.nanoTime();
+    flushToFile(tempFile, buffer);
+    final long written = System.nanoTime();
     
-    final FileOutputStream fos = new FileOutputStream(tempFile);
-    final Writer writer = Channels.newWriter(fos.getChannel(), "UTF-8");
+    final long bytes = tempFile.length();
+    listener_.runWritten(buffer.size(), bytes, sorted - start, written - sorted);
+    listener_.tempSpaceChanged(bytes);
+    
+  }
+  
+  /**
+   * Write the buffered entries to the file in this writer's format. 
+   */
+  private void flushToFile(final File tempFile, final RunBuffer buffer) throws IOException {
+    
+    final RunWriter writer = format_.openWriter(tempFile, WRITE_BUFFER_SIZE, codec_);
     
     try {
 
-      for (int i = 0; i < currentCount_; i++) {
-        final LogEntry entry = entries_[i];
-        writer.write(entry.getLogLine());
-        
-        if (i < currentCount_ - 1) {
-          writer.write(System.lineSeparator());
-        }
-        
-        writer.flush();
-      }
+      buffer.writeTo(writer);
       
     } finally {
       
-      fos.close();
+      writer.close();
       
     }
     
@@ -61,5 +61,39 @@ public class RollingSortedLogWriterTest {
     assertThat(rslw.getFiles().size(), equalTo(4));
     
   }
+  
+  @Test
+  public void testByteBudget() throws IOException {
+    
+    final LogEntry entry = LogEntry.fromString("[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 random]");
+    final RollingSortedLogWriter rslw = RollingSortedLogWriter.withByteBudget(entry.getSizeByte() * 2);
+    
+    rslw.addLogEntry(entry);
+    assertThat(rslw.getBufferedBytes(), equalTo(entry.getSizeByte()));
+    
+    rslw.addLogEntry(entry); // reaches the budget, rolls
+    assertThat(rslw.getBufferedBytes(), equalTo(0L));
+    
+    rslw.addLogEntry(entry);
+    rslw.close();
+    
+    assertThat(rslw.getFiles().size(), equalTo(2));
+    
+  }
+  
+  @Test
+  public void testBufferGrowth() throws IOException {
+    
+    final int lineCount = RollingSortedLogWriter.INITIAL_CAPACITY * 3;
+    final RollingSortedLogWriter rslw = new RollingSortedLogWriter(lineCount);
+    
+    for (int i = 0; i < lineCount + 1; i++) {
+      rslw.addLogEntry(LogEntry.fromString("[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 random]"));
+    }
+    
+    rslw.close();
+    assertThat(rslw.getFiles().size(), equalTo(2));
+    
+  }
 
 }
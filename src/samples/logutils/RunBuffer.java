@@ -0,0 +1,52 @@
+package samples.logutils;
+
+import java.io.IOException;
+
+/**
+ * The in-memory buffer of a single run, filled by
+ * {@link RollingSortedLogWriter} and then sorted and written out as one
+ * sorted temporary file. Buffers are reused once written, see
+ * {@link #clear()}.
+ *
+ * A buffer must sort stably: entries with equal sort keys are written in
+ * the order they were added.
+ */
+abstract class RunBuffer {
+
+  /**
+   * Append an entry.
+   * @param entry the entry to add
+   * @return false if the entry does not fit, in which case the buffer is
+   *         left unchanged
+   */
+  abstract boolean add(LogEntry entry);
+
+  /**
+   * @return the number of buffered entries
+   */
+  abstract int size();
+
+  /**
+   * @return the estimated memory retained by the buffered entries in bytes
+   */
+  abstract long getSizeByte();
+
+  /**
+   * Sort the buffered entries by {@link LogEntry#getSortKey()}, keeping
+   * entries with equal keys in the order they were added.
+   */
+  abstract void sort();
+
+  /**
+   * Write the buffered entries, in buffer order, to a run writer.
+   * @param writer the destination
+   * @throws IOException on disk IO errors
+   */
+  abstract void writeTo(RunWriter writer) throws IOException;
+
+  /**
+   * Drop all entries so the buffer can be filled again.
+   */
+  abstract void clear();
+
+}
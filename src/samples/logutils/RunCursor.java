@@ -0,0 +1,42 @@
+package samples.logutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequential access to the records of a sorted run. A cursor starts before
+ * the first record; each successful {@link #advance()} makes the next 
+ * record current. The sort key of the current record is available without
+ * materializing a {@link LogEntry}. 
+ */
+abstract class RunCursor implements Closeable {
+
+  /**
+   * Move to the next record. 
+   * @return false once the run is exhausted 
+   * @throws IOException on disk IO errors 
+   */
+  abstract boolean advance() throws IOException;
+  
+  /**
+   * @return the sort key of the current record, see {@link LogEntry#getSortKey()}
+   */
+  abstract long key();
+  
+  /**
+   * @return the current record as a new log entry 
+   */
+  abstract LogEntry entry();
+  
+  /**
+   * Write the current record to a run writer. Formats that already hold 
+   * the encoded record override this to skip building a {@link LogEntry}. 
+   * 
+   * @param writer the destination 
+   * @throws IOException on disk IO errors 
+   */
+  void copyTo(final RunWriter writer) throws IOException {
+    writer.write(entry());
+  }
+  
+}
@@ -0,0 +1,402 @@
+package samples.logutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import samples.logutils.LogEntry.Severity;
+
+/**
+ * The on-disk encodings of sorted temporary files. 
+ * 
+ * <ul>
+ * <li>{@link #TEXT} - the raw log lines, one per line. Human readable, 
+ * but every line has to be parsed again while merging.</li>
+ * <li>{@link #BINARY} - each record is the epoch millisecond timestamp 
+ * (8 bytes), the severity ordinal (1 byte), the line length (4 bytes) and 
+ * the UTF-8 bytes of the raw line. Merging compares the stored keys and 
+ * never parses a line. Uncompressed runs end with a {@link RunIndex} of
+ * sparse checkpoints.</li>
+ * </ul>
+ */
+public enum RunFormat {
+
+  TEXT(".txt") {
+    
+    @Override
+    RunWriter newWriter(final OutputStream out) {
+      return new TextWriter(out);
+    }
+    
+    @Override
+    RunCursor newCursor(final InputStream in) {
+      return new TextCursor(in);
+    }
+    
+  },
+  
+  BINARY(".run") {
+    
+    @Override
+    RunWriter newWriter(final OutputStream out) {
+      return new BinaryWriter(out, false);
+    }
+    
+    @Override
+    RunCursor newCursor(final InputStream in) {
+      return new BinaryCursor(in);
+    }
+    
+    /**
+     * Uncompressed runs are seekable, so they get an index trailer. 
+     */
+    @Override
+    RunWriter openWriter(final File file, 
+                         final int bufferSize, 
+                         final SpillCodec codec) throws IOException {
+      
+      if (codec != SpillCodec.NONE) {
+        return super.openWriter(file, bufferSize, codec);
+      }
+      
+      return new BinaryWriter(
+          new BufferedOutputStream(new FileOutputStream(file), bufferSize), true);
+      
+    }
+    
+  };
+  
+  private static final Severity[] SEVERITIES = Severity.values();
+  
+  // binary record header: timestamp, severity and length 
+  private static final int HEADER_LENGTH = 13;
+  
+  private final String suffix_;
+  
+  private RunFormat(final String suffix) {
+    suffix_ = suffix;
+  }
+  
+  /**
+   * @return the file name suffix used for temporary files of this format 
+   */
+  public String getSuffix() {
+    return suffix_;
+  }
+  
+  abstract RunWriter newWriter(OutputStream out);
+  
+  abstract RunCursor newCursor(InputStream in);
+  
+  /**
+   * Open a buffered writer over a file, encoding with the given codec. 
+   */
+  RunWriter openWriter(final File file, 
+                       final int bufferSize, 
+                       final SpillCodec codec) throws IOException {
+    
+    return newWriter(new BufferedOutputStream(
+        codec.encode(new FileOutputStream(file)), bufferSize));
+    
+  }
+  
+  /**
+   * Open a buffered cursor over a file, decoding with the given codec. The
+   * cursor is positioned before the first record. 
+   */
+  RunCursor openCursor(final File file, 
+                       final int bufferSize, 
+                       final SpillCodec codec) throws IOException {
+    
+    return openCursor(new FileInputStream(file), bufferSize, codec);
+    
+  }
+  
+  /**
+   * Open a buffered cursor over the raw bytes of a run, decoding with the
+   * given codec. 
+   */
+  RunCursor openCursor(final InputStream in, 
+                       final int bufferSize, 
+                       final SpillCodec codec) throws IOException {
+    
+    return newCursor(new BufferedInputStream(codec.decode(in), bufferSize));
+    
+  }
+  
+  /** Raw log lines separated by the platform line separator */
+  private static final class TextWriter implements RunWriter {
+    
+    private final OutputStream out_;
+    private final Writer writer_;
+    private boolean first_ = true;
+    
+    TextWriter(final OutputStream out) {
+      out_ = out;
+      writer_ = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+    
+    @Override
+    public void write(final LogEntry entry) throws IOException {
+      
+      if (entry.isUtf8()) {
+        
+        write(entry.getTimestampMillis(), entry.getSeverity(), entry.getUtf8Array(), 
+              entry.getUtf8Offset(), entry.getUtf8Length());
+        return;
+        
+      }
+      
+      separate();
+      writer_.write(entry.getLogLine());
+      
+    }
+    
+    @Override
+    public void write(final long timestamp, 
+                      final Severity severity, 
+                      final byte[] utf8, 
+                      final int offset, 
+                      final int length) throws IOException {
+      
+      separate();
+      writer_.flush();
+      out_.write(utf8, offset, length);
+      
+    }
+    
+    private void separate() throws IOException {
+      
+      if (!first_) {
+        writer_.write(System.lineSeparator());
+      }
+      first_ = false;
+      
+    }
+    
+    @Override
+    public void close() throws IOException {
+      writer_.close();
+    }
+    
+  }
+  
+  private static final class TextCursor extends RunCursor {
+    
+    private final BufferedReader reader_;
+    private LogEntry current_;
+    
+    TextCursor(final InputStream in) {
+      reader_ = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+    
+    @Override
+    boolean advance() throws IOException {
+      
+      final String line = reader_.readLine();
+      current_ = line == null ? null : LogEntry.fromString(line);
+      return current_ != null;
+      
+    }
+    
+    @Override
+    long key() {
+      return current_.getSortKey();
+    }
+    
+    @Override
+    LogEntry entry() {
+      return current_;
+    }
+    
+    @Override
+    public void close() throws IOException {
+      reader_.close();
+    }
+    
+  }
+  
+  private static final class BinaryWriter implements RunWriter {
+    
+    private final DataOutputStream out_;
+    private final RunIndex index_;
+    private long position_;
+    private long nextCheckpoint_;
+    
+    BinaryWriter(final OutputStream out, final boolean indexed) {
+      out_ = new DataOutputStream(out);
+      index_ = indexed ? new RunIndex() : null;
+    }
+    
+    @Override
+    public void write(final LogEntry entry) throws IOException {
+      
+      if (entry.isUtf8()) {
+        
+        write(entry.getTimestampMillis(), entry.getSeverity(), entry.getUtf8Array(), 
+              entry.getUtf8Offset(), entry.getUtf8Length());
+        return;
+        
+      }
+      
+      final byte[] utf8 = entry.getLogLine().getBytes(StandardCharsets.UTF_8);
+      write(entry.getTimestampMillis(), entry.getSeverity(), utf8, 0, utf8.length);
+      
+    }
+    
+    @Override
+    public void write(final long timestamp, 
+                      final Severity severity, 
+                      final byte[] utf8, 
+                      final int offset, 
+                      final int length) throws IOException {
+      
+      if (index_ != null && position_ >= nextCheckpoint_) {
+        index_.add(LogEntry.sortKey(timestamp, severity), position_);
+        nextCheckpoint_ = position_ + RunIndex.CHECKPOINT_INTERVAL;
+      }
+      
+      out_.writeLong(timestamp);
+      out_.writeByte(severity.ordinal());
+      out_.writeInt(length);
+      out_.write(utf8, offset, length);
+      position_ += HEADER_LENGTH + length;
+      
+    }
+    
+    @Override
+    public void close() throws IOException {
+      
+      try {
+        if (index_ != null) {
+          index_.writeTrailer(out_, position_);
+        }
+      } finally {
+        out_.close();
+      }
+      
+    }
+    
+  }
+  
+  private static final class BinaryCursor extends RunCursor {
+    
+    private final InputStream in_;
+    private final byte[] header_ = new byte[HEADER_LENGTH];
+    private byte[] line_ = new byte[256];
+    private int length_;
+    private long timestamp_;
+    private Severity severity_;
+    
+    BinaryCursor(final InputStream in) {
+      in_ = in;
+    }
+    
+    @Override
+    boolean advance() throws IOException {
+      
+      if (!readFully(header_, HEADER_LENGTH, true)) {
+        return false;
+      }
+      
+      if (header_[8] == RunIndex.MARKER) {
+        return false; // the index trailer follows the last record 
+      }
+      
+      timestamp_ = getLong(header_, 0);
+      length_ = ((header_[9] & 0xff) << 24) | ((header_[10] & 0xff) << 16) 
+          | ((header_[11] & 0xff) << 8) | (header_[12] & 0xff);
+      
+      if (header_[8] < 0 || header_[8] >= SEVERITIES.length || length_ < 0) {
+        throw new IOException("Corrupt sorted run record");
+      }
+      
+      severity_ = SEVERITIES[header_[8]];
+      
+      if (length_ > line_.length) {
+        line_ = new byte[Math.max(length_, line_.length * 2)];
+      }
+      
+      readFully(line_, length_, false);
+      return true;
+      
+    }
+    
+    @Override
+    long key() {
+      return LogEntry.sortKey(timestamp_, severity_);
+    }
+    
+    /**
+     * @return a byte backed entry over a copy of the record, the line is
+     *         not decoded 
+     */
+    @Override
+    LogEntry entry() {
+      return new LogEntry(Arrays.copyOf(line_, length_), 0, length_, timestamp_, severity_);
+    }
+    
+    @Override
+    void copyTo(final RunWriter writer) throws IOException {
+      writer.write(timestamp_, severity_, line_, 0, length_);
+    }
+    
+    @Override
+    public void close() throws IOException {
+      in_.close();
+    }
+    
+    /**
+     * @return false if the stream ended cleanly before the first byte 
+     */
+    private boolean readFully(final byte[] buffer, 
+                              final int length, 
+                              final boolean endAllowed) throws IOException {
+      
+      int read = 0;
+      
+      while (read < length) {
+        
+        final int count = in_.read(buffer, read, length - read);
+        
+        if (count < 0) {
+          if (read == 0 && endAllowed) {
+            return false;
+          }
+          throw new EOFException("Truncated sorted run record");
+        }
+        
+        read += count;
+        
+      }
+      
+      return true;
+      
+    }
+    
+    private static long getLong(final byte[] buffer, final int offset) {
+      
+      long value = 0;
+      for (int i = offset; i < offset + 8; i++) {
+        value = (value << 8) | (buffer[i] & 0xff);
+      }
+      return value;
+      
+    }
+    
+  }
+  
+}
@@ -0,0 +1,152 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RunFormatTest {
+
+  private static final List<LogEntry> ENTRIES = Arrays.asList(
+      LogEntry.fromString("[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 random]"),
+      LogEntry.fromString("[2015-11-19 10:31:55.128+0000] [HOST3] [INFO] [CLASS6] [MESSAGE5 \u00fcnicode \u2603]"),
+      LogEntry.fromString("[2015-11-19 10:33:54.934+0000] [HOST1] [WARN] [CLASS1] [MESSAGE1 something]"));
+  
+  @Test
+  public void testTextRoundTrip() throws IOException {
+    roundTrip(RunFormat.TEXT);
+  }
+  
+  @Test
+  public void testBinaryRoundTrip() throws IOException {
+    roundTrip(RunFormat.BINARY);
+  }
+  
+  @Test
+  public void testBinaryCopy() throws IOException {
+    
+    final File source = write(RunFormat.BINARY);
+    final File copy = tempFile(RunFormat.BINARY);
+    
+    final RunCursor cursor = RunFormat.BINARY.openCursor(source, 1024, SpillCodec.NONE);
+    final RunWriter writer = RunFormat.BINARY.openWriter(copy, 1024, SpillCodec.NONE);
+    while (cursor.advance()) {
+      cursor.copyTo(writer);
+    }
+    writer.close();
+    cursor.close();
+    
+    assertThat(copy.length(), equalTo(source.length()));
+    assertThat(read(RunFormat.BINARY, copy), equalTo(ENTRIES));
+    
+  }
+  
+  @Test
+  public void testByteBackedEntries() throws IOException {
+    
+    final List<LogEntry> entries = new ArrayList<>();
+    for (final LogEntry entry : ENTRIES) {
+      final byte[] utf8 = entry.getLogLine().getBytes(StandardCharsets.UTF_8);
+      entries.add(LogEntry.fromUtf8(utf8, 0, utf8.length));
+    }
+    
+    for (final RunFormat format : RunFormat.values()) {
+      
+      final File file = tempFile(format);
+      final RunWriter writer = format.openWriter(file, 1024, SpillCodec.NONE);
+      for (final LogEntry entry : entries) {
+        writer.write(entry);
+      }
+      writer.close();
+      
+      assertThat(file.length(), equalTo(write(format).length()));
+      assertThat(read(format, file), equalTo(ENTRIES));
+      
+    }
+    
+    // binary cursors hand out entries that are never decoded
+    final RunCursor cursor = RunFormat.BINARY.openCursor(write(RunFormat.BINARY), 1024, SpillCodec.NONE);
+    assertTrue(cursor.advance());
+    assertTrue(cursor.entry().isUtf8());
+    cursor.close();
+    
+  }
+  
+  @Test(expected = EOFException.class)
+  public void testTruncatedBinary() throws IOException {
+    
+    final File file = tempFile(RunFormat.BINARY);
+    final FileOutputStream fos = new FileOutputStream(file);
+    fos.write(new byte[]{0, 0, 1, 2});
+    fos.close();
+    
+    final RunCursor cursor = RunFormat.BINARY.openCursor(file, 1024, SpillCodec.NONE);
+    try {
+      cursor.advance();
+    } finally {
+      cursor.close();
+    }
+    
+  }
+  
+  private static void roundTrip(final RunFormat format) throws IOException {
+    
+    final File file = write(format);
+    
+    final RunCursor cursor = format.openCursor(file, 1024, SpillCodec.NONE);
+    for (final LogEntry expected : ENTRIES) {
+      assertTrue(cursor.advance());
+      assertThat(cursor.key(), equalTo(expected.getSortKey()));
+      assertThat(cursor.entry().getLogLine(), equalTo(expected.getLogLine()));
+      assertThat(cursor.entry().getTimestampMillis(), equalTo(expected.getTimestampMillis()));
+      assertThat(cursor.entry().getSeverity(), equalTo(expected.getSeverity()));
+    }
+    assertFalse(cursor.advance());
+    cursor.close();
+    
+  }
+  
+  private static File write(final RunFormat format) throws IOException {
+    
+    final File file = tempFile(format);
+    final RunWriter writer = format.openWriter(file, 1024, SpillCodec.NONE);
+    for (final LogEntry entry : ENTRIES) {
+      writer.write(entry);
+    }
+    writer.close();
+    return file;
+    
+  }
+  
+  private static List<LogEntry> read(final RunFormat format, final File file) throws IOException {
+    
+    final List<LogEntry> entries = new ArrayList<>();
+    final RunCursor cursor = format.openCursor(file, 1024, SpillCodec.NONE);
+    while (cursor.advance()) {
+      entries.add(cursor.entry());
+    }
+    cursor.close();
+    return entries;
+    
+  }
+  
+  private static File tempFile(final RunFormat format) throws IOException {
+    
+    final File file = File.createTempFile("test-run-", format.getSuffix());
+    file.deleteOnExit();
+    return file;
+    
+  }
+
+}
@@ -0,0 +1,58 @@
+package samples.logutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Turns a stream of log entries into sorted temporary files (runs) for
+ * the merge phase of the external sort.
+ *
+ * <ul>
+ * <li>{@link RollingSortedLogWriter} - fills a memory load, sorts it and
+ * writes it as one run</li>
+ * <li>{@link ReplacementSelectionWriter} - streams entries through a heap,
+ * producing fewer, longer runs</li>
+ * </ul>
+ */
+public interface RunGenerator {
+
+  /**
+   * Add a new log entry, possibly writing to or rolling the current run.
+   * @param entry the log entry to add
+   * @throws IOException on disk IO errors during writing
+   */
+  void addLogEntry(LogEntry entry) throws IOException;
+
+  /**
+   * Write any pending entries and close the last run.
+   * @throws IOException on disk IO errors during writing
+   */
+  void close() throws IOException;
+
+  /**
+   * @return all of the files created, in run order
+   */
+  Set<File> getFiles();
+
+  /**
+   * Create the run generator selected by the sort options.
+   *
+   * @param options the sort options
+   * @param flushExecutor the executor to sort and write on, or null to
+   *        sort and write on the calling thread; replacement selection
+   *        always writes on the calling thread
+   * @return a new run generator
+   */
+  static RunGenerator create(final SortOptions options, final ExecutorService flushExecutor) {
+
+    if (options.isReplacementSelection()) {
+      return ReplacementSelectionWriter.create(options);
+    }
+
+    return RollingSortedLogWriter.create(options, flushExecutor);
+
+  }
+
+}
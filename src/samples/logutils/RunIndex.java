@@ -0,0 +1,179 @@
+package samples.logutils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Sparse (sort key, byte offset) checkpoints of an uncompressed
+ * {@link RunFormat#BINARY} run. A checkpoint is taken at the first record
+ * and then at the first record after every {@link #CHECKPOINT_INTERVAL}
+ * bytes, so a reader can seek close to any key and the checkpoint keys
+ * double as a sample of the key distribution.
+ *
+ * The index is appended to the run as a trailer: a record header whose
+ * severity byte is {@link #MARKER} and whose length is the checkpoint
+ * count, the checkpoints as (key, offset) pairs, and finally the offset of
+ * that header. Cursors stop at the marker.
+ */
+final class RunIndex {
+
+  /** Number of record bytes between checkpoints */
+  static final int CHECKPOINT_INTERVAL = 64 * 1024;
+
+  /** Severity byte of the trailer header, never a valid ordinal */
+  static final byte MARKER = (byte) 0xff;
+
+  // timestamp, severity and length, as for a record
+  private static final int HEADER_LENGTH = 13;
+
+  private long[] keys_;
+  private long[] offsets_;
+  private int count_;
+
+  RunIndex() {
+
+    this(16);
+
+  }
+
+  private RunIndex(final int capacity) {
+
+    keys_ = new long[capacity];
+    offsets_ = new long[capacity];
+
+  }
+
+  /**
+   * Read the index trailer of a run.
+   *
+   * @param file an uncompressed binary run
+   * @return the index, or null if the file has no trailer
+   * @throws IOException on disk IO errors
+   */
+  static RunIndex read(final File file) throws IOException {
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+    try {
+
+      final long length = raf.length();
+      if (length < HEADER_LENGTH + 8) {
+        return null;
+      }
+
+      raf.seek(length - 8);
+      final long start = raf.readLong();
+      if (start < 0 || start > length - HEADER_LENGTH - 8) {
+        return null;
+      }
+
+      raf.seek(start + 8);
+      final byte marker = raf.readByte();
+      final int count = raf.readInt();
+      if (marker != MARKER || count < 0
+          || start + HEADER_LENGTH + 16L * count + 8 != length) {
+        return null;
+      }
+
+      final RunIndex index = new RunIndex(Math.max(1, count));
+      for (int i = 0; i < count; i++) {
+        index.add(raf.readLong(), raf.readLong());
+      }
+
+      return index;
+
+    } finally {
+
+      raf.close();
+
+    }
+
+  }
+
+  /**
+   * @param key the sort key of the record at offset
+   * @param offset the byte offset of the record header in the run
+   */
+  void add(final long key, final long offset) {
+
+    if (count_ == keys_.length) {
+      keys_ = Arrays.copyOf(keys_, count_ * 2);
+      offsets_ = Arrays.copyOf(offsets_, count_ * 2);
+    }
+
+    keys_[count_] = key;
+    offsets_[count_] = offset;
+    count_++;
+
+  }
+
+  /**
+   * @return the number of checkpoints
+   */
+  int size() {
+    return count_;
+  }
+
+  /**
+   * @return the sort key of checkpoint i
+   */
+  long key(final int i) {
+    return keys_[i];
+  }
+
+  /**
+   * Find where to start reading for the first record with a key of at
+   * least the given one. Every record before the returned offset has a
+   * smaller key.
+   *
+   * @param key the key to seek to
+   * @return the offset of the last checkpoint with a smaller key, or 0
+   */
+  long offsetBefore(final long key) {
+
+    int lo = 0;
+    int hi = count_;
+
+    // first checkpoint with a key of at least key
+    while (lo < hi) {
+
+      final int mid = (lo + hi) >>> 1;
+
+      if (keys_[mid] < key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+
+    }
+
+    return lo == 0 ? 0 : offsets_[lo - 1];
+
+  }
+
+  /**
+   * Append the trailer after the last record.
+   *
+   * @param out the run output
+   * @param position the offset of the trailer, i.e. the bytes of records
+   * @throws IOException on disk IO errors
+   */
+  void writeTrailer(final DataOutputStream out, final long position) throws IOException {
+
+    out.writeLong(0);
+    out.writeByte(MARKER);
+    out.writeInt(count_);
+
+    for (int i = 0; i < count_; i++) {
+      out.writeLong(keys_[i]);
+      out.writeLong(offsets_[i]);
+    }
+
+    out.writeLong(position);
+
+  }
+
+}
@@ -0,0 +1,114 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RunIndexTest {
+
+  @Test
+  public void testTrailer() throws IOException {
+    
+    final List<LogEntry> entries = sortedEntries(5000);
+    final File file = writeRun(RunFormat.BINARY, SpillCodec.NONE, entries);
+    
+    final RunIndex index = RunIndex.read(file);
+    
+    // the first record and then one per interval of roughly 80 byte records
+    assertThat(index.size(), greaterThan(1));
+    assertThat(index.size(), lessThan(5000 * 80 / RunIndex.CHECKPOINT_INTERVAL + 2));
+    assertThat(index.key(0), equalTo(entries.get(0).getSortKey()));
+    assertThat(index.offsetBefore(entries.get(0).getSortKey()), equalTo(0L));
+    
+    // reading from the offset for a key skips only smaller keys 
+    for (int i = 1; i < index.size(); i++) {
+      
+      final long key = index.key(i);
+      final FileInputStream in = new FileInputStream(file);
+      in.getChannel().position(index.offsetBefore(key));
+      final RunCursor cursor = RunFormat.BINARY.openCursor(in, 1024, SpillCodec.NONE);
+      
+      int count = 0;
+      while (cursor.advance() && cursor.key() < key) {
+        count++;
+      }
+      cursor.close();
+      
+      assertThat(count, greaterThan(0));
+      assertThat(count, lessThan(RunIndex.CHECKPOINT_INTERVAL / 13));
+      
+    }
+    
+    // the trailer is not read as records 
+    final RunCursor cursor = RunFormat.BINARY.openCursor(file, 1024, SpillCodec.NONE);
+    int count = 0;
+    while (cursor.advance()) {
+      count++;
+    }
+    cursor.close();
+    assertThat(count, equalTo(5000));
+    
+  }
+  
+  @Test
+  public void testEmptyRun() throws IOException {
+    
+    final File file = writeRun(RunFormat.BINARY, SpillCodec.NONE, new ArrayList<LogEntry>());
+    
+    assertThat(RunIndex.read(file).size(), equalTo(0));
+    assertThat(RunFormat.BINARY.openCursor(file, 1024, SpillCodec.NONE).advance(), equalTo(false));
+    
+  }
+  
+  @Test
+  public void testUnindexedRuns() throws IOException {
+    
+    final List<LogEntry> entries = sortedEntries(100);
+    
+    assertThat(RunIndex.read(writeRun(RunFormat.TEXT, SpillCodec.NONE, entries)), equalTo(null));
+    assertThat(RunIndex.read(writeRun(RunFormat.BINARY, new DeflateBlockCodec(), entries)), 
+               equalTo(null));
+    
+  }
+  
+  private static List<LogEntry> sortedEntries(final int count) throws IOException {
+    
+    final List<LogEntry> entries = new ArrayList<>();
+    final BufferedReader reader = 
+        new BufferedReader(new StringReader(ParallelRunGeneratorTest.randomLog(count)));
+    for (String line; (line = reader.readLine()) != null;) {
+      entries.add(LogEntry.fromString(line));
+    }
+    Collections.sort(entries);
+    return entries;
+    
+  }
+  
+  private static File writeRun(final RunFormat format, 
+                               final SpillCodec codec, 
+                               final List<LogEntry> entries) throws IOException {
+    
+    final File file = File.createTempFile("test-run-", format.getSuffix());
+    file.deleteOnExit();
+    final RunWriter writer = format.openWriter(file, 1024, codec);
+    for (final LogEntry entry : entries) {
+      writer.write(entry);
+    }
+    writer.close();
+    return file;
+    
+  }
+  
+}
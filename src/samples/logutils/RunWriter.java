@@ -0,0 +1,33 @@
+package samples.logutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes sorted log entries to a temporary run file in one of the
+ * {@link RunFormat} encodings. 
+ */
+interface RunWriter extends Closeable {
+
+  /**
+   * Append an entry to the run. 
+   * @param entry the entry to write 
+   * @throws IOException on disk IO errors 
+   */
+  void write(LogEntry entry) throws IOException;
+  
+  /**
+   * Append an already encoded entry to the run, avoiding a round trip
+   * through {@link String}. 
+   * 
+   * @param timestamp the entry timestamp in epoch milliseconds
+   * @param severity the entry severity
+   * @param utf8 the array holding the UTF-8 bytes of the raw log line 
+   * @param offset the index of the first byte of the line 
+   * @param length the number of bytes of utf8 to write 
+   * @throws IOException on disk IO errors 
+   */
+  void write(long timestamp, LogEntry.Severity severity, byte[] utf8, int offset, int length) 
+      throws IOException;
+  
+}
@@ -0,0 +1,95 @@
+package samples.logutils;
+
+/**
+ * Receives progress events from the stages of an external sort, set with
+ * {@link SortOptions#setListener(SortListener)}. All methods do nothing
+ * by default, so a listener only overrides the events it needs.
+ *
+ * Events may arrive on worker threads as well as on the calling thread,
+ * e.g. runs written by an asynchronous flush, so implementations must be
+ * thread-safe. They run inline with the sort and should return quickly.
+ * {@link SortStats} aggregates all events into the statistics returned by
+ * a sort.
+ */
+public interface SortListener {
+
+  /** A listener that ignores all events */
+  SortListener NONE = new SortListener() { };
+
+  /**
+   * Lines were read from the input, reported in batches.
+   *
+   * @param lines the number of lines
+   * @param bytes their size in bytes as UTF-8, including line endings;
+   *        for text read through a reader, which drops them, each line
+   *        ending counts as one byte
+   */
+  default void linesRead(final int lines, final long bytes) { }
+
+  /**
+   * A line failed to parse and was skipped.
+   *
+   * @param line the raw line
+   */
+  default void parseFailed(final String line) { }
+
+  /**
+   * A sorted temporary file was completed.
+   *
+   * @param entries the number of entries in the run
+   * @param bytes the size of the file
+   * @param sortNanos the time spent sorting the buffer, 0 for runs built
+   *        by replacement selection
+   * @param writeNanos the time spent writing the file, 0 for runs written
+   *        incrementally
+   */
+  default void runWritten(final int entries,
+                          final long bytes,
+                          final long sortNanos,
+                          final long writeNanos) { }
+
+  /**
+   * A merge pass completed, or for the final pass, was opened.
+   *
+   * @param fanIn the most files merged at once in the pass
+   * @param bytesRead the bytes of sorted files read by the pass
+   * @param bytesWritten the bytes of intermediate files written, 0 for the
+   *        final pass
+   * @param filesWritten the number of intermediate files written
+   */
+  default void mergePassFinished(final int fanIn,
+                                 final long bytesRead,
+                                 final long bytesWritten,
+                                 final int filesWritten) { }
+
+  /**
+   * Temporary files were written or deleted.
+   *
+   * @param bytes the change in temporary disk usage in bytes
+   */
+  default void tempSpaceChanged(final long bytes) { }
+
+  /**
+   * The input broke the disorder bound of a bounded disorder sort, see
+   * {@link SortOptions#setDisorderWindowMillis(long)}, and is sorted again
+   * externally. The lines of the streaming pass were reported as read,
+   * and are read again by the external sort.
+   */
+  default void boundedDisorderFallback() { }
+
+  /**
+   * @param phase the phase started
+   */
+  default void phaseStarted(final SortPhase phase) { }
+
+  /**
+   * @param phase the phase finished
+   * @param elapsedNanos the wall clock time of the phase
+   * @param gcMillis the time spent in garbage collection during the phase,
+   *        across all collectors
+   */
+  default void phaseFinished(final SortPhase phase,
+                             final long elapsedNanos,
+                             final long gcMillis) { }
+
+}
@@ -0,0 +1,686 @@
+package samples.logutils;
+
+/**
+ * Tuning options for the external log sort. The defaults reproduce the
+ * original single threaded behaviour, so callers only need to set the
+ * values they want to change. Setters return this instance so options can
+ * be chained, e.g. {@code new SortOptions().setThreadCount(4)}.
+ */
+public class SortOptions implements Cloneable {
+
+  /** Default number of log entries buffered per sorted temporary file */
+  public static final int DEFAULT_RUN_LINE_COUNT = 1000000;
+
+  /** Default maximum number of sorted files merged at once */
+  public static final int DEFAULT_MAX_MERGE_FAN_IN = 512;
+
+  /** Default maximum size in bytes of a merge read-ahead block */
+  public static final int DEFAULT_READ_AHEAD_BLOCK_SIZE = 4 * 1024 * 1024;
+
+  /** Default size in bytes of a memory mapped input chunk */
+  public static final int DEFAULT_MAPPED_CHUNK_SIZE = 4 * 1024 * 1024;
+
+  private int runLineCount_ = DEFAULT_RUN_LINE_COUNT;
+  private long runByteBudget_ = 0;
+  private int threadCount_ = 1;
+  private int inFlightBuffers_ = 2;
+  private int maxMergeFanIn_ = DEFAULT_MAX_MERGE_FAN_IN;
+  private int mergeBufferSize_ = SortedLogReader.DEFAULT_BUFFER_SIZE;
+  private RunFormat runFormat_ = RunFormat.BINARY;
+  private SpillCodec spillCodec_ = SpillCodec.NONE;
+  private boolean memoryMappedInput_ = false;
+  private int mappedChunkSize_ = DEFAULT_MAPPED_CHUNK_SIZE;
+  private boolean compactRunBuffer_ = false;
+  private boolean replacementSelection_ = false;
+  private long readAheadBudget_ = 0;
+  private int readAheadBlockSize_ = DEFAULT_READ_AHEAD_BLOCK_SIZE;
+  private boolean backgroundOutput_ = false;
+  private int mergeThreadCount_ = 1;
+  private long disorderWindowMillis_ = 0;
+  private int maxDisplacement_ = 0;
+  private boolean assumeSortedInput_ = false;
+  private int timeIndexInterval_ = 0;
+  private LogFilter filter_ = null;
+  private SortListener listener_ = SortListener.NONE;
+  private String mbeanName_ = null;
+  private BadRecordPolicy badRecordPolicy_ = BadRecordPolicy.log();
+
+  /**
+   * @return the maximum number of log entries buffered per temporary file
+   */
+  public int getRunLineCount() {
+    return runLineCount_;
+  }
+
+  /**
+   * @param runLineCount the maximum number of log entries buffered per
+   *        temporary file
+   * @return this options instance
+   */
+  public SortOptions setRunLineCount(final int runLineCount) {
+
+    if (runLineCount < 1)
+      throw new IllegalArgumentException("Run line count must be positive.");
+
+    runLineCount_ = runLineCount;
+    return this;
+
+  }
+
+  /**
+   * @return the estimated heap budget per temporary file in bytes, or 0 
+   *         when files are sized by {@link #getRunLineCount()}
+   */
+  public long getRunByteBudget() {
+    return runByteBudget_;
+  }
+
+  /**
+   * Size temporary files by the estimated heap retained by their buffered
+   * entries rather than by line count. When set, the run line count is
+   * ignored. Note that each in-flight buffer may hold up to this many 
+   * bytes, see {@link #heapFraction(double)} for a convenient default.
+   *
+   * @param runByteBudget the per-file memory budget in bytes, or 0 to size
+   *        files by line count
+   * @return this options instance
+   */
+  public SortOptions setRunByteBudget(final long runByteBudget) {
+
+    if (runByteBudget < 0)
+      throw new IllegalArgumentException("Run byte budget must not be negative.");
+
+    runByteBudget_ = runByteBudget;
+    return this;
+
+  }
+
+  /**
+   * Compute a byte budget as a fraction of the maximum heap, e.g. 
+   * {@code setRunByteBudget(SortOptions.heapFraction(0.25))}.
+   *
+   * @param fraction the fraction of {@link Runtime#maxMemory()}, in (0, 1]
+   * @return the budget in bytes
+   */
+  public static long heapFraction(final double fraction) {
+
+    if (!(fraction > 0 && fraction <= 1))
+      throw new IllegalArgumentException("Fraction must be in (0, 1].");
+
+    return (long) (Runtime.getRuntime().maxMemory() * fraction);
+
+  }
+
+  /**
+   * @return the number of worker threads used to parse and sort runs
+   */
+  public int getThreadCount() {
+    return threadCount_;
+  }
+
+  /**
+   * Set the number of worker threads. A value of 1 keeps the original
+   * single threaded read/parse/sort loop, any larger value enables the
+   * pipelined run generation of {@link ParallelRunGenerator}.
+   *
+   * @param threadCount the number of worker threads
+   * @return this options instance
+   */
+  public SortOptions setThreadCount(final int threadCount) {
+
+    if (threadCount < 1)
+      throw new IllegalArgumentException("Thread count must be positive.");
+
+    threadCount_ = threadCount;
+    return this;
+
+  }
+
+  /**
+   * @return the number of run buffers that may be filling, sorting or
+   *         flushing at the same time
+   */
+  public int getInFlightBuffers() {
+    return inFlightBuffers_;
+  }
+
+  /**
+   * Set the number of run buffers that may be in flight at once. Two
+   * buffers gives classic double buffering: one is filled while the other
+   * is sorted and written. Each buffer holds a full run, so heap usage 
+   * grows linearly.
+   *
+   * @param inFlightBuffers the number of run buffers, at least 2
+   * @return this options instance
+   */
+  public SortOptions setInFlightBuffers(final int inFlightBuffers) {
+
+    if (inFlightBuffers < 2)
+      throw new IllegalArgumentException("At least two in-flight buffers are required.");
+
+    inFlightBuffers_ = inFlightBuffers;
+    return this;
+
+  }
+
+  /**
+   * @return the maximum number of sorted files open at once during merging
+   */
+  public int getMaxMergeFanIn() {
+    return maxMergeFanIn_;
+  }
+
+  /**
+   * Limit the number of sorted files merged at once. When more files are
+   * produced, intermediate merge passes are run first, see 
+   * {@link MultiPassMerger}. Keep this well below the open file limit.
+   *
+   * @param maxMergeFanIn the maximum merge fan-in, at least 2
+   * @return this options instance
+   */
+  public SortOptions setMaxMergeFanIn(final int maxMergeFanIn) {
+
+    if (maxMergeFanIn < 2)
+      throw new IllegalArgumentException("Fan-in must be at least 2.");
+
+    maxMergeFanIn_ = maxMergeFanIn;
+    return this;
+
+  }
+
+  /**
+   * @return the read buffer size per open sorted file in bytes
+   */
+  public int getMergeBufferSize() {
+    return mergeBufferSize_;
+  }
+
+  /**
+   * @param mergeBufferSize the read buffer size per open sorted file in
+   *        bytes; total merge buffer memory is this times the fan-in
+   * @return this options instance
+   */
+  public SortOptions setMergeBufferSize(final int mergeBufferSize) {
+
+    if (mergeBufferSize < 1)
+      throw new IllegalArgumentException("Buffer size must be positive.");
+
+    mergeBufferSize_ = mergeBufferSize;
+    return this;
+
+  }
+
+  /**
+   * @return the encoding of the sorted temporary files
+   */
+  public RunFormat getRunFormat() {
+    return runFormat_;
+  }
+
+  /**
+   * Select the encoding of the sorted temporary files. The default,
+   * {@link RunFormat#BINARY}, stores a precomputed sort key with each line
+   * so merging never re-parses; {@link RunFormat#TEXT} keeps the files
+   * human readable for debugging.
+   *
+   * @param runFormat the temporary file encoding
+   * @return this options instance
+   */
+  public SortOptions setRunFormat(final RunFormat runFormat) {
+
+    if (runFormat == null)
+      throw new IllegalArgumentException("Run format must be non-null");
+
+    runFormat_ = runFormat;
+    return this;
+
+  }
+
+  /**
+   * @return the codec applied to sorted temporary files
+   */
+  public SpillCodec getSpillCodec() {
+    return spillCodec_;
+  }
+
+  /**
+   * Compress sorted temporary files, e.g. with a {@link DeflateBlockCodec},
+   * when spill disk bandwidth or space is scarcer than CPU. Defaults to
+   * {@link SpillCodec#NONE}.
+   *
+   * @param spillCodec the temporary file codec
+   * @return this options instance
+   */
+  public SortOptions setSpillCodec(final SpillCodec spillCodec) {
+
+    if (spillCodec == null)
+      throw new IllegalArgumentException("Spill codec must be non-null");
+
+    spillCodec_ = spillCodec;
+    return this;
+
+  }
+
+  /**
+   * @return true if the input file is memory mapped and parsed in chunks
+   */
+  public boolean isMemoryMappedInput() {
+    return memoryMappedInput_;
+  }
+
+  /**
+   * Memory map the input file and split it into newline aligned chunks
+   * that are scanned and parsed as raw bytes by the worker threads, see
+   * {@link ParallelRunGenerator#generateRuns(java.io.File)}. This removes
+   * the single reader thread and all charset decoding: lines stay UTF-8
+   * bytes through the {@link RunFormat#BINARY} runs, the merge and the
+   * output. Input is assumed to be UTF-8 with {@code \n} or {@code \r\n}
+   * line endings.
+   *
+   * @param memoryMappedInput true to map the input file
+   * @return this options instance
+   */
+  public SortOptions setMemoryMappedInput(final boolean memoryMappedInput) {
+
+    memoryMappedInput_ = memoryMappedInput;
+    return this;
+
+  }
+
+  /**
+   * @return the target size in bytes of a memory mapped input chunk
+   */
+  public int getMappedChunkSize() {
+    return mappedChunkSize_;
+  }
+
+  /**
+   * @param mappedChunkSize the target size in bytes of the input chunk
+   *        handed to a worker; chunks are extended to the next line end
+   * @return this options instance
+   */
+  public SortOptions setMappedChunkSize(final int mappedChunkSize) {
+
+    if (mappedChunkSize < 1)
+      throw new IllegalArgumentException("Chunk size must be positive.");
+
+    mappedChunkSize_ = mappedChunkSize;
+    return this;
+
+  }
+
+  /**
+   * @return true if runs are buffered as raw bytes rather than entries
+   */
+  public boolean isCompactRunBuffer() {
+    return compactRunBuffer_;
+  }
+
+  /**
+   * Buffer each run as UTF-8 line bytes in a direct memory slab with a
+   * primitive index of sort keys, see {@link CompactRunBuffer}, instead of
+   * as {@link LogEntry} objects. This removes nearly all long lived per
+   * line objects, so several times more lines fit a run in the same
+   * memory and far less time is spent in garbage collection. With a run
+   * byte budget the budget bounds the slab; reserve direct memory with
+   * {@code -XX:MaxDirectMemorySize} accordingly.
+   *
+   * @param compactRunBuffer true to buffer runs off-heap
+   * @return this options instance
+   */
+  public SortOptions setCompactRunBuffer(final boolean compactRunBuffer) {
+
+    compactRunBuffer_ = compactRunBuffer;
+    return this;
+
+  }
+
+  /**
+   * @return true if runs are generated by replacement selection
+   */
+  public boolean isReplacementSelection() {
+    return replacementSelection_;
+  }
+
+  /**
+   * Generate runs with a {@link ReplacementSelectionWriter} instead of
+   * sorting one memory load at a time. Runs average twice the memory size
+   * on random input and mostly time ordered logs often produce a single
+   * run, which makes the merge cheaper and keeps fewer files open. The
+   * run line count or byte budget then sizes the selection heap. Runs are
+   * always held as entries, the compact run buffer does not apply.
+   *
+   * @param replacementSelection true to use replacement selection
+   * @return this options instance
+   */
+  public SortOptions setReplacementSelection(final boolean replacementSelection) {
+
+    replacementSelection_ = replacementSelection;
+    return this;
+
+  }
+
+  /**
+   * @return the total memory for merge read-ahead blocks in bytes, or 0
+   *         when merge reads are synchronous
+   */
+  public long getReadAheadBudget() {
+    return readAheadBudget_;
+  }
+
+  /**
+   * Read each sorted file ahead in large blocks on background threads
+   * while merging, see {@link SortedLogReader}. The budget is shared by all
+   * files of a merge pass, two blocks per file, so e.g. 512 MB over 128
+   * files gives 2 MB blocks. Read-ahead is skipped when a file's share
+   * would not exceed the merge buffer size.
+   *
+   * @param readAheadBudget the total read-ahead memory in bytes, or 0 to
+   *        read synchronously
+   * @return this options instance
+   */
+  public SortOptions setReadAheadBudget(final long readAheadBudget) {
+
+    if (readAheadBudget < 0)
+      throw new IllegalArgumentException("Read-ahead budget must not be negative.");
+
+    readAheadBudget_ = readAheadBudget;
+    return this;
+
+  }
+
+  /**
+   * @return the maximum size of a merge read-ahead block in bytes
+   */
+  public int getReadAheadBlockSize() {
+    return readAheadBlockSize_;
+  }
+
+  /**
+   * @param readAheadBlockSize the maximum size of a merge read-ahead block
+   *        in bytes, used when the budget allows blocks this large
+   * @return this options instance
+   */
+  public SortOptions setReadAheadBlockSize(final int readAheadBlockSize) {
+
+    if (readAheadBlockSize < 1)
+      throw new IllegalArgumentException("Block size must be positive.");
+
+    readAheadBlockSize_ = readAheadBlockSize;
+    return this;
+
+  }
+
+  /**
+   * @return true if the sorted output is encoded and written on its own
+   *         thread
+   */
+  public boolean isBackgroundOutput() {
+    return backgroundOutput_;
+  }
+
+  /**
+   * Hand the merged lines to a {@link BatchedLogWriter}, which encodes and
+   * writes them on a dedicated thread with large gathering writes, so the
+   * merging thread only merges.
+   *
+   * @param backgroundOutput true to write the output on its own thread
+   * @return this options instance
+   */
+  public SortOptions setBackgroundOutput(final boolean backgroundOutput) {
+
+    backgroundOutput_ = backgroundOutput;
+    return this;
+
+  }
+
+  /**
+   * @return the number of key ranges merged in parallel into the output
+   */
+  public int getMergeThreadCount() {
+    return mergeThreadCount_;
+  }
+
+  /**
+   * Set the number of merge threads. A value of 1 keeps the single merge
+   * stream; any larger value splits the final merge into key ranges that
+   * are merged and written concurrently by a {@link ParallelMerger}. This
+   * needs uncompressed {@link RunFormat#BINARY} runs, which carry the
+   * checkpoints to seek by; other runs are merged on one thread.
+   *
+   * @param mergeThreadCount the number of merge threads
+   * @return this options instance
+   */
+  public SortOptions setMergeThreadCount(final int mergeThreadCount) {
+
+    if (mergeThreadCount < 1)
+      throw new IllegalArgumentException("Merge thread count must be positive.");
+
+    mergeThreadCount_ = mergeThreadCount;
+    return this;
+
+  }
+
+  /**
+   * @return true if a streaming pass is tried before the external sort,
+   *         see {@link #setDisorderWindowMillis(long)}
+   */
+  public boolean isBoundedDisorder() {
+    return disorderWindowMillis_ > 0 || maxDisplacement_ > 0;
+  }
+
+  /**
+   * @return the bound on how far behind the newest timestamp seen a line
+   *         may arrive, in milliseconds, or 0 if unbounded
+   */
+  public long getDisorderWindowMillis() {
+    return disorderWindowMillis_;
+  }
+
+  /**
+   * Treat the input as nearly sorted: no line arrives more than the window
+   * behind the newest timestamp already read. The file is then sorted in a
+   * single streaming pass by a {@link BoundedDisorderSorter}, without temp
+   * files and with memory proportional to the window. If a line breaks the
+   * bound the pass is abandoned and the external sort runs instead.
+   *
+   * @param disorderWindowMillis the window in milliseconds, or 0 for none
+   * @return this options instance
+   */
+  public SortOptions setDisorderWindowMillis(final long disorderWindowMillis) {
+
+    if (disorderWindowMillis < 0)
+      throw new IllegalArgumentException("Disorder window must not be negative.");
+
+    disorderWindowMillis_ = disorderWindowMillis;
+    return this;
+
+  }
+
+  /**
+   * @return the bound on how many lines a line may arrive late, or 0 if
+   *         unbounded
+   */
+  public int getMaxDisplacement() {
+    return maxDisplacement_;
+  }
+
+  /**
+   * Treat the input as nearly sorted: no line arrives more than this many
+   * lines after its sorted position. Combined with a disorder window, lines
+   * are held until either bound releases them. See
+   * {@link #setDisorderWindowMillis(long)}.
+   *
+   * @param maxDisplacement the bound in lines, or 0 for none
+   * @return this options instance
+   */
+  public SortOptions setMaxDisplacement(final int maxDisplacement) {
+
+    if (maxDisplacement < 0)
+      throw new IllegalArgumentException("Max displacement must not be negative.");
+
+    maxDisplacement_ = maxDisplacement;
+    return this;
+
+  }
+
+  /**
+   * @return true if inputs merged by a {@link PresortedMerger} are trusted
+   *         to be sorted
+   */
+  public boolean isAssumeSortedInput() {
+    return assumeSortedInput_;
+  }
+
+  /**
+   * Skip the scan that verifies each input of a {@link PresortedMerger} is
+   * sorted. Each input is then read only once, but an input found out of
+   * order while merging fails the merge instead of being sorted.
+   *
+   * @param assumeSortedInput true to trust the inputs to be sorted
+   * @return this options instance
+   */
+  public SortOptions setAssumeSortedInput(final boolean assumeSortedInput) {
+
+    assumeSortedInput_ = assumeSortedInput;
+    return this;
+
+  }
+
+  /**
+   * @return the bytes of sorted output between time index checkpoints, or
+   *         0 if no index is written
+   */
+  public int getTimeIndexInterval() {
+    return timeIndexInterval_;
+  }
+
+  /**
+   * Write a sparse {@link TimeIndex} next to the sorted output, with a
+   * checkpoint at the first line after every this many bytes, so that a
+   * {@link TimeRangeReader} can seek straight to a time range.
+   * {@link TimeIndex#DEFAULT_INTERVAL} keeps the index well under a
+   * thousandth of the output.
+   *
+   * @param timeIndexInterval the checkpoint interval in bytes, or 0 for no
+   *        index
+   * @return this options instance
+   */
+  public SortOptions setTimeIndexInterval(final int timeIndexInterval) {
+
+    if (timeIndexInterval < 0)
+      throw new IllegalArgumentException("Time index interval must not be negative.");
+
+    timeIndexInterval_ = timeIndexInterval;
+    return this;
+
+  }
+
+  /**
+   * @return the filter lines must pass to be sorted, or null to keep all
+   */
+  public LogFilter getFilter() {
+    return filter_;
+  }
+
+  /**
+   * Keep only the lines the filter accepts. Lines are filtered as they are
+   * parsed, before they are buffered, so rejected lines cost no sorting,
+   * spilling or merging. Rejected lines are dropped silently, unlike lines
+   * that fail to parse.
+   *
+   * @param filter the filter, or null to keep all lines
+   * @return this options instance
+   */
+  public SortOptions setFilter(final LogFilter filter) {
+
+    filter_ = filter;
+    return this;
+
+  }
+
+  /**
+   * @return the listener receiving progress events, never null
+   */
+  public SortListener getListener() {
+    return listener_;
+  }
+
+  /**
+   * Receive progress events from each stage of the sort, e.g. to export
+   * them to a metrics system. The statistics returned by a sort are
+   * gathered regardless.
+   *
+   * @param listener the listener, or null for none
+   * @return this options instance
+   */
+  public SortOptions setListener(final SortListener listener) {
+
+    listener_ = listener == null ? SortListener.NONE : listener;
+    return this;
+
+  }
+
+  /**
+   * @return the JMX object name the statistics of a running sort are
+   *         registered under, or null if not registered
+   */
+  public String getMBeanName() {
+    return mbeanName_;
+  }
+
+  /**
+   * Register the live {@link SortStats} of each sort as a JMX MBean under
+   * this name for as long as the sort runs, so long jobs can be watched
+   * with e.g. jconsole. Concurrent sorts need distinct names.
+   *
+   * @param mbeanName an object name, e.g.
+   *        {@code samples.logutils:type=SortStats,name=nightly}, or null
+   * @return this options instance
+   */
+  public SortOptions setMBeanName(final String mbeanName) {
+
+    mbeanName_ = mbeanName;
+    return this;
+
+  }
+
+  /**
+   * @return the handling of lines that fail to parse, never null
+   */
+  public BadRecordPolicy getBadRecordPolicy() {
+    return badRecordPolicy_;
+  }
+
+  /**
+   * Decide whether lines that fail to parse are reported, skipped or
+   * quarantined, and how many are tolerated. By default each is reported
+   * on standard error and there is no limit.
+   *
+   * @param badRecordPolicy the policy, e.g. {@code BadRecordPolicy.skip()}
+   * @return this options instance
+   */
+  public SortOptions setBadRecordPolicy(final BadRecordPolicy badRecordPolicy) {
+
+    if (badRecordPolicy == null)
+      throw new IllegalArgumentException("Bad record policy must be non-null");
+
+    badRecordPolicy_ = badRecordPolicy;
+    return this;
+
+  }
+
+  /**
+   * @return a copy of these options, which can be changed independently
+   */
+  public SortOptions copy() {
+
+    try {
+      return (SortOptions) clone();
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+
+  }
+
+}
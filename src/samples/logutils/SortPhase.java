@@ -0,0 +1,14 @@
+package samples.logutils;
+
+/**
+ * The phases of an external sort, as timed by {@link SortStats}.
+ */
+public enum SortPhase {
+
+  /** Reading and parsing the input into sorted temporary files */
+  RUN_GENERATION,
+
+  /** Merging the temporary files and writing the sorted output */
+  MERGE,
+
+}
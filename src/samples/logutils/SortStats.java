@@ -0,0 +1,448 @@
+package samples.logutils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of a whole external sort, as returned by
+ * {@link samples.SortLogLines#sort(String, String, SortOptions)}: input
+ * throughput and parse failures, the count and sizes of the runs with the
+ * time spent sorting and writing them, the merge passes and their fan-in,
+ * the temporary disk high-water mark, and the wall clock and garbage
+ * collection time of each {@link SortPhase}. Intended to help size the
+ * heap and pick run budgets.
+ *
+ * The statistics are gathered as a {@link SortListener} and can be read
+ * while the sort runs, e.g. through JMX, see
+ * {@link SortOptions#setMBeanName(String)}. Every event is also passed on
+ * to the listener given at construction.
+ */
+public class SortStats extends MergeStats implements SortListener, SortStatsMBean {
+
+  private static final long NANOS_PER_MILLI = 1000000L;
+
+  private final SortListener delegate_;
+
+  private final AtomicLong linesRead_ = new AtomicLong();
+  private final AtomicLong inputBytes_ = new AtomicLong();
+  private final AtomicLong parseFailures_ = new AtomicLong();
+  private final AtomicInteger boundedDisorderFallbacks_ = new AtomicInteger();
+  private final AtomicLong abandonedLinesRead_ = new AtomicLong();
+
+  // guarded by this
+  private int runCount_;
+  private long runBytes_;
+  private long minRunBytes_;
+  private long maxRunBytes_;
+  private long runSortNanos_;
+  private long runWriteNanos_;
+  private int maxFanIn_;
+  private long tempBytes_;
+  private long tempBytesHighWater_;
+  private final long[] phaseNanos_ = new long[SortPhase.values().length];
+  private final long[] phaseGcMillis_ = new long[SortPhase.values().length];
+  private final long[] phaseStartNanos_ = new long[SortPhase.values().length];
+  private final long[] phaseStartGcMillis_ = new long[SortPhase.values().length];
+
+  private volatile SortPhase currentPhase_;
+  private ObjectName objectName_;
+
+  public SortStats() {
+
+    this(SortListener.NONE);
+
+  }
+
+  /**
+   * @param delegate a listener to pass every event on to
+   */
+  public SortStats(final SortListener delegate) {
+
+    delegate_ = delegate;
+
+  }
+
+  /**
+   * Start timing a phase.
+   * @param phase the phase started
+   */
+  public void startPhase(final SortPhase phase) {
+
+    synchronized (this) {
+      phaseStartNanos_[phase.ordinal()] = System.nanoTime();
+      phaseStartGcMillis_[phase.ordinal()] = gcMillis();
+    }
+
+    phaseStarted(phase);
+
+  }
+
+  /**
+   * Stop timing a phase started with {@link #startPhase(SortPhase)}.
+   * @param phase the phase finished
+   */
+  public void finishPhase(final SortPhase phase) {
+
+    final long elapsedNanos;
+    final long gcMillis;
+
+    synchronized (this) {
+      elapsedNanos = System.nanoTime() - phaseStartNanos_[phase.ordinal()];
+      gcMillis = gcMillis() - phaseStartGcMillis_[phase.ordinal()];
+    }
+
+    phaseFinished(phase, elapsedNanos, gcMillis);
+
+  }
+
+  /**
+   * Register these statistics as a JMX MBean.
+   *
+   * @param objectName the object name
+   * @throws IllegalArgumentException if the name is malformed or taken
+   */
+  public synchronized void registerMBean(final String objectName) {
+
+    try {
+
+      final ObjectName name = new ObjectName(objectName);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      objectName_ = name;
+
+    } catch (JMException e) {
+
+      throw new IllegalArgumentException("Unable to register MBean: " + objectName, e);
+
+    }
+
+  }
+
+  /**
+   * Remove the MBean registered by {@link #registerMBean(String)}, if any.
+   */
+  public synchronized void unregisterMBean() {
+
+    if (objectName_ == null) {
+      return;
+    }
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    try {
+      server.unregisterMBean(objectName_);
+    } catch (JMException e) {
+      // already gone
+    }
+    objectName_ = null;
+
+  }
+
+  @Override
+  public void linesRead(final int lines, final long bytes) {
+
+    linesRead_.addAndGet(lines);
+    inputBytes_.addAndGet(bytes);
+    delegate_.linesRead(lines, bytes);
+
+  }
+
+  @Override
+  public void parseFailed(final String line) {
+
+    parseFailures_.incrementAndGet();
+    delegate_.parseFailed(line);
+
+  }
+
+  @Override
+  public void runWritten(final int entries,
+                         final long bytes,
+                         final long sortNanos,
+                         final long writeNanos) {
+
+    synchronized (this) {
+      minRunBytes_ = runCount_ == 0 ? bytes : Math.min(minRunBytes_, bytes);
+      maxRunBytes_ = Math.max(maxRunBytes_, bytes);
+      runCount_++;
+      runBytes_ += bytes;
+      runSortNanos_ += sortNanos;
+      runWriteNanos_ += writeNanos;
+    }
+
+    delegate_.runWritten(entries, bytes, sortNanos, writeNanos);
+
+  }
+
+  @Override
+  public void mergePassFinished(final int fanIn,
+                                final long bytesRead,
+                                final long bytesWritten,
+                                final int filesWritten) {
+
+    synchronized (this) {
+      maxFanIn_ = Math.max(maxFanIn_, fanIn);
+      addPass(bytesRead, bytesWritten, filesWritten);
+    }
+
+    delegate_.mergePassFinished(fanIn, bytesRead, bytesWritten, filesWritten);
+
+  }
+
+  @Override
+  public void tempSpaceChanged(final long bytes) {
+
+    synchronized (this) {
+      tempBytes_ += bytes;
+      tempBytesHighWater_ = Math.max(tempBytesHighWater_, tempBytes_);
+    }
+
+    delegate_.tempSpaceChanged(bytes);
+
+  }
+
+  @Override
+  public void boundedDisorderFallback() {
+
+    // the external sort reads the input again, so the streaming pass is
+    // counted apart rather than twice
+    boundedDisorderFallbacks_.incrementAndGet();
+    abandonedLinesRead_.addAndGet(linesRead_.getAndSet(0));
+    inputBytes_.set(0);
+    delegate_.boundedDisorderFallback();
+
+  }
+
+  @Override
+  public void phaseStarted(final SortPhase phase) {
+
+    currentPhase_ = phase;
+    delegate_.phaseStarted(phase);
+
+  }
+
+  @Override
+  public void phaseFinished(final SortPhase phase, final long elapsedNanos, final long gcMillis) {
+
+    synchronized (this) {
+      phaseNanos_[phase.ordinal()] += elapsedNanos;
+      phaseGcMillis_[phase.ordinal()] += gcMillis;
+      phaseStartNanos_[phase.ordinal()] = 0;
+    }
+
+    currentPhase_ = null;
+    delegate_.phaseFinished(phase, elapsedNanos, gcMillis);
+
+  }
+
+  /**
+   * @return the name of the phase in progress, or null between phases
+   */
+  @Override
+  public String getCurrentPhase() {
+
+    final SortPhase phase = currentPhase_;
+    return phase == null ? null : phase.name();
+
+  }
+
+  /**
+   * @return the lines read from the input, including those skipped; after
+   *         a bounded disorder fallback only those read by the external
+   *         sort, see {@link #getAbandonedLinesRead()}
+   */
+  @Override
+  public long getLinesRead() {
+    return linesRead_.get();
+  }
+
+  /**
+   * @return the lines read by bounded disorder passes that fell back to
+   *         an external sort
+   */
+  @Override
+  public long getAbandonedLinesRead() {
+    return abandonedLinesRead_.get();
+  }
+
+  /**
+   * @return the size of the input read, see
+   *         {@link SortListener#linesRead(int, long)}
+   */
+  @Override
+  public long getInputBytes() {
+    return inputBytes_.get();
+  }
+
+  /**
+   * @return the number of lines skipped because they failed to parse
+   */
+  @Override
+  public long getParseFailures() {
+    return parseFailures_.get();
+  }
+
+  /**
+   * @return the number of bounded disorder sorts that fell back to an
+   *         external sort
+   */
+  @Override
+  public int getBoundedDisorderFallbacks() {
+    return boundedDisorderFallbacks_.get();
+  }
+
+  /**
+   * @return the lines read per second of run generation, so far if it is
+   *         in progress
+   */
+  @Override
+  public double getLinesPerSecond() {
+
+    final long nanos = getPhaseNanos(SortPhase.RUN_GENERATION);
+    return nanos == 0 ? 0 : linesRead_.get() * 1e9 / nanos;
+
+  }
+
+  /**
+   * @return the number of sorted temporary files written by run generation
+   */
+  @Override
+  public synchronized int getRunCount() {
+    return runCount_;
+  }
+
+  /**
+   * @return the total size of the runs
+   */
+  @Override
+  public synchronized long getRunBytes() {
+    return runBytes_;
+  }
+
+  /**
+   * @return the size of the smallest run, or 0 if there are none
+   */
+  @Override
+  public synchronized long getMinRunBytes() {
+    return minRunBytes_;
+  }
+
+  /**
+   * @return the size of the largest run
+   */
+  @Override
+  public synchronized long getMaxRunBytes() {
+    return maxRunBytes_;
+  }
+
+  /**
+   * @return the time spent sorting run buffers, summed across threads
+   */
+  @Override
+  public synchronized long getRunSortMillis() {
+    return runSortNanos_ / NANOS_PER_MILLI;
+  }
+
+  /**
+   * @return the time spent writing run files, summed across threads
+   */
+  @Override
+  public synchronized long getRunWriteMillis() {
+    return runWriteNanos_ / NANOS_PER_MILLI;
+  }
+
+  /**
+   * @return the most files merged at once in any pass
+   */
+  @Override
+  public synchronized int getMaxFanIn() {
+    return maxFanIn_;
+  }
+
+  /**
+   * @return the temporary disk space in use, as far as it is tracked
+   */
+  @Override
+  public synchronized long getTempBytes() {
+    return tempBytes_;
+  }
+
+  /**
+   * @return the most temporary disk space in use at once
+   */
+  @Override
+  public synchronized long getTempBytesHighWater() {
+    return tempBytesHighWater_;
+  }
+
+  @Override
+  public long getRunGenerationMillis() {
+    return getPhaseNanos(SortPhase.RUN_GENERATION) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public long getRunGenerationGcMillis() {
+    return getPhaseGcMillis(SortPhase.RUN_GENERATION);
+  }
+
+  @Override
+  public long getMergeMillis() {
+    return getPhaseNanos(SortPhase.MERGE) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public long getMergeGcMillis() {
+    return getPhaseGcMillis(SortPhase.MERGE);
+  }
+
+  /**
+   * @param phase a phase
+   * @return the wall clock time of the phase, so far if it is in progress
+   */
+  public synchronized long getPhaseNanos(final SortPhase phase) {
+
+    final long start = phaseStartNanos_[phase.ordinal()];
+    return phaseNanos_[phase.ordinal()] + (start == 0 ? 0 : System.nanoTime() - start);
+
+  }
+
+  /**
+   * @param phase a phase
+   * @return the garbage collection time during the phase
+   */
+  public synchronized long getPhaseGcMillis(final SortPhase phase) {
+    return phaseGcMillis_[phase.ordinal()];
+  }
+
+  private static long gcMillis() {
+
+    long total = 0;
+    for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, gc.getCollectionTime());
+    }
+    return total;
+
+  }
+
+  @Override
+  public String toString() {
+    return "SortStats [linesRead=" + getLinesRead() + ", inputBytes=" + getInputBytes()
+        + ", parseFailures=" + getParseFailures()
+        + ", boundedDisorderFallbacks=" + getBoundedDisorderFallbacks()
+        + ", abandonedLinesRead=" + getAbandonedLinesRead() + ", runs=" + getRunCount()
+        + ", runBytes=" + getRunBytes() + ", runSortMillis=" + getRunSortMillis()
+        + ", runWriteMillis=" + getRunWriteMillis() + ", passes=" + getPasses()
+        + ", maxFanIn=" + getMaxFanIn() + ", intermediateFiles=" + getIntermediateFiles()
+        + ", bytesRead=" + getBytesRead() + ", bytesWritten=" + getBytesWritten()
+        + ", tempBytesHighWater=" + getTempBytesHighWater()
+        + ", runGenerationMillis=" + getRunGenerationMillis()
+        + ", runGenerationGcMillis=" + getRunGenerationGcMillis()
+        + ", mergeMillis=" + getMergeMillis() + ", mergeGcMillis=" + getMergeGcMillis() + "]";
+  }
+
+}
@@ -0,0 +1,57 @@
+package samples.logutils;
+
+/**
+ * The JMX view of a running sort, see {@link SortStats} and
+ * {@link SortOptions#setMBeanName(String)}.
+ */
+public interface SortStatsMBean {
+
+  String getCurrentPhase();
+
+  long getLinesRead();
+
+  long getInputBytes();
+
+  long getParseFailures();
+
+  int getBoundedDisorderFallbacks();
+
+  long getAbandonedLinesRead();
+
+  double getLinesPerSecond();
+
+  int getRunCount();
+
+  long getRunBytes();
+
+  long getMinRunBytes();
+
+  long getMaxRunBytes();
+
+  long getRunSortMillis();
+
+  long getRunWriteMillis();
+
+  int getPasses();
+
+  int getMaxFanIn();
+
+  int getIntermediateFiles();
+
+  long getBytesRead();
+
+  long getBytesWritten();
+
+  long getTempBytes();
+
+  long getTempBytesHighWater();
+
+  long getRunGenerationMillis();
+
+  long getRunGenerationGcMillis();
+
+  long getMergeMillis();
+
+  long getMergeGcMillis();
+
+}
@@ -0,0 +1,127 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class SortStatsTest {
+
+  @Test
+  public void testRunsAndMerge() throws IOException {
+
+    final SortStats stats = new SortStats();
+    final SortOptions options = new SortOptions()
+        .setRunLineCount(100)
+        .setMaxMergeFanIn(3)
+        .setThreadCount(2)
+        .setListener(stats);
+
+    final String input = ParallelRunGeneratorTest.randomLog(1000) + "not a log line\n";
+    final Set<File> files = new ParallelRunGenerator(options)
+        .generateRuns(new BufferedReader(new StringReader(input)));
+
+    long runBytes = 0;
+    for (final File file : files) {
+      runBytes += file.length();
+    }
+
+    assertThat(stats.getLinesRead(), equalTo(1001L));
+    assertThat(stats.getInputBytes(), equalTo((long) input.getBytes(StandardCharsets.UTF_8).length));
+    assertThat(stats.getParseFailures(), equalTo(1L));
+    assertThat(stats.getRunCount(), equalTo(10));
+    assertThat(stats.getRunBytes(), equalTo(runBytes));
+    assertThat(stats.getMinRunBytes(), lessThanOrEqualTo(stats.getMaxRunBytes()));
+    assertThat(stats.getTempBytesHighWater(), equalTo(runBytes));
+
+    final SortedLogReader reader = new MultiPassMerger(options).merge(files);
+    int count = 0;
+    while (reader.hasNext()) {
+      reader.getNextEntry();
+      count++;
+    }
+    reader.closeAll();
+
+    assertThat(count, equalTo(1000));
+    assertThat(stats.getPasses(), equalTo(3));
+    assertThat(stats.getMaxFanIn(), equalTo(3));
+    assertThat(stats.getIntermediateFiles(), equalTo(4));
+    assertThat(stats.getTempBytesHighWater(), greaterThan(runBytes));
+
+  }
+
+  @Test
+  public void testPhases() {
+
+    final List<String> events = new ArrayList<>();
+    final SortStats stats = new SortStats(new SortListener() {
+
+      @Override
+      public void phaseStarted(final SortPhase phase) {
+        events.add("start " + phase);
+      }
+
+      @Override
+      public void phaseFinished(final SortPhase phase, final long elapsedNanos, final long gcMillis) {
+        events.add("finish " + phase);
+      }
+
+      @Override
+      public void linesRead(final int lines, final long bytes) {
+        events.add("read " + lines);
+      }
+
+    });
+
+    stats.startPhase(SortPhase.RUN_GENERATION);
+    assertThat(stats.getCurrentPhase(), equalTo("RUN_GENERATION"));
+    stats.linesRead(10, 100);
+    stats.finishPhase(SortPhase.RUN_GENERATION);
+
+    assertThat(stats.getCurrentPhase(), nullValue());
+    assertThat(stats.getPhaseNanos(SortPhase.RUN_GENERATION), greaterThan(0L));
+    assertThat(stats.getPhaseNanos(SortPhase.MERGE), equalTo(0L));
+    assertThat(stats.getLinesPerSecond(), greaterThan(0.0));
+    assertThat(events, contains("start RUN_GENERATION", "read 10", "finish RUN_GENERATION"));
+
+  }
+
+  @Test
+  public void testMBean() throws JMException {
+
+    final String name = "samples.logutils:type=SortStats,name=SortStatsTest";
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final SortStats stats = new SortStats();
+
+    stats.registerMBean(name);
+
+    try {
+
+      stats.linesRead(42, 4200);
+      assertThat(server.getAttribute(new ObjectName(name), "LinesRead"), equalTo((Object) 42L));
+
+    } finally {
+
+      stats.unregisterMBean();
+
+    }
+
+    assertThat(server.isRegistered(new ObjectName(name)), equalTo(false));
+
+  }
+
+}
@@ -0,0 +1,503 @@
+package samples.logutils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An incrementally maintained sorted log archive: a directory of sorted
+ * segments, listed oldest first by a manifest. Appending new input only
+ * sorts the new lines; their runs become new segments as they are, so
+ * the cost of an append is proportional to the new data.
+ *
+ * Segments are merged in the background by size-tiered compaction: any
+ * {@link #COMPACTION_WIDTH} adjacent segments whose sizes are within a
+ * factor of {@link #COMPACTION_SIZE_RATIO} of each other are merged into
+ * one, smallest groups first, so the number of segments grows with the
+ * logarithm of the archive size. Only adjacent segments are merged, so
+ * entries with equal keys always come out in the order they were
+ * appended, exactly as if all input had been concatenated and sorted.
+ *
+ * The manifest is replaced atomically after each change, so a crash
+ * leaves either the old or the new set of segments; segment files not
+ * listed in the manifest are removed on open. Readers see the segments as
+ * of {@link #entries()}; segments compacted away are deleted once no
+ * reader is open.
+ */
+public class SortedLogArchive implements Closeable {
+
+  /** Number of adjacent segments merged by one compaction */
+  public static final int COMPACTION_WIDTH = 4;
+
+  /** Largest ratio between the biggest and smallest segment merged */
+  public static final int COMPACTION_SIZE_RATIO = 2;
+
+  static final String MANIFEST = "MANIFEST";
+
+  private static final String MANIFEST_HEADER = "# sorted log archive";
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  private final File directory_;
+  private final SortOptions options_;
+  private final ExecutorService compactor_;
+
+  // guarded by this
+  private final List<File> segments_ = new ArrayList<>();
+  private final List<File> obsolete_ = new ArrayList<>();
+  private long nextSegment_;
+  private int openReaders_;
+  private Future<?> compaction_;
+
+  private volatile Throwable failure_;
+
+  private SortedLogArchive(final File directory, final SortOptions options) {
+
+    directory_ = directory;
+    options_ = options;
+    compactor_ = Executors.newSingleThreadExecutor(
+        new DaemonThreadFactory("log-archive-compactor-"));
+
+  }
+
+  /**
+   * Open the archive in a directory, creating it if needed.
+   *
+   * @param directory the archive directory
+   * @param options the run sizing used to sort new input, and the run
+   *        format and codec of the segments
+   * @return the open archive
+   * @throws IOException if the directory cannot be created or the manifest
+   *         is unreadable, or was written with another format or codec
+   */
+  public static SortedLogArchive open(final File directory,
+                                      final SortOptions options) throws IOException {
+
+    if (!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException("Unable to create archive directory: " + directory);
+
+    final SortedLogArchive archive = new SortedLogArchive(directory, options);
+    archive.load();
+
+    return archive;
+
+  }
+
+  /**
+   * Sort the lines of a file into new segments. Lines that fail to parse
+   * go to the bad record policy of the options, and lines the filter of
+   * the options rejects are dropped.
+   *
+   * @param input a file of raw UTF-8 log lines
+   * @throws IOException on disk IO errors
+   */
+  public void append(final File input) throws IOException {
+
+    if (options_.isMemoryMappedInput()) {
+      addSegments(new ParallelRunGenerator(options_).generateRuns(input));
+      return;
+    }
+
+    final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8));
+
+    try {
+
+      addSegments(new ParallelRunGenerator(options_).generateRuns(reader));
+
+    } finally {
+
+      reader.close();
+
+    }
+
+  }
+
+  /**
+   * Sort lines into new segments, see {@link #append(File)}.
+   *
+   * @param lines the raw log lines, which must not contain null
+   * @throws IOException on disk IO errors
+   */
+  public void append(final Iterator<String> lines) throws IOException {
+
+    addSegments(new ParallelRunGenerator(options_).generateRuns(lines));
+
+  }
+
+  /**
+   * Iterate over all entries of the archive in sorted order, merging the
+   * current segments. Appends and compactions after this call are not
+   * seen. Close the iterator when stopping early.
+   *
+   * @return the sorted entries
+   * @throws IOException on disk IO errors
+   */
+  public SortedLogIterator entries() throws IOException {
+
+    final Set<File> segments;
+
+    synchronized (this) {
+      segments = new LinkedHashSet<>(segments_);
+      openReaders_++;
+    }
+
+    try {
+
+      return new SortedLogIterator(new SortedLogReader(segments, options_), this::readerClosed);
+
+    } catch (IOException | RuntimeException e) {
+
+      readerClosed();
+      throw e;
+
+    }
+
+  }
+
+  /**
+   * @return the current segment files, oldest first
+   */
+  public synchronized List<File> getSegments() {
+    return Collections.unmodifiableList(new ArrayList<>(segments_));
+  }
+
+  /**
+   * Wait until no compaction is pending.
+   * @throws IOException if a background compaction failed
+   */
+  public void awaitCompaction() throws IOException {
+
+    final Future<?> compaction;
+    synchronized (this) {
+      compaction = compaction_;
+    }
+
+    if (compaction != null) {
+
+      try {
+
+        compaction.get();
+
+      } catch (InterruptedException e) {
+
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for compaction");
+
+      } catch (ExecutionException e) {
+
+        failure_ = e.getCause();
+
+      }
+
+    }
+
+    final Throwable failure = failure_;
+    if (failure != null)
+      throw new IOException("Background compaction failed", failure);
+
+  }
+
+  /**
+   * Finish any pending compaction and stop the compaction thread. Open
+   * readers stay valid.
+   * @throws IOException if a background compaction failed
+   */
+  @Override
+  public void close() throws IOException {
+
+    try {
+      awaitCompaction();
+    } finally {
+      compactor_.shutdown();
+    }
+
+  }
+
+  /**
+   * Pick the adjacent segments to merge next: the group of
+   * {@link #COMPACTION_WIDTH} with the smallest total size among those
+   * whose sizes are within {@link #COMPACTION_SIZE_RATIO}.
+   *
+   * @param sizes the segment sizes, oldest first
+   * @param width the number of segments to merge
+   * @return the index of the first segment of the group, or -1 if none
+   */
+  static int pickCompaction(final long[] sizes, final int width) {
+
+    int best = -1;
+    long bestTotal = Long.MAX_VALUE;
+
+    for (int start = 0; start + width <= sizes.length; start++) {
+
+      long min = Long.MAX_VALUE;
+      long max = 0;
+      long total = 0;
+
+      for (int i = start; i < start + width; i++) {
+        min = Math.min(min, sizes[i]);
+        max = Math.max(max, sizes[i]);
+        total += sizes[i];
+      }
+
+      if (max <= Math.max(1, min) * COMPACTION_SIZE_RATIO && total < bestTotal) {
+        best = start;
+        bestTotal = total;
+      }
+
+    }
+
+    return best;
+
+  }
+
+  /**
+   * Move freshly written runs into the archive as the newest segments.
+   */
+  private void addSegments(final Set<File> runs) throws IOException {
+
+    final List<File> added = new ArrayList<>();
+
+    for (final File run : runs) {
+
+      final File segment = newSegmentFile();
+      Files.move(run.toPath(), segment.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      added.add(segment);
+
+    }
+
+    synchronized (this) {
+
+      segments_.addAll(added);
+      writeManifest();
+
+      // always submit: a running compaction may already have decided to
+      // stop, and the single compactor thread runs passes one at a time
+      compaction_ = compactor_.submit(this::compactAll);
+
+    }
+
+  }
+
+  /**
+   * The compaction thread: merge groups until none qualifies. A merge
+   * only ever replaces segments that are still adjacent, since appends
+   * go to the end and this is the only thread removing segments.
+   */
+  private void compactAll() {
+
+    try {
+
+      while (true) {
+
+        final List<File> group;
+
+        synchronized (this) {
+
+          final int width = Math.min(COMPACTION_WIDTH, options_.getMaxMergeFanIn());
+          final long[] sizes = new long[segments_.size()];
+          for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = segments_.get(i).length();
+          }
+
+          final int start = pickCompaction(sizes, width);
+          if (start < 0) {
+            return;
+          }
+
+          group = new ArrayList<>(segments_.subList(start, start + width));
+
+        }
+
+        final File merged = merge(group);
+
+        synchronized (this) {
+
+          final int start = segments_.indexOf(group.get(0));
+          final List<File> replaced = segments_.subList(start, start + group.size());
+          replaced.clear();
+          replaced.add(merged);
+          writeManifest();
+
+          obsolete_.addAll(group);
+          deleteObsolete();
+
+        }
+
+      }
+
+    } catch (IOException | RuntimeException e) {
+
+      failure_ = e;
+
+    }
+
+  }
+
+  private File merge(final List<File> group) throws IOException {
+
+    final File merged = newSegmentFile();
+    final SortedLogReader reader = new SortedLogReader(new LinkedHashSet<>(group), options_);
+
+    try {
+
+      final RunWriter writer = options_.getRunFormat().openWriter(
+          merged, RollingSortedLogWriter.WRITE_BUFFER_SIZE, options_.getSpillCodec());
+
+      try {
+
+        while (reader.hasNext()) {
+          reader.copyNextEntry(writer);
+        }
+
+      } finally {
+
+        writer.close();
+
+      }
+
+    } catch (IOException | RuntimeException e) {
+
+      merged.delete();
+      throw e;
+
+    } finally {
+
+      reader.closeAll();
+
+    }
+
+    return merged;
+
+  }
+
+  private synchronized void readerClosed() {
+
+    openReaders_--;
+    deleteObsolete();
+
+  }
+
+  // call holding the lock
+  private void deleteObsolete() {
+
+    if (openReaders_ > 0) {
+      return;
+    }
+
+    for (final File file : obsolete_) {
+      file.delete();
+    }
+    obsolete_.clear();
+
+  }
+
+  private synchronized File newSegmentFile() {
+
+    return new File(directory_, String.format("%s%08d%s", SEGMENT_PREFIX, nextSegment_++,
+                                              options_.getRunFormat().getSuffix()));
+
+  }
+
+  /**
+   * Read the manifest, if any, and remove segment files it does not list,
+   * e.g. the output of a compaction interrupted by a crash.
+   */
+  private synchronized void load() throws IOException {
+
+    final File manifest = new File(directory_, MANIFEST);
+
+    if (manifest.exists()) {
+
+      final List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+
+      if (lines.size() < 3 || !lines.get(0).equals(MANIFEST_HEADER))
+        throw new IOException("Corrupt archive manifest: " + manifest);
+      if (!lines.get(1).equals("format " + options_.getRunFormat().name()))
+        throw new IOException("Archive was written with another run format: " + lines.get(1));
+      if (!lines.get(2).equals("codec " + options_.getSpillCodec().getName()))
+        throw new IOException("Archive was written with another spill codec: " + lines.get(2));
+
+      for (final String line : lines.subList(3, lines.size())) {
+
+        if (!line.startsWith("segment "))
+          throw new IOException("Corrupt archive manifest: " + manifest);
+
+        segments_.add(new File(directory_, line.substring("segment ".length())));
+
+      }
+
+    }
+
+    final Set<String> listed = new HashSet<>();
+    for (final File segment : segments_) {
+      listed.add(segment.getName());
+      nextSegment_ = Math.max(nextSegment_, segmentNumber(segment.getName()) + 1);
+    }
+
+    final File[] files = directory_.listFiles();
+    if (files != null) {
+
+      for (final File file : files) {
+
+        if (file.getName().startsWith(SEGMENT_PREFIX) && !listed.contains(file.getName())) {
+          nextSegment_ = Math.max(nextSegment_, segmentNumber(file.getName()) + 1);
+          file.delete();
+        }
+
+      }
+
+    }
+
+  }
+
+  /**
+   * Replace the manifest atomically. Call holding the lock.
+   */
+  private void writeManifest() throws IOException {
+
+    final List<String> lines = new ArrayList<>();
+    lines.add(MANIFEST_HEADER);
+    lines.add("format " + options_.getRunFormat().name());
+    lines.add("codec " + options_.getSpillCodec().getName());
+    for (final File segment : segments_) {
+      lines.add("segment " + segment.getName());
+    }
+
+    final File temp = new File(directory_, MANIFEST + ".tmp");
+    Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+    Files.move(temp.toPath(), new File(directory_, MANIFEST).toPath(),
+               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+  }
+
+  private static long segmentNumber(final String name) {
+
+    final int end = name.indexOf('.');
+
+    try {
+      return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), end < 0 ? name.length() : end));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+
+  }
+
+}
@@ -0,0 +1,197 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SortedLogArchiveTest {
+
+  @Test
+  public void testAppendMatchesFullSort() throws IOException {
+
+    final List<String> lines = TestLogs.lines(ParallelRunGeneratorTest.randomLog(2000));
+    final SortedLogArchive archive = SortedLogArchive.open(tempDirectory(), options());
+
+    try {
+
+      for (int start = 0; start < lines.size(); start += 250) {
+        archive.append(lines.subList(start, start + 250).iterator());
+      }
+      archive.awaitCompaction();
+
+      assertThat(TestLogs.readAll(archive.entries()), equalTo(TestLogs.sorted(lines)));
+
+    } finally {
+
+      archive.close();
+
+    }
+
+  }
+
+  @Test
+  public void testCompaction() throws IOException {
+
+    final List<String> lines = TestLogs.lines(ParallelRunGeneratorTest.randomLog(2000));
+    final SortedLogArchive archive = SortedLogArchive.open(tempDirectory(), options());
+
+    try {
+
+      int appended = 0;
+      for (int start = 0; start < lines.size(); start += 100) {
+        archive.append(lines.subList(start, start + 100).iterator());
+        appended++;
+      }
+      archive.awaitCompaction();
+
+      assertThat(archive.getSegments().size(), lessThan(appended));
+      assertThat(TestLogs.readAll(archive.entries()), equalTo(TestLogs.sorted(lines)));
+
+    } finally {
+
+      archive.close();
+
+    }
+
+  }
+
+  @Test
+  public void testReopen() throws IOException {
+
+    final List<String> lines = TestLogs.lines(ParallelRunGeneratorTest.randomLog(1000));
+    final File directory = tempDirectory();
+
+    SortedLogArchive archive = SortedLogArchive.open(directory, options());
+    archive.append(lines.subList(0, 500).iterator());
+    archive.close();
+
+    // a segment left behind by an interrupted compaction
+    Files.write(new File(directory, "segment-99999999.run").toPath(), new byte[10]);
+
+    archive = SortedLogArchive.open(directory, options());
+
+    try {
+
+      archive.append(lines.subList(500, 1000).iterator());
+      archive.awaitCompaction();
+
+      assertThat(TestLogs.readAll(archive.entries()), equalTo(TestLogs.sorted(lines)));
+      assertThat(new File(directory, "segment-99999999.run").exists(), equalTo(false));
+
+    } finally {
+
+      archive.close();
+
+    }
+
+  }
+
+  @Test
+  public void testBadLines() throws IOException {
+
+    final List<String> lines = TestLogs.lines(ParallelRunGeneratorTest.randomLog(100));
+    final List<String> input = new ArrayList<>(lines);
+    input.add(50, "not a log line");
+
+    final SortStats stats = new SortStats();
+    final SortedLogArchive archive = SortedLogArchive.open(tempDirectory(), options()
+        .setBadRecordPolicy(BadRecordPolicy.skip())
+        .setListener(stats));
+
+    try {
+
+      archive.append(input.iterator());
+
+      assertThat(TestLogs.readAll(archive.entries()), equalTo(TestLogs.sorted(lines)));
+      assertThat(stats.getParseFailures(), equalTo(1L));
+
+    } finally {
+
+      archive.close();
+
+    }
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testCodecMismatch() throws IOException {
+
+    final File directory = tempDirectory();
+
+    final SortedLogArchive archive = SortedLogArchive.open(directory, options());
+    archive.append(TestLogs.lines(ParallelRunGeneratorTest.randomLog(100)).iterator());
+    archive.close();
+
+    SortedLogArchive.open(directory, options().setSpillCodec(new DeflateBlockCodec())).close();
+
+  }
+
+  @Test
+  public void testReaderSurvivesCompaction() throws IOException {
+
+    final List<String> lines = TestLogs.lines(ParallelRunGeneratorTest.randomLog(1000));
+    final SortedLogArchive archive = SortedLogArchive.open(tempDirectory(),
+        options().setRunLineCount(1000));
+
+    try {
+
+      for (int start = 0; start < 300; start += 100) {
+        archive.append(lines.subList(start, start + 100).iterator());
+      }
+      archive.awaitCompaction();
+
+      final SortedLogIterator iterator = archive.entries();
+      final List<String> seen = new ArrayList<>();
+      seen.add(iterator.next().getLogLine());
+
+      // the fourth segment triggers a compaction of all four
+      archive.append(lines.subList(300, 400).iterator());
+      archive.awaitCompaction();
+      assertThat(archive.getSegments().size(), equalTo(1));
+
+      while (iterator.hasNext()) {
+        seen.add(iterator.next().getLogLine());
+      }
+
+      assertThat(seen, equalTo(TestLogs.sorted(lines.subList(0, 300))));
+      assertThat(TestLogs.readAll(archive.entries()), equalTo(TestLogs.sorted(lines.subList(0, 400))));
+
+    } finally {
+
+      archive.close();
+
+    }
+
+  }
+
+  @Test
+  public void testPickCompaction() {
+
+    assertThat(SortedLogArchive.pickCompaction(new long[] {100, 10, 10, 10}, 4), equalTo(-1));
+    assertThat(SortedLogArchive.pickCompaction(new long[] {100, 10, 10, 10, 10}, 4), equalTo(1));
+    assertThat(SortedLogArchive.pickCompaction(new long[] {80, 40, 30, 20, 20, 20}, 4), equalTo(2));
+    assertThat(SortedLogArchive.pickCompaction(new long[] {10, 10}, 4), equalTo(-1));
+
+  }
+
+  private static SortOptions options() {
+    return new SortOptions().setRunLineCount(100);
+  }
+
+  private static File tempDirectory() throws IOException {
+
+    final File directory = Files.createTempDirectory("test-archive-").toFile();
+    directory.deleteOnExit();
+    return directory;
+
+  }
+
+}
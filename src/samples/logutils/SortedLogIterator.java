@@ -0,0 +1,156 @@
+package samples.logutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A lazily evaluated view of the final merge pass. Each call to
+ * {@link #next()} merges one more entry out of the sorted files, so the
+ * sorted result can be consumed without writing it to an output file.
+ *
+ * Closing the iterator closes the underlying {@link SortedLogReader} and,
+ * for a sort, deletes the files it was merging. This happens on its own
+ * once the last entry has been returned; close it explicitly (e.g. with
+ * try-with-resources) when stopping early. Disk errors during iteration
+ * are thrown as {@link UncheckedIOException}.
+ */
+public class SortedLogIterator implements Iterator<LogEntry>, AutoCloseable {
+
+  private final SortedLogReader reader_;
+  private final Runnable onClose_;
+  private boolean closed_;
+
+  /**
+   * @param reader the reader over the final merge pass
+   * @param files the files being merged, deleted on close
+   */
+  SortedLogIterator(final SortedLogReader reader, final Collection<File> files) {
+
+    this(reader, deleteAll(new ArrayList<>(files)));
+
+  }
+
+  /**
+   * @param reader the reader to iterate
+   * @param onClose run once the reader is closed
+   */
+  SortedLogIterator(final SortedLogReader reader, final Runnable onClose) {
+
+    reader_ = reader;
+    onClose_ = onClose;
+
+  }
+
+  /**
+   * @return true if there are more entries; false once exhausted or closed
+   */
+  @Override
+  public boolean hasNext() {
+
+    if (closed_) {
+      return false;
+    }
+
+    if (!reader_.hasNext()) {
+      closeUnchecked();
+      return false;
+    }
+
+    return true;
+
+  }
+
+  @Override
+  public LogEntry next() {
+
+    if (!hasNext()) {
+      throw new NoSuchElementException("No more log entries");
+    }
+
+    try {
+
+      return reader_.getNextEntry();
+
+    } catch (IOException e) {
+
+      throw new UncheckedIOException(e);
+
+    }
+
+  }
+
+  /**
+   * A sequential, ordered stream over the remaining entries. Closing the
+   * stream closes this iterator.
+   *
+   * @return the remaining entries in sorted order
+   */
+  public Stream<LogEntry> stream() {
+
+    final Spliterator<LogEntry> spliterator = Spliterators.spliteratorUnknownSize(
+        this, Spliterator.ORDERED | Spliterator.NONNULL);
+
+    return StreamSupport.stream(spliterator, false).onClose(this::closeUnchecked);
+
+  }
+
+  /**
+   * Close the open files and release them, e.g. delete the files being
+   * merged. Calling this more than once has no effect.
+   * @throws IOException on failure during reader close
+   */
+  @Override
+  public void close() throws IOException {
+
+    if (closed_) {
+      return;
+    }
+    closed_ = true;
+
+    try {
+
+      reader_.closeAll();
+
+    } finally {
+
+      onClose_.run();
+
+    }
+
+  }
+
+  private static Runnable deleteAll(final List<File> files) {
+
+    return () -> {
+      for (final File file : files) {
+        file.delete();
+      }
+    };
+
+  }
+
+  private void closeUnchecked() {
+
+    try {
+
+      close();
+
+    } catch (IOException e) {
+
+      throw new UncheckedIOException(e);
+
+    }
+
+  }
+
+}
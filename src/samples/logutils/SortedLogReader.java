@@ -1,81 +1,322 @@
 package samples.logutils;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Map.Entry;
+import java.io.InputStream;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A utility class to read {@link LogEntry} values from multiple files
- * simultaneously. This reader will read in order across all files. 
+ * simultaneously. This reader will read in order across all files.
+ *
+ * The files are merged with a {@link LoserTree} over the packed sort keys
+ * of the current record of each file. Entries that compare equal are
+ * returned in file iteration order, so every line of every file is
+ * returned and the merge is stable. With {@link RunFormat#BINARY} files
+ * no line is parsed; a {@link LogEntry} is only built for the record being
+ * returned.
+ *
+ * When created from {@link SortOptions} with a read-ahead budget, each
+ * file is read through a {@link ReadAheadInputStream}: the budget is split
+ * evenly between the files, two blocks per file, and blocks are read on a
+ * small pool of background threads, so the disk sees large sequential
+ * reads that overlap with merging.
  */
 public class SortedLogReader {
 
-  private final TreeMap<LogEntry, BufferedReader> map_ = new TreeMap<>();
-  
+  /** Default per-file read buffer size in bytes */
+  public static final int DEFAULT_BUFFER_SIZE = 16384;
+
+  /** Maximum number of threads reading blocks ahead */
+  public static final int READ_AHEAD_THREADS = 4;
+
+  private final RunCursor[] cursors_;
+  private final long[] keys_;
+  private final LoserTree tree_;
+  private final ThreadPoolExecutor readAhead_;
+
   public SortedLogReader(final Set<File> files) throws IOException {
-    
-    for (final File file : files) {
-      
-      final BufferedReader reader = new BufferedReader(new FileReader(file));
-      final String line = reader.readLine();
-      final LogEntry entry = LogEntry.fromString(line);
-      map_.put(entry, reader);
-      
+
+    this(files, DEFAULT_BUFFER_SIZE);
+
+  }
+
+  /**
+   * @param files the sorted text files to merge, in run order
+   * @param bufferSize the read buffer size per file in bytes
+   * @throws IOException on failure to open or read a file
+   */
+  public SortedLogReader(final Set<File> files, final int bufferSize) throws IOException {
+
+    this(files, bufferSize, RunFormat.TEXT);
+
+  }
+
+  /**
+   * @param files the sorted files to merge, in run order
+   * @param bufferSize the read buffer size per file in bytes
+   * @param format the encoding of the files
+   * @throws IOException on failure to open or read a file
+   */
+  public SortedLogReader(final Set<File> files,
+                         final int bufferSize,
+                         final RunFormat format) throws IOException {
+
+    this(files, bufferSize, format, SpillCodec.NONE);
+
+  }
+
+  /**
+   * @param files the sorted files to merge, in run order
+   * @param bufferSize the read buffer size per file in bytes
+   * @param format the encoding of the files
+   * @param codec the codec the files were written with
+   * @throws IOException on failure to open or read a file
+   */
+  public SortedLogReader(final Set<File> files,
+                         final int bufferSize,
+                         final RunFormat format,
+                         final SpillCodec codec) throws IOException {
+
+    this(files, bufferSize, format, codec, 0);
+
+  }
+
+  /**
+   * Merge files using the buffer size, format, codec and read-ahead
+   * settings of the sort options.
+   *
+   * @param files the sorted files to merge, in run order
+   * @param options the sort options
+   * @throws IOException on failure to open or read a file
+   */
+  public SortedLogReader(final Set<File> files, final SortOptions options) throws IOException {
+
+    this(files, options.getMergeBufferSize(), options.getRunFormat(), options.getSpillCodec(),
+         readAheadBlockSize(options, files.size()));
+
+  }
+
+  private SortedLogReader(final Set<File> files,
+                          final int bufferSize,
+                          final RunFormat format,
+                          final SpillCodec codec,
+                          final int readAheadBlockSize) throws IOException {
+
+    if (bufferSize < 1)
+      throw new IllegalArgumentException("Buffer size must be positive.");
+
+    cursors_ = new RunCursor[files.size()];
+    keys_ = new long[files.size()];
+
+    if (readAheadBlockSize > 0) {
+
+      // idle threads exit on their own, so a reader that is drained but
+      // never closed does not keep them
+      final int threads = Math.min(files.size(), READ_AHEAD_THREADS);
+      readAhead_ = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<Runnable>(),
+                                          new DaemonThreadFactory("log-read-ahead-"));
+      readAhead_.allowCoreThreadTimeOut(true);
+
+    } else {
+
+      readAhead_ = null;
+
     }
-    
+
+    int run = 0;
+
+    try {
+
+      for (final File file : files) {
+
+        final InputStream in = new FileInputStream(file);
+        cursors_[run] = format.openCursor(
+            readAhead_ == null ? in : new ReadAheadInputStream(in, readAheadBlockSize, readAhead_),
+            bufferSize, codec);
+        advance(run);
+        run++;
+
+      }
+
+    } catch (IOException | RuntimeException e) {
+
+      closeAll();
+      throw e;
+
+    }
+
+    tree_ = newTree();
+
+  }
+
+  /**
+   * Merge already opened cursors, e.g. over a key range of each run.
+   *
+   * @param cursors the cursors positioned before their first record, in
+   *        run order; all are closed by {@link #closeAll()}
+   * @throws IOException on failure to read a cursor
+   */
+  SortedLogReader(final RunCursor[] cursors) throws IOException {
+
+    cursors_ = cursors;
+    keys_ = new long[cursors.length];
+    readAhead_ = null;
+
+    try {
+
+      for (int run = 0; run < cursors_.length; run++) {
+        advance(run);
+      }
+
+    } catch (IOException | RuntimeException e) {
+
+      closeAll();
+      throw e;
+
+    }
+
+    tree_ = newTree();
+
   }
-  
+
   /**
    * @return true if there are any more log entries to read
    */
   public boolean hasNext() {
-    return !map_.isEmpty(); 
+    return cursors_.length > 0 && cursors_[tree_.winner()] != null;
   }
-  
-  /** 
+
+  /**
    * Fetch the next entry from the log reader.
    */
   public LogEntry getNextEntry() throws IOException {
-    
-    final Entry<LogEntry, BufferedReader> mapEntry = map_.firstEntry();
-    
-    final LogEntry logEntry = mapEntry.getKey();
-    final BufferedReader reader = mapEntry.getValue();
-    
-    map_.remove(logEntry);
-    
-    final String line = reader.readLine();
-    
-    if (line != null) {
-      
-      final LogEntry newEntry = LogEntry.fromString(line);
-      map_.put(newEntry, reader);
-      
-    } else {
-      reader.close();
-    }
-    
+
+    final int run = nextRun();
+    final LogEntry logEntry = cursors_[run].entry();
+
+    advance(run);
+    tree_.replay();
+
     return logEntry;
-    
+
   }
-  
+
   /**
-   * Close any opened files and clears the local storage map. Invoke this
-   * method on early termination. 
-   * @throws IOException on failure during reader close 
+   * Write the next record straight to a run writer, without building a
+   * {@link LogEntry} where the file format allows it.
+   */
+  void copyNextEntry(final RunWriter writer) throws IOException {
+
+    final int run = nextRun();
+    cursors_[run].copyTo(writer);
+
+    advance(run);
+    tree_.replay();
+
+  }
+
+  /**
+   * Close any opened files and clears the local storage. Invoke this
+   * method on early termination.
+   * @throws IOException on failure during reader close
    */
   public void closeAll() throws IOException {
-    
-    for (Entry<LogEntry, BufferedReader> entry : map_.entrySet()) {
-      entry.getValue().close();
+
+    try {
+
+      for (int run = 0; run < cursors_.length; run++) {
+
+        if (cursors_[run] != null) {
+          cursors_[run].close();
+          cursors_[run] = null;
+        }
+
+      }
+
+    } finally {
+
+      if (readAhead_ != null) {
+        readAhead_.shutdown();
+      }
+
+    }
+
+  }
+
+  /**
+   * Split the read-ahead budget of the options between the files, two
+   * blocks per file, capped at the maximum block size.
+   *
+   * @return the block size, or 0 if read-ahead is off or each file's share
+   *         would not exceed the plain read buffer
+   */
+  static int readAheadBlockSize(final SortOptions options, final int fileCount) {
+
+    if (options.getReadAheadBudget() == 0 || fileCount == 0) {
+      return 0;
     }
-    
-    map_.clear();
-    
+
+    final long share = options.getReadAheadBudget() / (2L * fileCount);
+    final long blockSize = Math.min(share, options.getReadAheadBlockSize());
+
+    return blockSize > options.getMergeBufferSize() ? (int) blockSize : 0;
+
+  }
+
+  private LoserTree newTree() {
+
+    return new LoserTree(Math.max(1, cursors_.length), new LoserTree.RunComparator() {
+
+      @Override
+      public boolean isExhausted(final int run) {
+        return cursors_[run] == null;
+      }
+
+      @Override
+      public int compare(final int run1, final int run2) {
+        return Long.compare(keys_[run1], keys_[run2]);
+      }
+
+    });
+
   }
-  
+
+  private int nextRun() {
+
+    if (!hasNext()) {
+      throw new NoSuchElementException("No more log entries");
+    }
+
+    return tree_.winner();
+
+  }
+
+  /**
+   * Move a run to its next record and cache its key, closing the run's
+   * file once it is exhausted.
+   */
+  private void advance(final int run) throws IOException {
+
+    final RunCursor cursor = cursors_[run];
+
+    if (cursor.advance()) {
+
+      keys_[run] = cursor.key();
+
+    } else {
+
+      cursor.close();
+      cursors_[run] = null;
+
+    }
+
+  }
+
 }
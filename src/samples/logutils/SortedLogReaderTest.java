@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -54,5 +55,44 @@ public class SortedLogReaderTest {
     assertThat(list, equalTo(Arrays.asList(entry1, entry2, entry3, entry4, entry5, entry6)));
     
   }
+  
+  @Test
+  public void testDuplicateKeys() throws IOException {
+    
+    final RollingSortedLogWriter rslw = new RollingSortedLogWriter(2);
+    
+    // every run starts with the same timestamp and severity
+    final LogEntry entry1 = LogEntry.fromString("[2015-11-19 10:31:55.128+0000] [HOST1] [ERROR] [CLASS2] [MESSAGE2 random]");
+    final LogEntry entry2 = LogEntry.fromString("[2015-11-19 10:35:55.267+0000] [HOST1] [INFO] [CLASS4] [MESSAGE4 too]");
+    final LogEntry entry3 = LogEntry.fromString("[2015-11-19 10:31:55.128+0000] [HOST2] [ERROR] [CLASS2] [MESSAGE2 random]");
+    final LogEntry entry4 = LogEntry.fromString("[2015-11-19 10:35:55.267+0000] [HOST2] [INFO] [CLASS4] [MESSAGE4 too]");
+    final LogEntry entry5 = LogEntry.fromString("[2015-11-19 10:31:55.128+0000] [HOST3] [ERROR] [CLASS2] [MESSAGE2 random]");
+    
+    rslw.addLogEntry(entry1);
+    rslw.addLogEntry(entry2);
+    rslw.addLogEntry(entry3);
+    rslw.addLogEntry(entry4);
+    rslw.addLogEntry(entry5);
+    rslw.close();
+    
+    final SortedLogReader reader = new SortedLogReader(rslw.getFiles());
+    
+    final List<LogEntry> list = new ArrayList<>();
+    while (reader.hasNext()) {
+      list.add(reader.getNextEntry());
+    }
+    
+    assertThat(list, equalTo(Arrays.asList(entry1, entry3, entry5, entry2, entry4)));
+    
+  }
+  
+  @Test
+  public void testNoFiles() throws IOException {
+    
+    final SortedLogReader reader = new SortedLogReader(new HashSet<File>());
+    assertFalse(reader.hasNext());
+    reader.closeAll();
+    
+  }
 
 }
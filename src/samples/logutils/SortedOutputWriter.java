@@ -0,0 +1,92 @@
+package samples.logutils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes sorted entries as raw log lines, one per line, optionally noting
+ * a {@link TimeIndex} checkpoint as the lines go by. Byte backed entries
+ * are written as they are, without encoding.
+ */
+public class SortedOutputWriter {
+
+  // buffer for the sorted output
+  private static final int OUTPUT_BUFFER_SIZE = 256 * 1024;
+
+  private final OutputStream out_;
+  private final byte[] separator_ =
+      System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+  private final TimeIndex index_;
+  private long position_;
+
+  /**
+   * @param out the stream to write to, not closed by this writer
+   * @param timeIndexInterval the bytes between index checkpoints, or 0 to
+   *        write no index, see {@link SortOptions#setTimeIndexInterval(int)}
+   */
+  public SortedOutputWriter(final OutputStream out, final int timeIndexInterval) {
+
+    out_ = new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE);
+    index_ = timeIndexInterval > 0 ? new TimeIndex(timeIndexInterval) : null;
+
+  }
+
+  /**
+   * @param entry the next entry in sorted order
+   * @throws IOException on write errors
+   */
+  public void write(final LogEntry entry) throws IOException {
+
+    if (index_ != null) {
+      index_.record(entry.getTimestampMillis(), position_);
+    }
+
+    if (entry.isUtf8()) {
+
+      out_.write(entry.getUtf8Array(), entry.getUtf8Offset(), entry.getUtf8Length());
+      position_ += entry.getUtf8Length();
+
+    } else {
+
+      final byte[] utf8 = entry.getLogLine().getBytes(StandardCharsets.UTF_8);
+      out_.write(utf8);
+      position_ += utf8.length;
+
+    }
+
+    out_.write(separator_);
+    position_ += separator_.length;
+
+  }
+
+  /**
+   * Flush the buffered lines to the stream.
+   * @throws IOException on write errors
+   */
+  public void flush() throws IOException {
+    out_.flush();
+  }
+
+  /**
+   * @return the number of bytes written
+   */
+  public long getPosition() {
+    return position_;
+  }
+
+  /**
+   * @return the index of the lines written so far, or null if not indexing
+   */
+  public TimeIndex getTimeIndex() {
+
+    if (index_ != null) {
+      index_.setDataLength(position_);
+    }
+
+    return index_;
+
+  }
+
+}
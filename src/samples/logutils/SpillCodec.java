@@ -0,0 +1,66 @@
+package samples.logutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes the bytes of sorted temporary files on their way to and from 
+ * disk, typically to trade spare CPU for less spill IO and temp space. 
+ * Implementations must be safe to use from several threads at once, since
+ * runs are written and read concurrently. 
+ */
+public interface SpillCodec {
+
+  /** Stores spill files as is */
+  SpillCodec NONE = new SpillCodec() {
+    
+    @Override
+    public OutputStream encode(final OutputStream out) {
+      return out;
+    }
+    
+    @Override
+    public InputStream decode(final InputStream in) {
+      return in;
+    }
+    
+    @Override
+    public String getName() {
+      return "NONE";
+    }
+    
+  };
+  
+  /**
+   * Wrap a raw file stream with an encoding stream. Closing the returned
+   * stream must close the given stream. 
+   * 
+   * @param out the raw file output 
+   * @return a stream that encodes into out
+   * @throws IOException on disk IO errors 
+   */
+  OutputStream encode(OutputStream out) throws IOException;
+  
+  /**
+   * Wrap a raw file stream with a decoding stream. Closing the returned
+   * stream must close the given stream. 
+   * 
+   * @param in the raw file input 
+   * @return a stream that decodes from in
+   * @throws IOException on disk IO errors 
+   */
+  InputStream decode(InputStream in) throws IOException;
+  
+  /**
+   * Identify the encoding, e.g. in the manifest of a 
+   * {@link SortedLogArchive}. Codecs that can read each other's files 
+   * share a name. 
+   * 
+   * @return the name of the encoding, by default the class name 
+   */
+  default String getName() {
+    return getClass().getName();
+  }
+  
+}
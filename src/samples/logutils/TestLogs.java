@@ -0,0 +1,66 @@
+package samples.logutils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Helpers shared by the tests for turning generated input into lines and
+ * the lines a sort is expected to produce.
+ */
+final class TestLogs {
+
+  private TestLogs() {
+    // static utility
+  }
+
+  /**
+   * @return the lines of the input
+   */
+  static List<String> lines(final String input) throws IOException {
+
+    final List<String> lines = new ArrayList<>();
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      lines.add(line);
+    }
+    return lines;
+
+  }
+
+  /**
+   * @return the lines stably sorted by their entries
+   */
+  static List<String> sorted(final List<String> lines) {
+
+    final List<LogEntry> entries = new ArrayList<>();
+    for (final String line : lines) {
+      entries.add(LogEntry.fromString(line));
+    }
+    Collections.sort(entries);
+
+    final List<String> sorted = new ArrayList<>();
+    for (final LogEntry entry : entries) {
+      sorted.add(entry.getLogLine());
+    }
+    return sorted;
+
+  }
+
+  /**
+   * @return the lines of all remaining entries of the iterator
+   */
+  static List<String> readAll(final SortedLogIterator iterator) {
+
+    final List<String> lines = new ArrayList<>();
+    while (iterator.hasNext()) {
+      lines.add(iterator.next().getLogLine());
+    }
+    return lines;
+
+  }
+
+}
@@ -0,0 +1,379 @@
+package samples.logutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Sparse (timestamp, byte offset) checkpoints of a sorted log file, i.e.
+ * the output of a sort. A checkpoint is taken at the first line and then
+ * at the first line after every {@link #getInterval()} bytes, so a reader
+ * can seek close to any time without scanning the file, see
+ * {@link TimeRangeReader}. Lines are sorted, so the checkpoint timestamps
+ * never decrease.
+ *
+ * The index is stored in a sidecar file next to the sorted file, see
+ * {@link #sidecarOf(File)}: the interval, the length of the sorted file
+ * when it was indexed, the checkpoint count and the checkpoints as
+ * (timestamp, offset) pairs. The length lets readers detect an index that
+ * no longer matches its file.
+ */
+public final class TimeIndex {
+
+  /** Default number of bytes of sorted output between checkpoints */
+  public static final int DEFAULT_INTERVAL = 64 * 1024;
+
+  /** Suffix appended to the sorted file name to name its index */
+  public static final String SUFFIX = ".idx";
+
+  // read size when building an index from a sorted file
+  private static final int SCAN_WINDOW = 4096;
+
+  private final int interval_;
+  private long[] timestamps_;
+  private long[] offsets_;
+  private int count_;
+  private long nextCheckpoint_;
+  private long dataLength_;
+
+  TimeIndex(final int interval) {
+
+    this(interval, 16);
+
+  }
+
+  private TimeIndex(final int interval, final int capacity) {
+
+    if (interval < 1)
+      throw new IllegalArgumentException("Index interval must be positive.");
+
+    interval_ = interval;
+    timestamps_ = new long[capacity];
+    offsets_ = new long[capacity];
+
+  }
+
+  /**
+   * @param sorted a sorted log file
+   * @return the sidecar file holding its index
+   */
+  public static File sidecarOf(final File sorted) {
+    return new File(sorted.getPath() + SUFFIX);
+  }
+
+  /**
+   * Read an index sidecar.
+   *
+   * @param sidecar the file written by {@link #write(File)}
+   * @return the index
+   * @throws IOException on disk IO errors, or if the file is not an index
+   */
+  public static TimeIndex read(final File sidecar) throws IOException {
+
+    final DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+
+    try {
+
+      final int interval = in.readInt();
+      final long dataLength = in.readLong();
+      final int count = in.readInt();
+
+      if (interval < 1 || dataLength < 0 || count < 0
+          || 16 + 16L * count != sidecar.length())
+        throw new IOException("Corrupt time index: " + sidecar);
+
+      final TimeIndex index = new TimeIndex(interval, Math.max(1, count));
+      for (int i = 0; i < count; i++) {
+        index.add(in.readLong(), in.readLong());
+      }
+      index.dataLength_ = dataLength;
+
+      return index;
+
+    } catch (EOFException e) {
+
+      throw new IOException("Corrupt time index: " + sidecar, e);
+
+    } finally {
+
+      in.close();
+
+    }
+
+  }
+
+  /**
+   * Index an existing sorted log file, e.g. one sorted without an index.
+   * Only the lines at the checkpoints are read, a few kilobytes per
+   * interval. Lines that fail to parse are never checkpoints.
+   *
+   * @param sorted a sorted log file of UTF-8 lines
+   * @param interval the number of bytes between checkpoints
+   * @return the index
+   * @throws IOException on disk IO errors
+   */
+  public static TimeIndex build(final File sorted, final int interval) throws IOException {
+
+    final TimeIndex index = new TimeIndex(interval);
+    final FileInputStream in = new FileInputStream(sorted);
+
+    try {
+
+      final FileChannel channel = in.getChannel();
+      final long size = channel.size();
+      ByteBuffer window = ByteBuffer.allocate(SCAN_WINDOW);
+
+      for (long position = 0; position < size;) {
+
+        // the first line starting at or after position
+        final long start = position == 0 ? 0 : lineAfter(channel, position - 1, window);
+        if (start < 0) {
+          break;
+        }
+
+        window = readLine(channel, start, window);
+        final long key = LogEntryParser.parseSortKey(window, 0, window.limit());
+
+        if (key == LogEntryParser.INVALID_KEY) {
+          position = start + 1;
+        } else {
+          index.add(LogEntryParser.timestampOf(key), start);
+          position = start + interval;
+        }
+
+      }
+
+      index.dataLength_ = size;
+
+    } finally {
+
+      in.close();
+
+    }
+
+    return index;
+
+  }
+
+  /**
+   * Write the index to a sidecar file, replacing it if it exists.
+   *
+   * @param sidecar the file to write, see {@link #sidecarOf(File)}
+   * @throws IOException on disk IO errors
+   */
+  public void write(final File sidecar) throws IOException {
+
+    final DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)));
+
+    try {
+
+      out.writeInt(interval_);
+      out.writeLong(dataLength_);
+      out.writeInt(count_);
+
+      for (int i = 0; i < count_; i++) {
+        out.writeLong(timestamps_[i]);
+        out.writeLong(offsets_[i]);
+      }
+
+    } finally {
+
+      out.close();
+
+    }
+
+  }
+
+  /**
+   * @return the number of bytes between checkpoints
+   */
+  public int getInterval() {
+    return interval_;
+  }
+
+  /**
+   * @return the length of the sorted file when it was indexed
+   */
+  public long getDataLength() {
+    return dataLength_;
+  }
+
+  /**
+   * @return the number of checkpoints
+   */
+  public int size() {
+    return count_;
+  }
+
+  /**
+   * @return the timestamp in epoch milliseconds of checkpoint i
+   */
+  public long getTimestampMillis(final int i) {
+    return timestamps_[i];
+  }
+
+  /**
+   * @return the byte offset of the line of checkpoint i
+   */
+  public long getOffset(final int i) {
+    return offsets_[i];
+  }
+
+  /**
+   * Find where to start reading for the first line at or after a time.
+   * Every line before the returned offset is older.
+   *
+   * @param timestampMillis the time to seek to, in epoch milliseconds
+   * @return the offset of the last checkpoint older than the time, or 0
+   */
+  public long offsetBefore(final long timestampMillis) {
+
+    int lo = 0;
+    int hi = count_;
+
+    // first checkpoint at or after the time; equal timestamps may also
+    // precede it, so start from the one before
+    while (lo < hi) {
+
+      final int mid = (lo + hi) >>> 1;
+
+      if (timestamps_[mid] < timestampMillis) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+
+    }
+
+    return lo == 0 ? 0 : offsets_[lo - 1];
+
+  }
+
+  /**
+   * Note a line being written and take a checkpoint if it is due.
+   *
+   * @param timestampMillis the timestamp of the line
+   * @param offset the byte offset of the line in the sorted file
+   */
+  void record(final long timestampMillis, final long offset) {
+
+    if (offset >= nextCheckpoint_) {
+      add(timestampMillis, offset);
+      nextCheckpoint_ = offset + interval_;
+    }
+
+  }
+
+  /**
+   * Add the checkpoints of an index of a file appended at the given offset.
+   */
+  void append(final TimeIndex other, final long shift) {
+
+    for (int i = 0; i < other.count_; i++) {
+      add(other.timestamps_[i], other.offsets_[i] + shift);
+    }
+
+  }
+
+  void setDataLength(final long dataLength) {
+    dataLength_ = dataLength;
+  }
+
+  private void add(final long timestampMillis, final long offset) {
+
+    if (count_ == timestamps_.length) {
+      timestamps_ = Arrays.copyOf(timestamps_, count_ * 2);
+      offsets_ = Arrays.copyOf(offsets_, count_ * 2);
+    }
+
+    timestamps_[count_] = timestampMillis;
+    offsets_[count_] = offset;
+    count_++;
+
+  }
+
+  /**
+   * @return the offset after the first line feed at or after position, or
+   *         -1 if there is none
+   */
+  private static long lineAfter(final FileChannel channel,
+                                final long position,
+                                final ByteBuffer window) throws IOException {
+
+    for (long offset = position;;) {
+
+      window.clear();
+      final int read = channel.read(window, offset);
+      if (read <= 0) {
+        return -1;
+      }
+
+      for (int i = 0; i < read; i++) {
+        if (window.get(i) == '\n') {
+          return offset + i + 1;
+        }
+      }
+
+      offset += read;
+
+    }
+
+  }
+
+  /**
+   * Read the line starting at an offset into the window, growing it as
+   * needed. The returned window holds the line from index 0 to its limit,
+   * without the line ending.
+   */
+  private static ByteBuffer readLine(final FileChannel channel,
+                                     final long start,
+                                     ByteBuffer window) throws IOException {
+
+    while (true) {
+
+      window.clear();
+      int filled = 0;
+      for (int read; filled < window.capacity()
+          && (read = channel.read(window, start + filled)) > 0;) {
+        filled += read;
+      }
+
+      int end = -1;
+      for (int i = 0; i < filled; i++) {
+        if (window.get(i) == '\n') {
+          end = i;
+          break;
+        }
+      }
+
+      if (end < 0 && filled == window.capacity()) {
+        window = ByteBuffer.allocate(window.capacity() * 2);
+        continue;
+      }
+
+      if (end < 0) {
+        end = filled; // the last line, without a line ending
+      }
+      if (end > 0 && window.get(end - 1) == '\r') {
+        end--;
+      }
+
+      window.limit(end);
+      return window;
+
+    }
+
+  }
+
+}
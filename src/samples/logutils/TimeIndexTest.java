@@ -0,0 +1,137 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimeIndexTest {
+
+  @Test
+  public void testBuildMatchesWriter() throws IOException {
+
+    final File file = File.createTempFile("test-sorted-", ".txt");
+    file.deleteOnExit();
+
+    final TimeIndex written = writeSorted(ParallelRunGeneratorTest.randomLog(5000), file, 4096);
+    final TimeIndex built = TimeIndex.build(file, 4096);
+
+    assertThat(written.size() > 1, equalTo(true));
+    assertIndexEquals(built, written);
+    assertThat(built.getDataLength(), equalTo(file.length()));
+
+  }
+
+  @Test
+  public void testReadWrite() throws IOException {
+
+    final File file = File.createTempFile("test-sorted-", ".txt");
+    file.deleteOnExit();
+    final File sidecar = TimeIndex.sidecarOf(file);
+    sidecar.deleteOnExit();
+
+    final TimeIndex index = writeSorted(ParallelRunGeneratorTest.randomLog(2000), file, 1024);
+    index.write(sidecar);
+
+    assertIndexEquals(TimeIndex.read(sidecar), index);
+    assertThat(TimeIndex.read(sidecar).getInterval(), equalTo(1024));
+
+  }
+
+  @Test
+  public void testOffsetBefore() throws IOException {
+
+    final File file = File.createTempFile("test-sorted-", ".txt");
+    file.deleteOnExit();
+
+    final TimeIndex index = writeSorted(ParallelRunGeneratorTest.randomLog(2000), file, 1024);
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+    try {
+
+      for (int i = 1; i < index.size(); i++) {
+
+        final long time = index.getTimestampMillis(i);
+        final long offset = index.offsetBefore(time);
+        assertThat(offset < index.getOffset(i), equalTo(true));
+
+        // the line at the returned offset is older than the time sought
+        raf.seek(offset);
+        assertThat(LogEntry.fromString(raf.readLine()).getTimestampMillis(), lessThan(time));
+
+      }
+
+      assertThat(index.offsetBefore(Long.MIN_VALUE), equalTo(0L));
+
+    } finally {
+
+      raf.close();
+
+    }
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInterval() throws IOException {
+
+    final File file = File.createTempFile("test-sorted-", ".txt");
+    file.deleteOnExit();
+
+    TimeIndex.build(file, 0);
+
+  }
+
+  /**
+   * Sort the lines and write them to the file, indexing as they go.
+   */
+  static TimeIndex writeSorted(final String input,
+                               final File file,
+                               final int interval) throws IOException {
+
+    final List<LogEntry> entries = new ArrayList<>();
+    final BufferedReader reader = new BufferedReader(new StringReader(input));
+    for (String line; (line = reader.readLine()) != null;) {
+      entries.add(LogEntry.fromString(line));
+    }
+    Collections.sort(entries);
+
+    final FileOutputStream fos = new FileOutputStream(file);
+    final SortedOutputWriter writer = new SortedOutputWriter(fos, interval);
+
+    try {
+      for (final LogEntry entry : entries) {
+        writer.write(entry);
+      }
+      writer.flush();
+    } finally {
+      fos.close();
+    }
+
+    return writer.getTimeIndex();
+
+  }
+
+  private static void assertIndexEquals(final TimeIndex actual, final TimeIndex expected) {
+
+    assertThat(actual.size(), equalTo(expected.size()));
+    assertThat(actual.getDataLength(), equalTo(expected.getDataLength()));
+
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(actual.getTimestampMillis(i), equalTo(expected.getTimestampMillis(i)));
+      assertThat(actual.getOffset(i), equalTo(expected.getOffset(i)));
+    }
+
+  }
+
+}
@@ -0,0 +1,183 @@
+package samples.logutils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import samples.logutils.LogEntry.Severity;
+
+/**
+ * Reads the entries of a time range out of a sorted log file. With a
+ * {@link TimeIndex} the file is seeked to the last checkpoint before the
+ * range, so only about one index interval is read ahead of the range;
+ * reading stops at the first line after the range. Without an index the
+ * file is read from its start.
+ */
+public class TimeRangeReader {
+
+  private final File file_;
+  private final TimeIndex index_;
+  private final int bufferSize_;
+
+  /**
+   * Open a sorted file, using its index sidecar if there is one.
+   *
+   * @param sorted a sorted log file, e.g. the output of a sort
+   * @throws IOException if the sidecar is unreadable or does not match the
+   *         file
+   */
+  public TimeRangeReader(final File sorted) throws IOException {
+
+    this(sorted, TimeIndex.sidecarOf(sorted).exists()
+        ? TimeIndex.read(TimeIndex.sidecarOf(sorted)) : null);
+
+  }
+
+  /**
+   * @param sorted a sorted log file
+   * @param index its index, or null to read from the start
+   * @throws IOException if the index does not match the file
+   */
+  public TimeRangeReader(final File sorted, final TimeIndex index) throws IOException {
+
+    if (index != null && index.getDataLength() != sorted.length())
+      throw new IOException("Time index does not match the sorted file: " + sorted);
+
+    file_ = sorted;
+    index_ = index;
+    bufferSize_ = SortedLogReader.DEFAULT_BUFFER_SIZE;
+
+  }
+
+  /**
+   * @return the index used to seek, or null
+   */
+  public TimeIndex getTimeIndex() {
+    return index_;
+  }
+
+  /**
+   * Iterate over the entries with timestamps in [from, to), in file order.
+   * Close the iterator when stopping early.
+   *
+   * @param fromMillis the first time included, in epoch milliseconds
+   * @param toMillis the first time excluded, in epoch milliseconds
+   * @return the entries of the range
+   * @throws IOException on disk IO errors
+   */
+  public SortedLogIterator entries(final long fromMillis, final long toMillis) throws IOException {
+
+    if (toMillis < fromMillis)
+      throw new IllegalArgumentException("Range end must not be before its start.");
+
+    final FileInputStream in = new FileInputStream(file_);
+
+    try {
+      if (index_ != null) {
+        in.getChannel().position(index_.offsetBefore(fromMillis));
+      }
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+
+    // the lowest key at each time, so every severity is in range; times
+    // beyond those a key can hold leave that end of the range open
+    final RunCursor cursor = new RangeCursor(
+        new LineCursor(new BufferedInputStream(in, bufferSize_)),
+        fromMillis < LogEntryParser.timestampOf(Long.MIN_VALUE)
+            ? Long.MIN_VALUE : LogEntry.sortKey(fromMillis, Severity.ERROR),
+        toMillis > LogEntryParser.timestampOf(Long.MAX_VALUE)
+            ? Long.MAX_VALUE : LogEntry.sortKey(toMillis, Severity.ERROR));
+
+    return new SortedLogIterator(new SortedLogReader(new RunCursor[] {cursor}), () -> { });
+
+  }
+
+  /**
+   * See {@link #entries(long, long)}.
+   */
+  public SortedLogIterator entries(final Date from, final Date to) throws IOException {
+
+    return entries(from.getTime(), to.getTime());
+
+  }
+
+  /**
+   * The lines of a sorted file as byte backed entries, skipping lines that
+   * fail to parse.
+   */
+  private static final class LineCursor extends RunCursor {
+
+    private final InputStream in_;
+    private byte[] line_ = new byte[256];
+    private LogEntry current_;
+
+    LineCursor(final InputStream in) {
+      in_ = in;
+    }
+
+    @Override
+    boolean advance() throws IOException {
+
+      for (int length; (length = readLine()) >= 0;) {
+
+        current_ = LogEntryParser.parse(Arrays.copyOf(line_, length), 0, length);
+        if (current_ != null) {
+          return true;
+        }
+
+      }
+
+      current_ = null;
+      return false;
+
+    }
+
+    /**
+     * @return the length of the next line without its line ending, or -1
+     *         at the end of the file
+     */
+    private int readLine() throws IOException {
+
+      int length = 0;
+
+      for (int b; (b = in_.read()) != '\n';) {
+
+        if (b < 0) {
+          return length == 0 ? -1 : length;
+        }
+
+        if (length == line_.length) {
+          line_ = Arrays.copyOf(line_, length * 2);
+        }
+        line_[length++] = (byte) b;
+
+      }
+
+      return length > 0 && line_[length - 1] == '\r' ? length - 1 : length;
+
+    }
+
+    @Override
+    long key() {
+      return current_.getSortKey();
+    }
+
+    @Override
+    LogEntry entry() {
+      return current_;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in_.close();
+    }
+
+  }
+
+}
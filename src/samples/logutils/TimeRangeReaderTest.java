@@ -0,0 +1,120 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimeRangeReaderTest {
+
+  @Test
+  public void testRanges() throws IOException {
+
+    final String input = ParallelRunGeneratorTest.randomLog(5000);
+    final File file = File.createTempFile("test-sorted-", ".txt");
+    file.deleteOnExit();
+    TimeIndexTest.writeSorted(input, file, 2048);
+
+    final List<String> sorted = TestLogs.sorted(TestLogs.lines(input));
+    final long first = LogEntry.fromString(sorted.get(0)).getTimestampMillis();
+    final long last = LogEntry.fromString(sorted.get(sorted.size() - 1)).getTimestampMillis();
+
+    final TimeRangeReader indexed = new TimeRangeReader(file, TimeIndex.build(file, 2048));
+    final TimeRangeReader unindexed = new TimeRangeReader(file, null);
+    final Random random = new Random(42);
+
+    for (int i = 0; i < 20; i++) {
+
+      final long from = first + (long) (random.nextDouble() * (last - first));
+      final long to = from + (long) (random.nextDouble() * (last - from + 2));
+      final List<String> expected = between(sorted, from, to);
+
+      assertThat(TestLogs.readAll(indexed.entries(from, to)), equalTo(expected));
+      assertThat(TestLogs.readAll(unindexed.entries(from, to)), equalTo(expected));
+
+    }
+
+    // the whole file, and a range on an existing timestamp
+    assertThat(TestLogs.readAll(indexed.entries(first, last + 1)), equalTo(sorted));
+    final long middle = LogEntry.fromString(sorted.get(sorted.size() / 2)).getTimestampMillis();
+    assertThat(TestLogs.readAll(indexed.entries(middle, middle + 1)),
+               equalTo(between(sorted, middle, middle + 1)));
+
+  }
+
+  @Test
+  public void testOpenEndedRanges() throws IOException {
+
+    final String input = ParallelRunGeneratorTest.randomLog(1000);
+    final File file = File.createTempFile("test-sorted-", ".txt");
+    file.deleteOnExit();
+    TimeIndexTest.writeSorted(input, file, 1024);
+
+    final List<String> sorted = TestLogs.sorted(TestLogs.lines(input));
+    final long middle = LogEntry.fromString(sorted.get(sorted.size() / 2)).getTimestampMillis();
+
+    for (final TimeRangeReader reader : new TimeRangeReader[] {
+        new TimeRangeReader(file, TimeIndex.build(file, 1024)), new TimeRangeReader(file, null)}) {
+
+      assertThat(TestLogs.readAll(reader.entries(0, Long.MAX_VALUE)), equalTo(sorted));
+      assertThat(TestLogs.readAll(reader.entries(Long.MIN_VALUE, Long.MAX_VALUE)), equalTo(sorted));
+      assertThat(TestLogs.readAll(reader.entries(middle, Long.MAX_VALUE)),
+                 equalTo(between(sorted, middle, Long.MAX_VALUE)));
+      assertThat(TestLogs.readAll(reader.entries(Long.MIN_VALUE, middle)),
+                 equalTo(between(sorted, Long.MIN_VALUE, middle)));
+
+    }
+
+  }
+
+  @Test
+  public void testSidecar() throws IOException {
+
+    final File file = File.createTempFile("test-sorted-", ".txt");
+    file.deleteOnExit();
+    final File sidecar = TimeIndex.sidecarOf(file);
+    sidecar.deleteOnExit();
+
+    TimeIndexTest.writeSorted(ParallelRunGeneratorTest.randomLog(1000), file, 1024).write(sidecar);
+
+    assertThat(new TimeRangeReader(file).getTimeIndex().size(),
+               equalTo(TimeIndex.read(sidecar).size()));
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testStaleIndex() throws IOException {
+
+    final File file = File.createTempFile("test-sorted-", ".txt");
+    file.deleteOnExit();
+    final TimeIndex index = TimeIndexTest.writeSorted(ParallelRunGeneratorTest.randomLog(100), file, 1024);
+
+    final FileWriter writer = new FileWriter(file, true);
+    writer.write("appended after indexing");
+    writer.close();
+
+    new TimeRangeReader(file, index);
+
+  }
+
+  private static List<String> between(final List<String> sorted, final long from, final long to) {
+
+    final List<String> lines = new ArrayList<>();
+    for (final String line : sorted) {
+      final long time = LogEntry.fromString(line).getTimestampMillis();
+      if (time >= from && time < to) {
+        lines.add(line);
+      }
+    }
+    return lines;
+
+  }
+
+}
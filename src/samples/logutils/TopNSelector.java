@@ -0,0 +1,328 @@
+package samples.logutils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Selects the first or last N entries of an unsorted log in time order,
+ * without an external sort. The input is read once and only N entries are
+ * ever retained, in a bounded heap whose root is the entry that would be
+ * dropped next, so the cost is O(n log N) time and O(N) memory with no
+ * temporary files.
+ *
+ * With more than one {@link SortOptions#getThreadCount()} the input is cut
+ * into batches of lines, as by {@link ParallelRunGenerator}, each batch is
+ * parsed and reduced to its own top N on a pool of workers, and the calling
+ * thread merges the batch heaps into the result.
+ *
+ * Entries are ordered by sort key and then by input position, so the
+ * result is exactly the head or tail of the output of a full sort. Lines
+ * that fail to parse are handled by the
+ * {@link SortOptions#getBadRecordPolicy()}, and the
+ * {@link SortOptions#getFilter()} applies.
+ */
+public class TopNSelector {
+
+  private final int limit_;
+  private final boolean tail_;
+  private final int threadCount_;
+  private final LogFilter filter_;
+  private final BadRecordPolicy badRecords_;
+
+  private TopNSelector(final SortOptions options, final int limit, final boolean tail) {
+
+    if (limit < 1)
+      throw new IllegalArgumentException("Limit must be positive.");
+
+    limit_ = limit;
+    tail_ = tail;
+    threadCount_ = options.getThreadCount();
+    filter_ = options.getFilter();
+    badRecords_ = options.getBadRecordPolicy();
+
+  }
+
+  /**
+   * @param options the thread count, filter and bad record policy
+   * @param limit the number of entries to select
+   * @return a selector of the earliest entries
+   */
+  public static TopNSelector head(final SortOptions options, final int limit) {
+    return new TopNSelector(options, limit, false);
+  }
+
+  /**
+   * @param options the thread count, filter and bad record policy
+   * @param limit the number of entries to select
+   * @return a selector of the latest entries
+   */
+  public static TopNSelector tail(final SortOptions options, final int limit) {
+    return new TopNSelector(options, limit, true);
+  }
+
+  /**
+   * Read all lines of the reader and select the entries. The reader is not
+   * closed.
+   *
+   * @param reader the source of raw log lines
+   * @return up to the limit of entries, in sorted order
+   * @throws IOException on read errors
+   */
+  public List<LogEntry> select(final BufferedReader reader) throws IOException {
+
+    if (threadCount_ > 1) {
+      return selectParallel(reader);
+    }
+
+    final Heap heap = new Heap(limit_, tail_);
+    long sequence = 0;
+
+    for (String line; (line = reader.readLine()) != null;) {
+      offer(heap, line, sequence++);
+    }
+
+    return heap.sorted();
+
+  }
+
+  private List<LogEntry> selectParallel(final BufferedReader reader) throws IOException {
+
+    final ExecutorService workers =
+        Executors.newFixedThreadPool(threadCount_, new DaemonThreadFactory("log-select-worker-"));
+
+    try {
+
+      final Heap heap = new Heap(limit_, tail_);
+
+      // as in ParallelRunGenerator, keep a couple of batches per worker
+      // queued so no worker idles
+      final int maxPendingBatches = threadCount_ * 2;
+      final Deque<Future<Heap>> pending = new ArrayDeque<>();
+      long sequence = 0;
+
+      for (String[] batch; (batch = ParallelRunGenerator.readBatch(reader::readLine)) != null;) {
+
+        final String[] lines = batch;
+        final long first = sequence;
+        pending.addLast(workers.submit(() -> selectBatch(lines, first)));
+        sequence += lines.length;
+
+        if (pending.size() >= maxPendingBatches) {
+          heap.offerAll(await(pending.removeFirst()));
+        }
+
+      }
+
+      while (!pending.isEmpty()) {
+        heap.offerAll(await(pending.removeFirst()));
+      }
+
+      return heap.sorted();
+
+    } finally {
+
+      workers.shutdownNow();
+
+    }
+
+  }
+
+  private Heap selectBatch(final String[] lines, final long first) throws IOException {
+
+    final Heap heap = new Heap(Math.min(limit_, lines.length), tail_);
+
+    for (int i = 0; i < lines.length; i++) {
+      offer(heap, lines[i], first + i);
+    }
+
+    return heap;
+
+  }
+
+  private void offer(final Heap heap,
+                     final String line,
+                     final long sequence) throws IOException {
+
+    final LogEntry entry = LogEntry.tryParse(line);
+
+    if (entry == null) {
+      badRecords_.reject(line);
+    } else if (filter_ == null || filter_.accepts(entry)) {
+      heap.offer(entry, entry.getSortKey(), sequence);
+    }
+
+  }
+
+  private static Heap await(final Future<Heap> future) throws IOException {
+
+    try {
+
+      return future.get();
+
+    } catch (InterruptedException e) {
+
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a selected batch");
+
+    } catch (ExecutionException e) {
+
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException("Unable to select batch", cause);
+
+    }
+
+  }
+
+  /**
+   * The best entries seen so far, as parallel arrays ordered by (key,
+   * sequence) with the worst retained entry at the root: the greatest for
+   * a head, the least for a tail.
+   */
+  private static final class Heap {
+
+    private final boolean tail_;
+    private final LogEntry[] entries_;
+    private final long[] keys_;
+    private final long[] sequences_;
+    private int count_;
+
+    Heap(final int capacity, final boolean tail) {
+
+      tail_ = tail;
+      entries_ = new LogEntry[capacity];
+      keys_ = new long[capacity];
+      sequences_ = new long[capacity];
+
+    }
+
+    void offer(final LogEntry entry, final long key, final long sequence) {
+
+      if (count_ < entries_.length) {
+
+        siftUp(count_++, entry, key, sequence);
+
+      } else if (worse(keys_[0], sequences_[0], key, sequence)) {
+
+        siftDown(entry, key, sequence);
+
+      }
+
+    }
+
+    void offerAll(final Heap other) {
+
+      for (int i = 0; i < other.count_; i++) {
+        offer(other.entries_[i], other.keys_[i], other.sequences_[i]);
+      }
+
+    }
+
+    /**
+     * @return the retained entries in ascending (key, sequence) order
+     */
+    List<LogEntry> sorted() {
+
+      final Integer[] order = new Integer[count_];
+      for (int i = 0; i < count_; i++) {
+        order[i] = i;
+      }
+
+      Arrays.sort(order, (a, b) -> keys_[a] != keys_[b]
+          ? Long.compare(keys_[a], keys_[b])
+          : Long.compare(sequences_[a], sequences_[b]));
+
+      final List<LogEntry> entries = new ArrayList<>(count_);
+      for (final Integer i : order) {
+        entries.add(entries_[i]);
+      }
+      return entries;
+
+    }
+
+    /**
+     * @return true if entry a would be dropped before entry b
+     */
+    private boolean worse(final long keyA, final long sequenceA,
+                          final long keyB, final long sequenceB) {
+
+      final boolean greater = keyA > keyB || (keyA == keyB && sequenceA > sequenceB);
+      return tail_ ? !greater : greater;
+
+    }
+
+    private void siftUp(int index, final LogEntry entry, final long key, final long sequence) {
+
+      while (index > 0) {
+
+        final int parent = (index - 1) >>> 1;
+
+        if (!worse(key, sequence, keys_[parent], sequences_[parent])) {
+          break;
+        }
+
+        entries_[index] = entries_[parent];
+        keys_[index] = keys_[parent];
+        sequences_[index] = sequences_[parent];
+        index = parent;
+
+      }
+
+      entries_[index] = entry;
+      keys_[index] = key;
+      sequences_[index] = sequence;
+
+    }
+
+    /**
+     * Replace the root and restore the heap.
+     */
+    private void siftDown(final LogEntry entry, final long key, final long sequence) {
+
+      int index = 0;
+
+      while (true) {
+
+        int child = index * 2 + 1;
+        if (child >= count_) {
+          break;
+        }
+
+        if (child + 1 < count_
+            && worse(keys_[child + 1], sequences_[child + 1], keys_[child], sequences_[child])) {
+          child++;
+        }
+
+        if (!worse(keys_[child], sequences_[child], key, sequence)) {
+          break;
+        }
+
+        entries_[index] = entries_[child];
+        keys_[index] = keys_[child];
+        sequences_[index] = sequences_[child];
+        index = child;
+
+      }
+
+      entries_[index] = entry;
+      keys_[index] = key;
+      sequences_[index] = sequence;
+
+    }
+
+  }
+
+}
@@ -0,0 +1,97 @@
+package samples.logutils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import samples.logutils.LogEntry.Severity;
+
+public class TopNSelectorTest {
+
+  @Test
+  public void testHeadAndTail() throws IOException {
+
+    // few distinct timestamps, so ties must keep their input order
+    final String input = ParallelRunGeneratorTest.randomLog(20000)
+        .replaceAll(":\\d\\d\\.\\d\\d\\d", ":00.000");
+    final List<String> sorted = sorted(input, null);
+
+    for (final int threads : new int[] {1, 3}) {
+
+      final SortOptions options = new SortOptions().setThreadCount(threads);
+
+      for (final int limit : new int[] {1, 100, 5000, 30000}) {
+
+        final int count = Math.min(limit, sorted.size());
+
+        assertThat(lines(TopNSelector.head(options, limit).select(reader(input))),
+                   equalTo(sorted.subList(0, count)));
+        assertThat(lines(TopNSelector.tail(options, limit).select(reader(input))),
+                   equalTo(sorted.subList(sorted.size() - count, sorted.size())));
+
+      }
+
+    }
+
+  }
+
+  @Test
+  public void testFilter() throws IOException {
+
+    final String input = ParallelRunGeneratorTest.randomLog(5000);
+    final LogFilter filter = new LogFilter().setSeverities(Severity.ERROR);
+    final List<String> sorted = sorted(input, filter);
+
+    final SortOptions options = new SortOptions().setThreadCount(2).setFilter(filter);
+
+    assertThat(lines(TopNSelector.tail(options, 50).select(reader(input))),
+               equalTo(sorted.subList(sorted.size() - 50, sorted.size())));
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLimit() {
+
+    TopNSelector.head(new SortOptions(), 0);
+
+  }
+
+  private static BufferedReader reader(final String input) {
+    return new BufferedReader(new StringReader(input));
+  }
+
+  private static List<String> sorted(final String input, final LogFilter filter) throws IOException {
+
+    final List<LogEntry> entries = new ArrayList<>();
+    final BufferedReader reader = reader(input);
+    for (String line; (line = reader.readLine()) != null;) {
+      final LogEntry entry = LogEntry.fromString(line);
+      if (filter == null || filter.accepts(entry)) {
+        entries.add(entry);
+      }
+    }
+    Collections.sort(entries);
+
+    return lines(entries);
+
+  }
+
+  private static List<String> lines(final List<LogEntry> entries) {
+
+    final List<String> lines = new ArrayList<>();
+    for (final LogEntry entry : entries) {
+      lines.add(entry.getLogLine());
+    }
+    return lines;
+
+  }
+
+}